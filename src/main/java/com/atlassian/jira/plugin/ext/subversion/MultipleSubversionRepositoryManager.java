@@ -46,4 +46,11 @@ public interface MultipleSubversionRepositoryManager {
 
     void removeRepository(long repoId);
 
+    /**
+     * Forgets which commits of the projects the users may see, on this node and on the other nodes of the cluster.
+     *
+     * @param projectKeys the projects whose permissions may have changed, or <tt>null</tt> for all projects.
+     */
+    void invalidatePermissions(Collection<String> projectKeys);
+
 }
@@ -13,6 +13,7 @@ import com.atlassian.jira.issue.changehistory.ChangeHistoryManager;
 import com.atlassian.jira.plugin.ext.subversion.messages.DefaultIndexMessageService;
 import com.atlassian.jira.plugin.ext.subversion.messages.IndexMessageService;
 import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
+import com.atlassian.jira.plugin.ext.subversion.revisions.scheduling.clustersafe.IndexingLeaderElection;
 import com.atlassian.jira.project.version.VersionManager;
 import com.atlassian.jira.propertyset.JiraPropertySetFactory;
 import com.atlassian.jira.security.PermissionManager;
@@ -76,6 +77,9 @@ public class MultipleSubversionRepositoryManagerImpl implements MultipleSubversi
 
     private RevisionIndexer revisionIndexer;
 
+    // null unless the node publishing the replicated index is elected
+    private IndexingLeaderElection leaderElection;
+
     public MultipleSubversionRepositoryManagerImpl(
             VersionManager versionManager,
             IssueManager issueManager,
@@ -114,6 +118,13 @@ public class MultipleSubversionRepositoryManagerImpl implements MultipleSubversi
         revisionIndexer = new RevisionIndexer(this, versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager);
         indexMessageService = new DefaultIndexMessageService(clusterMessagingService, revisionIndexer, cachedSvnManagers);
         indexMessageService.registerListeners();
+        // the other nodes copy a snapshot as soon as it is published rather than on their next check
+        revisionIndexer.setPublishListener(new RevisionIndexer.PublishListener() {
+            @Override
+            public void published(long generation) {
+                indexMessageService.indexPublished(generation);
+            }
+        });
     }
 
     @Override
@@ -130,7 +141,11 @@ public class MultipleSubversionRepositoryManagerImpl implements MultipleSubversi
 
     @Override
     public void destroy() throws Exception {
+        if (leaderElection != null) {
+            leaderElection.stop();
+        }
         indexMessageService.unregisterListeners();
+        revisionIndexer.stop();
     }
 
     private class SvnManagerCacheSupplier implements Supplier<Map<Long, SubversionManager>> {
@@ -233,6 +248,13 @@ public class MultipleSubversionRepositoryManagerImpl implements MultipleSubversi
         }
     }
 
+    public void invalidatePermissions(Collection<String> projectKeys) {
+        if (isIndexingRevisions()) {
+            revisionIndexer.invalidatePermissions(projectKeys);
+            indexMessageService.permissionsChanged(projectKeys);
+        }
+    }
+
     public boolean isIndexingRevisions() {
         return revisionIndexer != null;
     }
@@ -251,5 +273,27 @@ public class MultipleSubversionRepositoryManagerImpl implements MultipleSubversi
 
     void startRevisionIndexer() {
         getRevisionIndexer().start();
+        getRevisionIndexer().startPolling();
+        if (getRevisionIndexer().isElectingPublisher()) {
+            // only the elected node polls the repositories, the others copy the index it publishes
+            leaderElection = new IndexingLeaderElection(clusterLockService, jiraPropertySetFactory, new IndexingLeaderElection.Listener() {
+                @Override
+                public void leadershipChanged(boolean leader) {
+                    getRevisionIndexer().setPublishing(leader);
+                }
+            });
+            getRevisionIndexer().setPublisherLease(new RevisionIndexer.PublisherLease() {
+                @Override
+                public String getNodeId() {
+                    return leaderElection.getNodeId();
+                }
+
+                @Override
+                public long confirm() {
+                    return leaderElection.confirmLeadership();
+                }
+            });
+            leaderElection.start();
+        }
     }
 }
@@ -8,13 +8,43 @@ package com.atlassian.jira.plugin.ext.subversion;
 
 import com.atlassian.jira.plugin.ext.subversion.linkrenderer.SubversionLinkRenderer;
 import com.opensymphony.module.propertyset.PropertySet;
+import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 
+import java.util.Map;
+import java.util.Set;
+
 public interface SubversionManager {
-    void getLogEntries(long revision, final SvnEntryHandler svnEntryHandler);
+    /**
+     * @return the youngest revision of the repository, or <tt>-1</tt> if the repository cannot be reached.
+     */
+    long getLatestRevision();
+
+    /**
+     * @return the UUID of the repository, or <tt>null</tt> if the repository cannot be reached.
+     */
+    String getRepositoryUUID();
+
+    /**
+     * Retrieves the log entries after <tt>revision</tt> up to and including <tt>latestRevision</tt>, in the order
+     * of their revisions. Nothing is retrieved if the repository is not active.
+     *
+     * @throws SVNException if retrieval fails part way. The entries handled so far are all there is; the repository
+     *                      stays active and the next call retrieves the log on a new session.
+     */
+    void getLogEntries(long revision, long latestRevision, final SvnEntryHandler svnEntryHandler) throws SVNException;
 
     SVNLogEntry getLogEntry(long revision);
 
+    /**
+     * Retrieves the log entries of several revisions at once. Revisions that are not cached are fetched in as few
+     * requests as possible, one for each run of nearby revisions.
+     *
+     * @return the log entries by revision; revisions that do not exist are left out.
+     * @throws IllegalStateException if the repository is not active.
+     */
+    Map<Long, SVNLogEntry> getLogEntries(Set<Long> revisions);
+
     long getId();
 
     String getDisplayName();
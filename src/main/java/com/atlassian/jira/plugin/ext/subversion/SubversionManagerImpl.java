@@ -10,9 +10,10 @@ import com.atlassian.jira.InfrastructureException;
 import com.atlassian.jira.plugin.ext.subversion.linkrenderer.LinkFormatRenderer;
 import com.atlassian.jira.plugin.ext.subversion.linkrenderer.NullLinkRenderer;
 import com.atlassian.jira.plugin.ext.subversion.linkrenderer.SubversionLinkRenderer;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.opensymphony.module.propertyset.PropertySet;
 import org.apache.commons.codec.binary.Base64;
-import org.apache.commons.collections.map.LRUMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tmatesoft.svn.core.ISVNLogEntryHandler;
@@ -27,17 +28,53 @@ import org.tmatesoft.svn.core.wc.SVNWCUtil;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class SubversionManagerImpl implements SubversionManager {
     private final static Logger log = LoggerFactory.getLogger(SubversionManagerImpl.class);
 
+    /**
+     * Revisions at most this far apart are fetched with one request; the few entries in between are cheaper than
+     * another round-trip.
+     */
+    private static final long MAX_RANGE_GAP = 16;
+
+    /**
+     * The most sessions open to one repository at the same time.
+     */
+    static final String MAX_SESSIONS_PROPERTY = "jira.plugins.subversion.sessions.max";
+    private static final int DEFAULT_MAX_SESSIONS = 4;
+
+    /**
+     * How long, in seconds, a session may be idle before it is closed.
+     */
+    static final String SESSION_IDLE_TIMEOUT_PROPERTY = "jira.plugins.subversion.sessions.idleTimeout";
+    private static final long DEFAULT_SESSION_IDLE_TIMEOUT = 300;
+
+    /**
+     * Sessions idle for longer than this are tested before they are used again.
+     */
+    private static final long SESSION_VALIDATION_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    private static final long SESSION_BORROW_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+
     private SubversionLinkRenderer linkRenderer;
-    private Map logEntryCache;
-    private SVNRepository repository;
+    private volatile Cache<Long, SVNLogEntry> logEntryCache;
 
-    private boolean active;
+    /*
+     * Each request borrows a session of its own, so the tab panels and the indexer do not wait for each other. A
+     * session that fails is replaced; only when a new one fails as well is the repository deactivated.
+     */
+    private volatile SvnSessionPool sessionPool;
+
+    private volatile boolean active;
     private String inactiveMessage;
     private long id;
 
@@ -77,29 +114,58 @@ public class SubversionManagerImpl implements SubversionManager {
             cacheSize = getRevisioningCacheSize();
         }
 
-        logEntryCache = new LRUMap(cacheSize);
+        logEntryCache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
         activate();
     }
 
-    public synchronized void getLogEntries(long revision, final SvnEntryHandler svnEntryHandler) {
+    public long getLatestRevision() {
 
         // if connection isn't up, don't even try
         if (!isActive()) {
-            return;
+            return -1;
         }
 
-        long latestRevision;
         try {
-            latestRevision = repository.getLatestRevision();
+            final long latestRevision = withSession(new SessionWork<Long>() {
+                public Long run(SVNRepository session) throws SVNException {
+                    return session.getLatestRevision();
+                }
+            });
+            if (log.isDebugEnabled()) {
+                log.debug("Latest revision in repository=" + getRoot() + "  is : " + latestRevision);
+            }
+            return latestRevision;
         } catch (SVNException e) {
             // connection was active, but apparently now it's not
             log.error("Error getting the latest revision from the repository.", e);
             deactivate(e.getMessage());
-            return;
+            return -1;
         }
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug("Latest revision in repository=" + getRoot() + "  is : " + latestRevision);
+    public String getRepositoryUUID() {
+        if (!isActive()) {
+            return null;
+        }
+
+        try {
+            return withSession(new SessionWork<String>() {
+                public String run(SVNRepository session) throws SVNException {
+                    return session.getRepositoryUUID(true);
+                }
+            });
+        } catch (SVNException e) {
+            log.error("Error getting the UUID of the repository.", e);
+            deactivate(e.getMessage());
+            return null;
+        }
+    }
+
+    public void getLogEntries(long revision, long latestRevision, final SvnEntryHandler svnEntryHandler) throws SVNException {
+
+        // if connection isn't up, don't even try
+        if (!isActive()) {
+            return;
         }
 
         if (latestRevision > 0 && latestRevision <= revision) {
@@ -119,8 +185,15 @@ public class SubversionManagerImpl implements SubversionManager {
         }
 
         final AtomicInteger count = new AtomicInteger();
+        final SvnSessionPool pool = sessionPool;
+        if (pool == null) {
+            return;
+        }
+        SVNRepository session = null;
+        boolean healthy = false;
         try {
-            repository.log(new String[]{""}, retrieveStart, latestRevision, true, true, new ISVNLogEntryHandler() {
+            session = pool.borrow();
+            session.log(new String[]{""}, retrieveStart, latestRevision, true, true, new ISVNLogEntryHandler() {
                 public void handleLogEntry(SVNLogEntry logEntry) {
                     if (log.isDebugEnabled()) {
                         log.debug("Retrieved #" + logEntry.getRevision() + " : " + logEntry.getMessage());
@@ -130,9 +203,10 @@ public class SubversionManagerImpl implements SubversionManager {
                     count.incrementAndGet();
                 }
             });
-        } catch (SVNException e) {
-            log.error("Error retrieving changes from the repository.", e);
-            deactivate(e.getMessage());
+            healthy = true;
+        } finally {
+            // the entries handled so far are kept, the next update carries on from there on a new session
+            giveBack(pool, session, healthy);
         }
         if (log.isDebugEnabled()) {
             log.debug("Retrieved " + count.get() + " revisions to index (between " + retrieveStart + " and " + latestRevision + ") from repository=" + getRoot());
@@ -144,35 +218,127 @@ public class SubversionManagerImpl implements SubversionManager {
         }
     }
 
-    public synchronized SVNLogEntry getLogEntry(long revision) {
+    public SVNLogEntry getLogEntry(long revision) {
+        return getLogEntries(Collections.singleton(revision)).get(revision);
+    }
+
+    public Map<Long, SVNLogEntry> getLogEntries(Set<Long> revisions) {
         if (!isActive()) {
             throw new IllegalStateException("The connection to the repository is not active");
         }
-        final SVNLogEntry[] logEntry = new SVNLogEntry[]{(SVNLogEntry) logEntryCache.get(new Long(revision))};
 
-        if (logEntry[0] == null) {
-            try {
-                if (log.isDebugEnabled()) {
-                    log.debug("No cache - retrieving log message for revision: " + revision);
+        // cached entries are read without taking any lock
+        final Map<Long, SVNLogEntry> logEntries = new HashMap<Long, SVNLogEntry>();
+        final SortedSet<Long> missing = new TreeSet<Long>();
+        collectCached(revisions, logEntries, missing);
+        if (missing.isEmpty()) {
+            return logEntries;
+        }
+
+        final ISVNLogEntryHandler handler = new ISVNLogEntryHandler() {
+            public void handleLogEntry(SVNLogEntry entry) {
+                // a range may include revisions in between that nobody asked for
+                if (missing.contains(entry.getRevision())) {
+                    logEntries.put(entry.getRevision(), entry);
+                    ensureCached(entry);
                 }
+            }
+        };
 
-                repository.log(new String[]{""}, revision, revision, true, true, new ISVNLogEntryHandler() {
-                    public void handleLogEntry(SVNLogEntry entry) {
-                        logEntry[0] = entry;
-                        ensureCached(entry);
+        try {
+            withSession(new SessionWork<Void>() {
+                public Void run(SVNRepository session) throws SVNException {
+                    final Iterator<Long> iterator = missing.iterator();
+                    long start = iterator.next();
+                    long end = start;
+                    while (iterator.hasNext()) {
+                        final long revision = iterator.next();
+                        if (revision - end > MAX_RANGE_GAP) {
+                            fetchLogEntries(session, start, end, handler);
+                            start = revision;
+                        }
+                        end = revision;
                     }
-                });
-            } catch (SVNException e) {
-                log.error("Error retrieving logs: " + e, e);
-                deactivate(e.getMessage());
-                throw new InfrastructureException(e);
+                    fetchLogEntries(session, start, end, handler);
+                    return null;
+                }
+            });
+        } catch (SVNException e) {
+            log.error("Error retrieving logs: " + e, e);
+            deactivate(e.getMessage());
+            throw new InfrastructureException(e);
+        }
+        return logEntries;
+    }
+
+    private void collectCached(Set<Long> revisions, Map<Long, SVNLogEntry> logEntries, Set<Long> missing) {
+        final Cache<Long, SVNLogEntry> cache = logEntryCache;
+        for (Long revision : revisions) {
+            final SVNLogEntry logEntry = cache.getIfPresent(revision);
+            if (logEntry != null) {
+                logEntries.put(revision, logEntry);
+            } else {
+                missing.add(revision);
             }
-        } else if (log.isDebugEnabled()) {
-            log.debug("Found cached log message for revision: " + revision);
         }
-        return logEntry[0];
     }
 
+    private void fetchLogEntries(SVNRepository session, long start, long end, ISVNLogEntryHandler handler) throws SVNException {
+        if (log.isDebugEnabled()) {
+            log.debug("No cache - retrieving log messages for revisions " + start + " to " + end);
+        }
+        session.log(new String[]{""}, start, end, true, true, handler);
+    }
+
+    /**
+     * Runs the work on a pooled session. If the session fails, it is replaced and the work is tried once more on a
+     * new one, since a session may have been dropped by the server while it was idle.
+     *
+     * @throws SVNException if the work fails on the new session as well.
+     */
+    private <T> T withSession(SessionWork<T> work) throws SVNException {
+        final SvnSessionPool pool = sessionPool;
+        if (pool == null) {
+            throw new IllegalStateException("The connection to the repository is not active");
+        }
+
+        SVNRepository session = pool.borrow();
+        boolean healthy = false;
+        try {
+            final T result = work.run(session);
+            healthy = true;
+            return result;
+        } catch (SVNException e) {
+            log.warn("Request to repository " + getRoot() + " failed, retrying on a new session: " + e.getMessage());
+        } finally {
+            giveBack(pool, session, healthy);
+        }
+
+        session = pool.borrow();
+        healthy = false;
+        try {
+            final T result = work.run(session);
+            healthy = true;
+            return result;
+        } finally {
+            giveBack(pool, session, healthy);
+        }
+    }
+
+    private static void giveBack(SvnSessionPool pool, SVNRepository session, boolean healthy) {
+        if (session == null) {
+            return;
+        }
+        if (healthy) {
+            pool.release(session);
+        } else {
+            pool.invalidate(session);
+        }
+    }
+
+    private interface SessionWork<T> {
+        T run(SVNRepository session) throws SVNException;
+    }
 
     public long getId() {
         return id;
@@ -182,9 +348,7 @@ public class SubversionManagerImpl implements SubversionManager {
      * Make sure a single log message is cached.
      */
     private void ensureCached(SVNLogEntry logEntry) {
-        synchronized (logEntryCache) {
-            logEntryCache.put(new Long(logEntry.getRevision()), logEntry);
-        }
+        logEntryCache.put(logEntry.getRevision(), logEntry);
     }
 
     public PropertySet getProperties() {
@@ -228,21 +392,28 @@ public class SubversionManagerImpl implements SubversionManager {
         return inactiveMessage;
     }
 
-    public void activate() {
+    public synchronized void activate() {
+        closeSessions();
+        final SvnSessionPool pool = new SvnSessionPool(new SvnSessionPool.SessionFactory() {
+            public SVNRepository create() throws SVNException {
+                return createSession();
+            }
+        }, Integer.getInteger(MAX_SESSIONS_PROPERTY, DEFAULT_MAX_SESSIONS),
+                TimeUnit.SECONDS.toMillis(Long.getLong(SESSION_IDLE_TIMEOUT_PROPERTY, DEFAULT_SESSION_IDLE_TIMEOUT)),
+                SESSION_VALIDATION_INTERVAL, SESSION_BORROW_TIMEOUT);
         try {
-            final SVNURL url = parseSvnUrl();
-            repository = createRepository(url);
-            final ISVNAuthenticationManager authManager;
-            if (null != getPrivateKeyFile()) {
-                authManager = new BasicAuthenticationManager(getUsername(), new File(getPrivateKeyFile()), getPassword(), 22);
-            } else {
-                authManager = SVNWCUtil.createDefaultAuthenticationManager(getUsername(), getPassword());
+            final SVNRepository session = pool.borrow();
+            try {
+                session.testConnection();
+            } catch (SVNException e) {
+                pool.invalidate(session);
+                throw e;
             }
-            repository.setAuthenticationManager(new ISVNAuthenticationManagerDelegator(authManager));
-
-            repository.testConnection();
+            pool.release(session);
+            sessionPool = pool;
             active = true;
         } catch (SVNException e) {
+            pool.close();
             log.error("Connection to Subversion repository " + getRoot() + " failed: " + e, e);
             // We don't want to throw an exception here because then the system won't start if the repo is down
             // or there is something wrong with the configuration.  We also still want this repository to show up
@@ -252,6 +423,19 @@ public class SubversionManagerImpl implements SubversionManager {
         }
     }
 
+    private SVNRepository createSession() throws SVNException {
+        final SVNURL url = parseSvnUrl();
+        final SVNRepository session = createRepository(url);
+        final ISVNAuthenticationManager authManager;
+        if (null != getPrivateKeyFile()) {
+            authManager = new BasicAuthenticationManager(getUsername(), new File(getPrivateKeyFile()), getPassword(), 22);
+        } else {
+            authManager = SVNWCUtil.createDefaultAuthenticationManager(getUsername(), getPassword());
+        }
+        session.setAuthenticationManager(new ISVNAuthenticationManagerDelegator(authManager));
+        return session;
+    }
+
     SVNURL parseSvnUrl()
             throws SVNException {
         return SVNURL.parseURIEncoded(getRoot());
@@ -262,20 +446,19 @@ public class SubversionManagerImpl implements SubversionManager {
         return SVNRepositoryFactory.create(url);
     }
 
-    private void deactivate(String message) {
-        if (repository != null) {
-//			try {
-            repository.closeSession();
-//			}
-//			catch (SVNException e) {
-            // ignore, we're throwing the repository away anyways
-//			}
-            repository = null;
-        }
+    private synchronized void deactivate(String message) {
+        closeSessions();
         active = false;
         inactiveMessage = message;
     }
 
+    private synchronized void closeSessions() {
+        if (sessionPool != null) {
+            sessionPool.close();
+            sessionPool = null;
+        }
+    }
+
     public ViewLinkFormat getViewLinkFormat() {
         if (!isViewLinkSet) {
             final String type = properties.getString(MultipleSubversionRepositoryManager.SVN_LINKFORMAT_TYPE);
@@ -0,0 +1,264 @@
+package com.atlassian.jira.plugin.ext.subversion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of sessions to one repository. An <tt>SVNRepository</tt> can only be used by one thread at a
+ * time, so each caller borrows a session of its own and the tab panels and the indexer talk to the server in
+ * parallel.
+ * <p>
+ * Sessions are reused most recently released first, so the surplus left after a busy spell sits idle and is
+ * closed once it has been idle for longer than the idle timeout, by a task run every half of the timeout until the
+ * pool is closed, so a pool nobody borrows from does not keep its sessions open. A session that has been idle for a while is
+ * tested before it is handed out, and replaced if the server no longer answers on it.
+ */
+class SvnSessionPool {
+    private final static Logger log = LoggerFactory.getLogger(SvnSessionPool.class);
+
+    /**
+     * The shortest time in milliseconds between two runs of the task closing the sessions idle for too long.
+     */
+    private static final long MIN_EVICTION_INTERVAL = 100;
+
+    /*
+     * Runs the eviction of the pools of all repositories. Its thread times out once no pool is open.
+     */
+    private static final ScheduledExecutorService EVICTOR = createEvictor();
+
+    /**
+     * Opens a new session to the repository.
+     */
+    interface SessionFactory {
+        SVNRepository create() throws SVNException;
+    }
+
+    private final SessionFactory factory;
+    private final int maxSessions;
+    private final long idleTimeout;
+    private final long validationInterval;
+    private final long borrowTimeout;
+    private final Semaphore permits;
+    private final Deque<IdleSession> idle = new ArrayDeque<IdleSession>();
+    private final ScheduledFuture<?> eviction;
+    private boolean closed;
+
+    /**
+     * @param maxSessions        the most sessions open at the same time.
+     * @param idleTimeout        how long in milliseconds a session may be idle before it is closed.
+     * @param validationInterval how long in milliseconds a session may be idle before it is tested on borrow.
+     * @param borrowTimeout      how long in milliseconds to wait for a session when all of them are in use.
+     */
+    SvnSessionPool(SessionFactory factory, int maxSessions, long idleTimeout, long validationInterval, long borrowTimeout) {
+        this(factory, maxSessions, idleTimeout, validationInterval, borrowTimeout, EVICTOR);
+    }
+
+    SvnSessionPool(SessionFactory factory, int maxSessions, long idleTimeout, long validationInterval, long borrowTimeout,
+                   ScheduledExecutorService evictor) {
+        this.factory = factory;
+        this.maxSessions = Math.max(1, maxSessions);
+        this.idleTimeout = idleTimeout;
+        this.validationInterval = validationInterval;
+        this.borrowTimeout = borrowTimeout;
+        this.permits = new Semaphore(this.maxSessions, true);
+        final long evictionInterval = Math.max(MIN_EVICTION_INTERVAL, idleTimeout / 2);
+        this.eviction = evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeExpired();
+                } catch (RuntimeException e) {
+                    log.warn("Unable to close the idle sessions to a Subversion repository", e);
+                }
+            }
+        }, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static ScheduledExecutorService createEvictor() {
+        final ScheduledThreadPoolExecutor evictor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "subversion-session-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.setRemoveOnCancelPolicy(true);
+        evictor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        evictor.allowCoreThreadTimeOut(true);
+        return evictor;
+    }
+
+    /**
+     * Hands out an idle session, or opens a new one if none is idle. Every session borrowed has to be given back
+     * with either {@link #release} or {@link #invalidate}.
+     *
+     * @throws SVNException if no session became free in time, a new one could not be opened or the pool is closed.
+     */
+    SVNRepository borrow() throws SVNException {
+        try {
+            if (!permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+                throw new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR,
+                        "All {0} sessions to the repository are in use", maxSessions));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SVNException(SVNErrorMessage.create(SVNErrorCode.CANCELLED, "Interrupted while waiting for a session"));
+        }
+
+        try {
+            final SVNRepository session = takeIdle();
+            return session != null ? session : factory.create();
+        } catch (SVNException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives a healthy session back to the pool.
+     */
+    void release(SVNRepository session) {
+        final List<SVNRepository> expired;
+        synchronized (this) {
+            expired = evictIdle(System.currentTimeMillis());
+            if (!closed) {
+                idle.addFirst(new IdleSession(session, System.currentTimeMillis()));
+                session = null;
+            }
+        }
+        if (session != null) {
+            expired.add(session);
+        }
+        closeAll(expired);
+        permits.release();
+    }
+
+    /**
+     * Closes a session that failed, so the next borrower gets a new one.
+     */
+    void invalidate(SVNRepository session) {
+        try {
+            session.closeSession();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes the idle sessions and stops closing them as they expire. Sessions still borrowed are closed as they are
+     * given back.
+     */
+    void close() {
+        eviction.cancel(false);
+        final List<SVNRepository> sessions = new ArrayList<SVNRepository>();
+        synchronized (this) {
+            closed = true;
+            for (IdleSession idleSession : idle) {
+                sessions.add(idleSession.session);
+            }
+            idle.clear();
+        }
+        closeAll(sessions);
+    }
+
+    synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    int getBorrowedCount() {
+        return maxSessions - permits.availablePermits();
+    }
+
+    private SVNRepository takeIdle() throws SVNException {
+        while (true) {
+            final long now = System.currentTimeMillis();
+            final IdleSession candidate;
+            final List<SVNRepository> expired;
+            synchronized (this) {
+                if (closed) {
+                    throw new SVNException(SVNErrorMessage.create(SVNErrorCode.CANCELLED,
+                            "The connection to the repository is not active"));
+                }
+                expired = evictIdle(now);
+                candidate = idle.pollFirst();
+            }
+            closeAll(expired);
+
+            if (candidate == null) {
+                return null;
+            }
+            if (now - candidate.since < validationInterval || isHealthy(candidate.session)) {
+                return candidate.session;
+            }
+            candidate.session.closeSession();
+        }
+    }
+
+    private boolean isHealthy(SVNRepository session) {
+        try {
+            session.testConnection();
+            return true;
+        } catch (SVNException e) {
+            log.debug("Replacing a broken session to " + session.getLocation() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Closes the sessions idle for too long, without waiting for the next borrow or release.
+     */
+    void closeExpired() {
+        final List<SVNRepository> expired;
+        synchronized (this) {
+            expired = evictIdle(System.currentTimeMillis());
+        }
+        closeAll(expired);
+    }
+
+    /**
+     * Removes the sessions idle for too long, which are the oldest ones at the end. Must be called holding the
+     * lock of the pool; the sessions returned are closed outside of it.
+     */
+    private List<SVNRepository> evictIdle(long now) {
+        final List<SVNRepository> expired = new ArrayList<SVNRepository>();
+        while (!idle.isEmpty() && now - idle.peekLast().since >= idleTimeout) {
+            expired.add(idle.pollLast().session);
+        }
+        return expired;
+    }
+
+    private static void closeAll(List<SVNRepository> sessions) {
+        for (SVNRepository session : sessions) {
+            session.closeSession();
+        }
+    }
+
+    private static class IdleSession {
+        private final SVNRepository session;
+        private final long since;
+
+        IdleSession(SVNRepository session, long since) {
+            this.session = session;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.atlassian.jira.plugin.ext.subversion.action;
+
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.IndexRebuildProgress;
+import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rebuilds the revision index while the current one stays in use, and shows how far the rebuild has got.
+ */
+public class RebuildSubversionIndexAction extends SubversionActionSupport {
+    private IndexRebuildProgress progress;
+
+    public RebuildSubversionIndexAction(MultipleSubversionRepositoryManager manager) {
+        super(manager);
+    }
+
+    public String doDefault() {
+        if (!hasPermissions()) {
+            return PERMISSION_VIOLATION_RESULT;
+        }
+
+        final RevisionIndexer revisionIndexer = getMultipleRepoManager().getRevisionIndexer();
+        if (revisionIndexer != null) {
+            progress = revisionIndexer.getRebuildProgress();
+        }
+        return INPUT;
+    }
+
+    public String doExecute() {
+        if (!hasPermissions()) {
+            return PERMISSION_VIOLATION_RESULT;
+        }
+
+        final RevisionIndexer revisionIndexer = getMultipleRepoManager().getRevisionIndexer();
+        if (revisionIndexer == null) {
+            addErrorMessage(getText("subversion.index.rebuild.disabled"));
+            return ERROR;
+        }
+        progress = revisionIndexer.rebuildIndex();
+        return getRedirect("RebuildSubversionIndex!default.jspa");
+    }
+
+    public boolean isIndexingRevisions() {
+        return getMultipleRepoManager().isIndexingRevisions();
+    }
+
+    /**
+     * @return the progress of the latest rebuild, or <tt>null</tt> if there has been none.
+     */
+    public IndexRebuildProgress getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return the time as minutes and seconds, such as <tt>12:05</tt>, or <tt>null</tt> for a negative time.
+     */
+    public String formatDuration(long millis) {
+        if (millis < 0) {
+            return null;
+        }
+        final long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+        return String.format("%d:%02d", seconds / 60, seconds % 60);
+    }
+}
@@ -10,6 +10,8 @@ import com.atlassian.jira.issue.Issue;
 import com.atlassian.jira.issue.index.IndexException;
 import com.atlassian.jira.issue.tabpanels.GenericMessageAction;
 import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.LogEntryPage;
+import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionRange;
 import com.atlassian.jira.plugin.issuetabpanel.AbstractIssueTabPanel;
 import com.atlassian.jira.plugin.issuetabpanel.IssueTabPanelModuleDescriptor;
 import com.atlassian.jira.security.PermissionManager;
@@ -63,17 +65,21 @@ public class SubversionRevisionsTabPanel extends AbstractIssueTabPanel {
             final boolean sortAscending = false;
             int pageSize = getPageSizeRequestParameter();
 
-            Map<Long, List<SVNLogEntry>> logEntries = multipleSubversionRepositoryManager.getRevisionIndexer().getLogEntriesByRepository(
+            LogEntryPage page = multipleSubversionRepositoryManager.getRevisionIndexer().getLogEntryPageByRepository(
                     issue,
-                    getPageRequestParameter() * pageSize,
-                    pageSize + 1,
-                    sortAscending
+                    getCursorRequestParameter(),
+                    pageSize,
+                    sortAscending,
+                    getRangeRequestParameters()
             );
 
-            if (logEntries == null) {
+            if (page == null) {
                 GenericMessageAction action = new GenericMessageAction(getText("no.index.error.message"));
                 return EasyList.build(action);
-            } else if (logEntries.isEmpty()) {
+            }
+
+            Map<Long, List<SVNLogEntry>> logEntries = page.getLogEntries();
+            if (logEntries.isEmpty()) {
                 GenericMessageAction action = new GenericMessageAction(getText("no.log.entries.message"));
                 return EasyList.build(action);
             } else {
@@ -87,16 +93,13 @@ public class SubversionRevisionsTabPanel extends AbstractIssueTabPanel {
                     Collections.reverse(actions);
 
                 /*
-                 * Hack! If we have more than a page of actions, that means we should show the 'More' button.
+                 * If there is a page after this one, we should show the 'More' button.
                  */
-                if (!actions.isEmpty() && actions.size() > pageSize) {
+                if (!actions.isEmpty() && page.hasMore()) {
                     /**
-                     * ViewIssue will reverse the list of actions if the action sort order is descending, so we
-                     * need to sublist based on the order.
+                     * ViewIssue will reverse the list of actions if the action sort order is descending, so the
+                     * last action depends on the order.
                      */
-
-                    actions = sortAscending ? actions.subList(0, pageSize) : actions.subList(1, actions.size());
-
                     int lastActionIndex = sortAscending ? actions.size() - 1 : 0;
                     SubversionRevisionAction lastAction = actions.get(lastActionIndex);
 
@@ -108,7 +111,8 @@ public class SubversionRevisionsTabPanel extends AbstractIssueTabPanel {
                             lastActionIndex,
                             createLastSubversionRevisionActionInPage(
                                     lastAction.getRepoId(),
-                                    lastAction.getRevision()
+                                    lastAction.getRevision(),
+                                    page.getNextCursor()
                             )
                     );
                 }
@@ -175,15 +179,14 @@ public class SubversionRevisionsTabPanel extends AbstractIssueTabPanel {
 //
 //        return defaultOrder;
 //    }
-    private int getPageRequestParameter() {
+    private String getCursorRequestParameter() {
         HttpServletRequest req = ActionContext.getRequest();
 
         if (null != req) {
-            String pageIndexString = req.getParameter("pageIndex");
-            return StringUtils.isBlank(pageIndexString) ? 0 : Integer.parseInt(pageIndexString);
+            return req.getParameter("cursor");
         }
 
-        return 0;
+        return null;
     }
 
     private int getPageSizeRequestParameter() {
@@ -197,12 +200,23 @@ public class SubversionRevisionsTabPanel extends AbstractIssueTabPanel {
         return NUMBER_OF_REVISIONS;
     }
 
+    private RevisionRange getRangeRequestParameters() {
+        HttpServletRequest req = ActionContext.getRequest();
+
+        if (null != req) {
+            return RevisionRange.parse(req.getParameter("fromRevision"), req.getParameter("toRevision"),
+                    req.getParameter("fromDate"), req.getParameter("toDate"));
+        }
+
+        return RevisionRange.ALL;
+    }
+
     SubversionRevisionAction createSubversionRevisionAction(long repoId, SVNLogEntry logEntry) {
         return new SubversionRevisionAction(logEntry, multipleSubversionRepositoryManager, descriptor, repoId);
     }
 
-    SubversionRevisionAction createLastSubversionRevisionActionInPage(long repoId, SVNLogEntry logEntry) {
-        return new LastSubversionRevisionActionInPage(logEntry, multipleSubversionRepositoryManager, descriptor, repoId);
+    SubversionRevisionAction createLastSubversionRevisionActionInPage(long repoId, SVNLogEntry logEntry, String nextCursor) {
+        return new LastSubversionRevisionActionInPage(logEntry, multipleSubversionRepositoryManager, descriptor, repoId, nextCursor);
     }
 
     String getText(String key) {
@@ -218,11 +232,19 @@ public class SubversionRevisionsTabPanel extends AbstractIssueTabPanel {
 
     /**
      * A class specifically created for its unique name so that the action view VMs know that
-     * the action it is processing is the last one and render a 'More' button.
+     * the action it is processing is the last one and render a 'More' button. It carries the cursor
+     * the button asks for the next page with.
      */
-    private class LastSubversionRevisionActionInPage extends SubversionRevisionAction {
-        public LastSubversionRevisionActionInPage(SVNLogEntry logEntry, MultipleSubversionRepositoryManager multipleSubversionRepositoryManager, IssueTabPanelModuleDescriptor descriptor, long repoId) {
+    public class LastSubversionRevisionActionInPage extends SubversionRevisionAction {
+        private final String nextCursor;
+
+        public LastSubversionRevisionActionInPage(SVNLogEntry logEntry, MultipleSubversionRepositoryManager multipleSubversionRepositoryManager, IssueTabPanelModuleDescriptor descriptor, long repoId, String nextCursor) {
             super(logEntry, multipleSubversionRepositoryManager, descriptor, repoId);
+            this.nextCursor = nextCursor;
+        }
+
+        public String getNextCursor() {
+            return nextCursor;
         }
     }
 }
\ No newline at end of file
@@ -1,20 +1,32 @@
 package com.atlassian.jira.plugin.ext.subversion.messages;
 
 import com.atlassian.cache.CachedReference;
-import com.atlassian.jira.InfrastructureException;
 import com.atlassian.jira.cluster.ClusterMessagingService;
-import com.atlassian.jira.issue.index.IndexException;
 import com.atlassian.jira.plugin.ext.subversion.SubversionManager;
 import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.tmatesoft.svn.core.SVNException;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Messages are acted on by a thread of their own, so the thread delivering them is never held up by indexing. The
+ * messages waiting are kept per repository: a message for a repository that still has one waiting replaces it, and
+ * all repositories added in the meantime are indexed by a single update of the index. The snapshots published in the
+ * meantime are copied once, as only the latest one is copied anyway. Permission changes are acted on as they are
+ * received, as forgetting the permissions of the project tab costs nothing.
+ *
  * @since v2.0
  */
 public class DefaultIndexMessageService implements IndexMessageService {
@@ -23,10 +35,24 @@ public class DefaultIndexMessageService implements IndexMessageService {
 
     private static final String INDEX_MESSAGE_CHANNEL = "INDEX_CHANNEL";
 
+    // the parameter of a permission change of all projects, otherwise the project keys are separated by commas
+    private static final String ALL_PROJECTS = "*";
+
     private final ClusterMessagingService clusterMessagingService;
     private final IndexMessageConsumer messageConsumer;
     private final RevisionIndexer revisionIndexer;
     private final CachedReference<Map<Long, SubversionManager>> cachedSvnManagers;
+    private final IndexMessageMetrics metrics = new IndexMessageMetrics();
+
+    /*
+     * The latest message waiting for each repository, in the order the repositories were first mentioned, and
+     * whether the executor has been asked to act on them. The executor acting on the messages is created each time
+     * the listeners are registered and shut down when they are unregistered; all are guarded by the waiting map.
+     */
+    private final Map<Long, IndexMessageType> waiting = new LinkedHashMap<Long, IndexMessageType>();
+    private boolean publicationWaiting;
+    private boolean scheduled;
+    private ExecutorService executor;
 
     public DefaultIndexMessageService(final ClusterMessagingService clusterMessagingService, final RevisionIndexer revisionIndexer, final CachedReference<Map<Long, SubversionManager>> cachedSvnManagers) {
         this.clusterMessagingService = clusterMessagingService;
@@ -35,24 +61,26 @@ public class DefaultIndexMessageService implements IndexMessageService {
         this.cachedSvnManagers = cachedSvnManagers;
     }
 
-    private enum IndexMessageType {
-        ADD_INDEX,
-        REMOVE_INDEX;
-
-        public void callIndexAction(final DefaultIndexMessageService indexService, final ParsedIndexMessage parsedIndexMessage) throws SVNException, IndexException, IOException {
-            final Long repositoryId = Long.valueOf(parsedIndexMessage.getMessageParam());
-            switch (this) {
-                case ADD_INDEX:
-                    indexService.invalidateCacheWhenRepositoryNotFound(repositoryId);
-                    indexService.revisionIndexer.addRepository(repositoryId);
-                    break;
-                case REMOVE_INDEX:
-                    indexService.invalidateCacheWhenRepositoryNotFound(repositoryId);
-                    indexService.revisionIndexer.removeEntries(Long.valueOf(parsedIndexMessage.getMessageParam()));
-                    break;
+    private static ExecutorService createExecutor() {
+        // the thread times out when idle, so a node that receives no messages holds none
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "subversion-index-messages");
+                thread.setDaemon(true);
+                return thread;
             }
-        }
+        });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
 
+    private enum IndexMessageType {
+        ADD_INDEX,
+        REMOVE_INDEX,
+        INDEX_PUBLISHED,
+        PERMISSIONS_CHANGED
     }
 
     @Override
@@ -65,20 +93,142 @@ public class DefaultIndexMessageService implements IndexMessageService {
         clusterMessagingService.sendRemote(INDEX_MESSAGE_CHANNEL, createMessage(IndexMessageType.ADD_INDEX, repositoryId));
     }
 
+    @Override
+    public void indexPublished(final long generation) {
+        clusterMessagingService.sendRemote(INDEX_MESSAGE_CHANNEL, createMessage(IndexMessageType.INDEX_PUBLISHED, generation));
+    }
+
+    @Override
+    public void permissionsChanged(final Collection<String> projectKeys) {
+        if (projectKeys != null && projectKeys.isEmpty()) {
+            return;
+        }
+        clusterMessagingService.sendRemote(INDEX_MESSAGE_CHANNEL, IndexMessageType.PERMISSIONS_CHANGED.name() + "|"
+                + (projectKeys != null ? StringUtils.join(projectKeys, ',') : ALL_PROJECTS));
+    }
+
     @Override
     public void registerListeners() {
         if (logger.isInfoEnabled()) {
             logger.info("Registered IndexMessageConsumer: " + messageConsumer);
         }
+        synchronized (waiting) {
+            if (executor == null) {
+                executor = createExecutor();
+            }
+        }
         clusterMessagingService.registerListener(INDEX_MESSAGE_CHANNEL, messageConsumer);
     }
 
+    /**
+     * Also stops acting on the messages received, interrupting the one being acted on.
+     */
     @Override
     public void unregisterListeners() {
         if (logger.isInfoEnabled()) {
-            logger.info("Unregistered IndexMessageConsumer: " + messageConsumer);
+            logger.info("Unregistered IndexMessageConsumer: " + messageConsumer + ", " + metrics);
         }
         clusterMessagingService.unregisterListener(INDEX_MESSAGE_CHANNEL, messageConsumer);
+        synchronized (waiting) {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            // dropped along with the run that was to act on them
+            waiting.clear();
+            publicationWaiting = false;
+            scheduled = false;
+        }
+    }
+
+    @Override
+    public IndexMessageMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Queues the message for its repository, replacing the one still waiting for it if there is one. A published
+     * snapshot replaces the one still waiting to be copied.
+     */
+    private void enqueue(final IndexMessageType messageType, final long repositoryId) {
+        synchronized (waiting) {
+            final boolean coalesced;
+            if (messageType == IndexMessageType.INDEX_PUBLISHED) {
+                coalesced = publicationWaiting;
+                publicationWaiting = true;
+            } else {
+                coalesced = waiting.put(repositoryId, messageType) != null;
+            }
+            metrics.received(coalesced, waiting.size() + (publicationWaiting ? 1 : 0));
+            if (executor == null) {
+                logger.warn("Ignoring " + messageType + " of repository " + repositoryId + ", the index messages are no longer acted on");
+                waiting.clear();
+                publicationWaiting = false;
+            } else if (!scheduled) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        processWaiting();
+                    }
+                });
+                scheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Acts on all messages waiting. The repositories removed are removed one by one, while those added are indexed by
+     * one update of the index. Messages received meanwhile wait for the next run.
+     */
+    private void processWaiting() {
+        final Map<Long, IndexMessageType> batch;
+        final boolean published;
+        synchronized (waiting) {
+            batch = new LinkedHashMap<Long, IndexMessageType>(waiting);
+            published = publicationWaiting;
+            waiting.clear();
+            publicationWaiting = false;
+            scheduled = false;
+            metrics.dequeued();
+        }
+
+        final long start = System.nanoTime();
+        int failures = 0;
+        if (published) {
+            try {
+                revisionIndexer.copyPublishedIndex();
+            } catch (Exception e) {
+                failures++;
+                logger.error("Could not copy the published index", e);
+            }
+        }
+        final List<Long> added = new ArrayList<Long>();
+        for (Map.Entry<Long, IndexMessageType> message : batch.entrySet()) {
+            final long repositoryId = message.getKey();
+            invalidateCacheWhenRepositoryNotFound(repositoryId);
+            if (message.getValue() == IndexMessageType.ADD_INDEX) {
+                added.add(repositoryId);
+            } else {
+                try {
+                    revisionIndexer.removeEntries(repositoryId);
+                } catch (Exception e) {
+                    failures++;
+                    logger.error("Could not remove the index of repository " + repositoryId, e);
+                }
+            }
+        }
+        if (!added.isEmpty()) {
+            try {
+                revisionIndexer.addRepositories(added);
+            } catch (RuntimeException e) {
+                failures += added.size();
+                logger.error("Could not index repositories " + added, e);
+            }
+        }
+        metrics.processed(batch.size() + (published ? 1 : 0), failures, System.nanoTime() - start);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Acted on the index messages of repositories " + batch.keySet() + (published ? " and a published snapshot" : "") + ": " + metrics);
+        }
     }
 
     private class IndexMessageConsumer implements com.atlassian.jira.cluster.ClusterMessageConsumer {
@@ -91,12 +241,20 @@ public class DefaultIndexMessageService implements IndexMessageService {
             if (INDEX_MESSAGE_CHANNEL.equals(channel)) {
 
                 final ParsedIndexMessage parsedIndexMessage = parseClusterMessage(message);
+                if (parsedIndexMessage.getIndexMessageType() == IndexMessageType.PERMISSIONS_CHANGED) {
+                    final String projectKeys = parsedIndexMessage.getMessageParam();
+                    revisionIndexer.invalidatePermissions(ALL_PROJECTS.equals(projectKeys) ? null : Arrays.asList(projectKeys.split(",")));
+                    return;
+                }
 
+                // the repository, or the generation of a published snapshot
+                final long parameter;
                 try {
-                    parsedIndexMessage.getIndexMessageType().callIndexAction(DefaultIndexMessageService.this, parsedIndexMessage);
-                } catch (Exception e) {
-                    throw new InfrastructureException("Could not update repository index", e);
+                    parameter = Long.parseLong(parsedIndexMessage.getMessageParam());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid indexing message: '" + message + "'", e);
                 }
+                enqueue(parsedIndexMessage.getIndexMessageType(), parameter);
             }
         }
     }
@@ -120,8 +278,8 @@ public class DefaultIndexMessageService implements IndexMessageService {
         }
     }
 
-    private String createMessage(final IndexMessageType messagesType, final long repositoryId) {
-        return messagesType.name() + "|" + repositoryId;
+    private String createMessage(final IndexMessageType messagesType, final long parameter) {
+        return messagesType.name() + "|" + parameter;
     }
 
     private ParsedIndexMessage parseClusterMessage(final String message) {
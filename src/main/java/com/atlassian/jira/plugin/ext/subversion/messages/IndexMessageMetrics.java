@@ -0,0 +1,108 @@
+package com.atlassian.jira.plugin.ext.subversion.messages;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the index messages received from the other nodes and the time spent acting on them. A message for a
+ * repository that still has one waiting replaces it, so it is counted as coalesced rather than queued. All counters
+ * cover the lifetime of the plugin.
+ *
+ * @since v2.0
+ */
+public final class IndexMessageMetrics {
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong processingNanos = new AtomicLong();
+    private final AtomicLong maxProcessingNanos = new AtomicLong();
+
+    void received(boolean coalescedWithWaiting, int depth) {
+        received.incrementAndGet();
+        if (coalescedWithWaiting) {
+            coalesced.incrementAndGet();
+        }
+        queueDepth.set(depth);
+        int max;
+        do {
+            max = maxQueueDepth.get();
+        } while (depth > max && !maxQueueDepth.compareAndSet(max, depth));
+    }
+
+    void dequeued() {
+        queueDepth.set(0);
+    }
+
+    void processed(int messages, int failures, long nanos) {
+        processed.addAndGet(messages);
+        failed.addAndGet(failures);
+        batches.incrementAndGet();
+        processingNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxProcessingNanos.get();
+        } while (nanos > max && !maxProcessingNanos.compareAndSet(max, nanos));
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    /**
+     * @return the messages that replaced a message for the same repository that was still waiting.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the repositories waiting to be acted on.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * @return the times the waiting messages have been taken off the queue and acted on together.
+     */
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * @return the average time acting on a batch took, in milliseconds, or 0 if there has been none.
+     */
+    public long getAverageProcessingMillis() {
+        final long count = batches.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(processingNanos.get() / count) : 0;
+    }
+
+    public long getMaxProcessingMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxProcessingNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "received=" + getReceivedCount() + ", coalesced=" + getCoalescedCount() + ", processed=" + getProcessedCount()
+                + ", failed=" + getFailedCount() + ", queue depth=" + getQueueDepth() + " (max " + getMaxQueueDepth() + ")"
+                + ", batches=" + getBatchCount() + " (average " + getAverageProcessingMillis() + " ms, max "
+                + getMaxProcessingMillis() + " ms)";
+    }
+}
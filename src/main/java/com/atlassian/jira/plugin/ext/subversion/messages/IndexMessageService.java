@@ -1,5 +1,7 @@
 package com.atlassian.jira.plugin.ext.subversion.messages;
 
+import java.util.Collection;
+
 /**
  * Service responsible for sending messages to cluster nodes
  * about changes in subversion repository list. It is client
@@ -25,6 +27,22 @@ public interface IndexMessageService {
      */
     void addIndexForRepository(long repositoryId);
 
+    /**
+     * Sends cluster message to inform nodes that a new snapshot
+     * of the replicated index has been published
+     *
+     * @param generation the generation of the snapshot
+     */
+    void indexPublished(long generation);
+
+    /**
+     * Sends cluster message to inform nodes that the permissions
+     * they remember for the project tab may have changed
+     *
+     * @param projectKeys the projects of the change, or <tt>null</tt> for all projects
+     */
+    void permissionsChanged(Collection<String> projectKeys);
+
     /**
      * Registers listener that handles cluster messages related to indexing
      */
@@ -34,4 +52,9 @@ public interface IndexMessageService {
      * Unregisters listener that handles cluster messages related to indexing
      */
     void unregisterListeners();
+
+    /**
+     * @return the messages received so far, how many are waiting and the time spent acting on them.
+     */
+    IndexMessageMetrics getMetrics();
 }
@@ -2,7 +2,9 @@ package com.atlassian.jira.plugin.ext.subversion.projecttabpanels;
 
 import com.atlassian.jira.issue.index.IndexException;
 import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.LogEntryPage;
 import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
+import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionRange;
 import com.atlassian.jira.plugin.projectpanel.ProjectTabPanel;
 import com.atlassian.jira.plugin.projectpanel.impl.GenericProjectTabPanel;
 import com.atlassian.jira.project.Project;
@@ -112,11 +114,24 @@ public class SubversionProjectTabPanel extends GenericProjectTabPanel implements
 
         // Get the list of recently updated issues and add it to the velocity context
         int pageSize = getPageSizeRequestParameter();
-        List<SubversionProjectRevisionAction> recentCommits = getRecentCommits(key, version, user, getPageRequestParameter() * pageSize, pageSize + 1);
+        List<SubversionProjectRevisionAction> recentCommits;
 
-        if (recentCommits.size() > pageSize) {
-            startingParams.put("moreAvailable", true);
-            recentCommits = recentCommits.subList(0, pageSize);
+        if (version == null) {
+            // The commits of the whole project can go back years, so they are paged with a cursor
+            LogEntryPage page = getRecentCommitPage(key, user, getCursorRequestParameter(), pageSize);
+            recentCommits = createProjectRevisionActions(page != null ? page.getLogEntries() : null);
+
+            if (page != null && page.hasMore()) {
+                startingParams.put("moreAvailable", true);
+                startingParams.put("nextCursor", page.getNextCursor());
+            }
+        } else {
+            recentCommits = createProjectRevisionActions(getRecentCommits(version, user, getPageRequestParameter() * pageSize, pageSize + 1));
+
+            if (recentCommits.size() > pageSize) {
+                startingParams.put("moreAvailable", true);
+                recentCommits = recentCommits.subList(0, pageSize);
+            }
         }
 
         startingParams.put("commits", recentCommits);
@@ -135,47 +150,70 @@ public class SubversionProjectTabPanel extends GenericProjectTabPanel implements
     }
 
     /**
-     * Looks up the latest commits for the curently selected project in each of the repositories.
+     * Looks up a page of the latest commits for the curently selected project in each of the repositories.
      *
-     * @param key        The JIRA project key of the currently selected project.
-     * @param version    The JIRA project version to get commits for. If this is <code>null</code>,
-     *                   the latest commits for the project as a whole are returned instead.
+     * @param key      The JIRA project key of the currently selected project.
+     * @param user     The remote user &mdash; we need to check that the user has "View Version Control" permission for an issue
+     *                 before we show a commit for it.
+     * @param cursor   For paging &mdash; The cursor of the previous page, or <code>null</code> for the first page.
+     * @param pageSize For paging &mdash; The size of the page.
+     * @return The page, or <code>null</code> if the index cannot be read.
+     */
+    private LogEntryPage getRecentCommitPage(String key, ApplicationUser user, String cursor, int pageSize) {
+        if (log.isDebugEnabled())
+            log.debug("Getting recent commits for project " + key);
+
+        try {
+            RevisionIndexer indexer = multipleSubversionRepositoryManager.getRevisionIndexer();
+            return indexer.getLogEntryPageByProject(key, user, cursor, pageSize, getRangeRequestParameters());
+        } catch (IndexException ie) {
+            log.error("There' a problem with the index.", ie);
+        } catch (IOException ioe) {
+            log.error("Error reading the index.", ioe);
+        }
+        return null;
+    }
+
+    /**
+     * Looks up the latest commits for the curently selected version in each of the repositories.
+     *
+     * @param version    The JIRA project version to get commits for.
      * @param user       The remote user &mdash; we need to check that the user has "View Version Control" permission for an issue
      *                   before we show a commit for it.
      * @param startIndex For paging &mdash; The index of the entry that is the first result in the page desired.
      * @param pageSize   For paging &mdash; The size of the page.
-     * @return A {@link java.util.List} of {@link SubversionProjectRevisionAction} objects,
-     * each of which holds a valid {@link SVNLogEntry}.
+     * @return The commits by repository, or <code>null</code> if the index cannot be read.
      */
-    private List<SubversionProjectRevisionAction> getRecentCommits(String key, Version version, ApplicationUser user, int startIndex, int pageSize) {
+    private Map<Long, List<SVNLogEntry>> getRecentCommits(Version version, ApplicationUser user, int startIndex, int pageSize) {
         if (log.isDebugEnabled())
-            log.debug("Getting recent commits for project " + key + " and version " + version);
-
-        List<SubversionProjectRevisionAction> actions = new ArrayList<SubversionProjectRevisionAction>();
+            log.debug("Getting recent commits for version " + version);
 
         try {
-            Map<Long, List<SVNLogEntry>> logEntries;
             RevisionIndexer indexer = multipleSubversionRepositoryManager.getRevisionIndexer();
-
-            if (version == null) {
-                logEntries = indexer.getLogEntriesByProject(key, user, startIndex, pageSize);
-            } else {
-                logEntries = indexer.getLogEntriesByVersion(version, user, startIndex, pageSize);
-            }
-
-            if (logEntries != null && logEntries.size() > 0) {
-                for (Map.Entry<Long, List<SVNLogEntry>> entry : logEntries.entrySet()) {
-                    long repoId = entry.getKey();
-
-                    for (SVNLogEntry logEntry : entry.getValue())
-                        actions.add(createProjectRevisionAction(repoId, logEntry));
-                }
-            }
+            return indexer.getLogEntriesByVersion(version, user, startIndex, pageSize, getRangeRequestParameters());
         } catch (IndexException ie) {
             log.error("There' a problem with the index.", ie);
         } catch (IOException ioe) {
             log.error("Error reading the index.", ioe);
         }
+        return null;
+    }
+
+    /**
+     * @return A {@link java.util.List} of {@link SubversionProjectRevisionAction} objects,
+     * each of which holds a valid {@link SVNLogEntry}.
+     */
+    private List<SubversionProjectRevisionAction> createProjectRevisionActions(Map<Long, List<SVNLogEntry>> logEntries) {
+        List<SubversionProjectRevisionAction> actions = new ArrayList<SubversionProjectRevisionAction>();
+
+        if (logEntries != null && logEntries.size() > 0) {
+            for (Map.Entry<Long, List<SVNLogEntry>> entry : logEntries.entrySet()) {
+                long repoId = entry.getKey();
+
+                for (SVNLogEntry logEntry : entry.getValue())
+                    actions.add(createProjectRevisionAction(repoId, logEntry));
+            }
+        }
         return actions;
     }
 
@@ -208,6 +246,16 @@ public class SubversionProjectTabPanel extends GenericProjectTabPanel implements
         return versionNumber;
     }
 
+    private String getCursorRequestParameter() {
+        HttpServletRequest req = ActionContext.getRequest();
+
+        if (null != req) {
+            return req.getParameter("cursor");
+        }
+
+        return null;
+    }
+
     private int getPageRequestParameter() {
         HttpServletRequest req = ActionContext.getRequest();
 
@@ -230,6 +278,17 @@ public class SubversionProjectTabPanel extends GenericProjectTabPanel implements
         return NUMBER_OF_REVISIONS;
     }
 
+    private RevisionRange getRangeRequestParameters() {
+        HttpServletRequest req = ActionContext.getRequest();
+
+        if (null != req) {
+            return RevisionRange.parse(req.getParameter("fromRevision"), req.getParameter("toRevision"),
+                    req.getParameter("fromDate"), req.getParameter("toDate"));
+        }
+
+        return RevisionRange.ALL;
+    }
+
     @Override
     public boolean showPanel(BrowseContext browseContext) {
         return multipleSubversionRepositoryManager.isIndexingRevisions() &&
@@ -0,0 +1,64 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.apache.lucene.document.CompressionTools;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+
+/**
+ * The compact stored form of the changed paths of a revision. Each path takes one line of tab separated fields
+ * (change type, path, copy source, copy revision and node kind), and the whole is deflated. Subversion does not
+ * allow control characters in paths, so tabs and newlines are safe separators.
+ */
+final class ChangedPaths {
+    private static final char FIELD_SEPARATOR = '\t';
+    private static final char PATH_SEPARATOR = '\n';
+
+    private ChangedPaths() {
+    }
+
+    static byte[] compress(Map<String, SVNLogEntryPath> changedPaths) {
+        final StringBuilder encoded = new StringBuilder();
+        if (changedPaths != null) {
+            for (SVNLogEntryPath path : new TreeMap<String, SVNLogEntryPath>(changedPaths).values()) {
+                encoded.append(path.getType()).append(FIELD_SEPARATOR)
+                        .append(path.getPath()).append(FIELD_SEPARATOR);
+                if (path.getCopyPath() != null) {
+                    encoded.append(path.getCopyPath());
+                }
+                encoded.append(FIELD_SEPARATOR).append(path.getCopyRevision()).append(FIELD_SEPARATOR)
+                        .append(path.getKind() != null ? path.getKind() : SVNNodeKind.UNKNOWN).append(PATH_SEPARATOR);
+            }
+        }
+        return CompressionTools.compressString(encoded.toString());
+    }
+
+    static Map<String, SVNLogEntryPath> decompress(byte[] compressed) throws IOException {
+        final String encoded;
+        try {
+            encoded = CompressionTools.decompressString(compressed);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt changed paths in the revision index", e);
+        }
+
+        final Map<String, SVNLogEntryPath> changedPaths = new LinkedHashMap<String, SVNLogEntryPath>();
+        int start = 0;
+        while (start < encoded.length()) {
+            final int end = encoded.indexOf(PATH_SEPARATOR, start);
+            final String[] fields = encoded.substring(start, end).split(String.valueOf(FIELD_SEPARATOR), -1);
+            if (fields.length != 5) {
+                throw new IOException("Corrupt changed paths in the revision index");
+            }
+            final String path = fields[1];
+            changedPaths.put(path, new SVNLogEntryPath(path, fields[0].charAt(0),
+                    fields[2].length() > 0 ? fields[2] : null, Long.parseLong(fields[3]), SVNNodeKind.parseKind(fields[4])));
+            start = end + 1;
+        }
+        return changedPaths;
+    }
+}
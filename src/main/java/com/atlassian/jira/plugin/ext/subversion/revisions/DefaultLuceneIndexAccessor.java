@@ -1,16 +1,29 @@
 package com.atlassian.jira.plugin.ext.subversion.revisions;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.SimpleFSLockFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * An implementation that uses JIRA's LuceneUtils for its guts.
@@ -20,12 +33,82 @@ import java.io.IOException;
 class DefaultLuceneIndexAccessor implements LuceneIndexAccessor {
     private static final Logger LOG = LoggerFactory.getLogger(DefaultLuceneIndexAccessor.class);
 
+    private final IndexDirectoryFactory directoryFactory;
+
+    /*
+     * The searcher of the index most recently queried. The index path rarely changes, but when it does the searcher
+     * of the old path is closed and one is opened on the new path.
+     */
+    private String searcherPath;
+    private IndexSearcherManager searcherManager;
+
+    /*
+     * The writers all indexing goes through, one per index path, kept open until the accessor is closed.
+     */
+    private final Map<String, MeteredIndexWriter> sharedWriters = new HashMap<String, MeteredIndexWriter>();
+    private final IndexWriterMetrics writerMetrics = new IndexWriterMetrics();
+
+    DefaultLuceneIndexAccessor() {
+        this(new IndexDirectoryFactory());
+    }
+
+    DefaultLuceneIndexAccessor(IndexDirectoryFactory directoryFactory) {
+        this.directoryFactory = directoryFactory;
+    }
+
     public IndexReader getIndexReader(String path) throws IOException {
-        return IndexReader.open(getDirectory(path));
+        final List<Directory> directories = listDirectories(path);
+        if (directories.size() == 1) {
+            return IndexReader.open(directories.get(0));
+        }
+        final List<IndexReader> readers = new ArrayList<IndexReader>(directories.size());
+        try {
+            for (Directory directory : directories) {
+                readers.add(IndexReader.open(directory));
+            }
+        } catch (IOException e) {
+            for (IndexReader reader : readers) {
+                reader.close();
+            }
+            throw e;
+        }
+        return new MultiReader(readers.toArray(new IndexReader[readers.size()]));
+    }
+
+    private List<Directory> listDirectories(String path) throws IOException {
+        final List<String> paths = listIndexPaths(path);
+        final List<Directory> directories = new ArrayList<Directory>(paths.size());
+        for (String indexPath : paths) {
+            directories.add(getDirectory(indexPath));
+        }
+        return directories;
+    }
+
+    /**
+     * @return the path of the index followed by those of its shards, the subdirectories holding an index, in the
+     * order of their names.
+     */
+    private List<String> listIndexPaths(String path) throws IOException {
+        final List<String> paths = new ArrayList<String>();
+        paths.add(path);
+        final File[] files = new File(path).listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isDirectory() && IndexReader.indexExists(getDirectory(file.getPath()))) {
+                    paths.add(file.getPath());
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static boolean isShard(String path, String parentPath) {
+        return new File(parentPath).equals(new File(path).getParentFile());
     }
 
     private Directory getDirectory(String path) throws IOException {
-        return FSDirectory.open(new File(path), new SimpleFSLockFactory());
+        return directoryFactory.getDirectory(path);
     }
 
     public IndexWriter getIndexWriter(String path, boolean create, Analyzer analyzer) throws IOException {
@@ -42,6 +125,211 @@ class DefaultLuceneIndexAccessor implements LuceneIndexAccessor {
         }
     }
 
+    public synchronized IndexWriter getSharedIndexWriter(String path, Analyzer analyzer) throws IOException {
+        MeteredIndexWriter sharedWriter = sharedWriters.get(path);
+        if (sharedWriter == null) {
+            try {
+                createDirRobust(path);
+
+                sharedWriter = new MeteredIndexWriter(getDirectory(path), analyzer);
+                sharedWriter.setUseCompoundFile(true);
+                sharedWriters.put(path, sharedWriter);
+            } catch (final IOException e) {
+                LOG.error("Problem with path " + path + ": " + e.getMessage(), e);
+                throw new IOException("Problem with path " + path + ": " + e.getMessage(), e);
+            }
+        }
+        return sharedWriter;
+    }
+
+    public void commit(String path, Map<String, String> userData) throws IOException {
+        final IndexWriter writer;
+        final List<IndexWriter> shardWriters = new ArrayList<IndexWriter>();
+        synchronized (this) {
+            writer = sharedWriters.get(path);
+            if (writer == null) {
+                throw new IllegalStateException("There is no index writer open on " + path);
+            }
+            for (Map.Entry<String, MeteredIndexWriter> entry : sharedWriters.entrySet()) {
+                if (isShard(entry.getKey(), path)) {
+                    shardWriters.add(entry.getValue());
+                }
+            }
+        }
+
+        final long start = System.nanoTime();
+        for (IndexWriter shardWriter : shardWriters) {
+            shardWriter.commit();
+        }
+        writer.commit(userData);
+        writerMetrics.committed(System.nanoTime() - start);
+        invalidateSearcher(path);
+    }
+
+    public void deleteDocuments(String path, Analyzer analyzer, Term... terms) throws IOException {
+        for (String indexPath : listIndexPaths(path)) {
+            getSharedIndexWriter(indexPath, analyzer).deleteDocuments(terms);
+        }
+    }
+
+    public void deleteIndex(String path) throws IOException {
+        synchronized (this) {
+            for (Iterator<Map.Entry<String, MeteredIndexWriter>> writers = sharedWriters.entrySet().iterator(); writers.hasNext(); ) {
+                final Map.Entry<String, MeteredIndexWriter> writer = writers.next();
+                if (writer.getKey().equals(path) || isShard(writer.getKey(), path)) {
+                    writers.remove();
+                    // drops whatever it buffers and releases the write lock
+                    writer.getValue().rollback();
+                }
+            }
+        }
+        final File directory = new File(path);
+        if (directory.isDirectory()) {
+            final List<String> paths = listIndexPaths(path);
+            // empty the index first, so it is gone from the searches even if some of its files cannot be deleted
+            new IndexWriter(getDirectory(path), new KeywordAnalyzer(), true, IndexWriter.MaxFieldLength.LIMITED).close();
+            invalidateSearcher(directory.getParent());
+            for (String indexPath : paths) {
+                directoryFactory.release(indexPath);
+            }
+            if (!deleteRecursively(directory)) {
+                LOG.warn("Unable to delete all files of the index " + path);
+            }
+        }
+    }
+
+    private static boolean deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        return file.delete();
+    }
+
+    public Map<String, IndexCommit> snapshot(String path, Analyzer analyzer, String id) throws IOException {
+        final Map<String, IndexCommit> commits = new LinkedHashMap<String, IndexCommit>();
+        try {
+            for (String indexPath : listIndexPaths(path)) {
+                final MeteredIndexWriter writer = (MeteredIndexWriter) getSharedIndexWriter(indexPath, analyzer);
+                commits.put(indexPath, writer.snapshots.snapshot(id));
+            }
+        } catch (IOException e) {
+            releaseSnapshot(path, id);
+            throw e;
+        }
+        return commits;
+    }
+
+    public synchronized void releaseSnapshot(String path, String id) throws IOException {
+        for (Map.Entry<String, MeteredIndexWriter> writer : sharedWriters.entrySet()) {
+            if ((writer.getKey().equals(path) || isShard(writer.getKey(), path)) && writer.getValue().snapshots.isSnapshotted(id)) {
+                writer.getValue().snapshots.release(id);
+            }
+        }
+    }
+
+    public IndexWriterMetrics getWriterMetrics() {
+        return writerMetrics;
+    }
+
+    public Map<String, String> getCommitUserData(String path) throws IOException {
+        return IndexReader.getCommitUserData(getDirectory(path));
+    }
+
+    public IndexSearcher acquireSearcher(String path) throws IOException {
+        return getSearcherManager(path).acquire();
+    }
+
+    public void releaseSearcher(IndexSearcher searcher) throws IOException {
+        searcher.getIndexReader().decRef();
+    }
+
+    public synchronized void invalidateSearcher(String path) {
+        if (searcherManager != null && new File(path).equals(new File(searcherPath))) {
+            searcherManager.invalidate();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        try {
+            closeSharedIndexWriters();
+        } finally {
+            closeSearcherManager();
+        }
+    }
+
+    private synchronized void closeSharedIndexWriters() throws IOException {
+        if (!sharedWriters.isEmpty()) {
+            final List<IndexWriter> writers = new ArrayList<IndexWriter>(sharedWriters.values());
+            sharedWriters.clear();
+            IOException failure = null;
+            for (IndexWriter writer : writers) {
+                try {
+                    // waits for running merges and commits whatever is still buffered
+                    writer.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            LOG.info("Closed the revision index writers: " + writerMetrics);
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private synchronized void closeSearcherManager() throws IOException {
+        if (searcherManager != null) {
+            searcherManager.close();
+            searcherManager = null;
+            searcherPath = null;
+        }
+    }
+
+    private synchronized IndexSearcherManager getSearcherManager(final String path) throws IOException {
+        if (searcherManager == null || !path.equals(searcherPath)) {
+            closeSearcherManager();
+            searcherManager = new IndexSearcherManager(new IndexSearcherManager.Directories() {
+                public List<Directory> list() throws IOException {
+                    return listDirectories(path);
+                }
+            });
+            searcherPath = path;
+        }
+        return searcherManager;
+    }
+
+    /**
+     * Counts the flushes and merges of the shared writers, and keeps the commits snapshotted.
+     */
+    private class MeteredIndexWriter extends IndexWriter {
+        private final SnapshotDeletionPolicy snapshots;
+
+        MeteredIndexWriter(Directory directory, Analyzer analyzer) throws IOException {
+            this(directory, analyzer, new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy()));
+        }
+
+        private MeteredIndexWriter(Directory directory, Analyzer analyzer, SnapshotDeletionPolicy snapshots) throws IOException {
+            super(directory, analyzer, snapshots, IndexWriter.MaxFieldLength.LIMITED);
+            this.snapshots = snapshots;
+        }
+
+        @Override
+        protected void doAfterFlush() throws IOException {
+            super.doAfterFlush();
+            writerMetrics.flushed();
+        }
+
+        @Override
+        public void merge(MergePolicy.OneMerge merge) throws IOException {
+            final long start = System.nanoTime();
+            super.merge(merge);
+            writerMetrics.merged(System.nanoTime() - start);
+        }
+    }
+
     /**
      * Create a directory (robustly) or throw appropriate Exception
      *
@@ -0,0 +1,179 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.LockFactory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.store.SimpleFSLockFactory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Opens the Lucene {@link Directory} of an index path. The implementation is chosen with the
+ * <tt>jira.plugins.subversion.index.directory</tt> system property and the lock factory with
+ * <tt>jira.plugins.subversion.index.lockFactory</tt>; see {@link Mode} and {@link LockMode} for the values.
+ * <p>
+ * One directory is kept per path, so every reader and writer of an index shares its lock factory, and a RAM
+ * directory keeps its contents between uses.
+ */
+class IndexDirectoryFactory {
+    private static final Logger log = LoggerFactory.getLogger(IndexDirectoryFactory.class);
+
+    static final String DIRECTORY_MODE_PROPERTY = "jira.plugins.subversion.index.directory";
+    static final String LOCK_MODE_PROPERTY = "jira.plugins.subversion.index.lockFactory";
+
+    enum Mode {
+        /**
+         * Whatever Lucene considers best for the platform: memory mapped on 64 bit JVMs on Linux and Solaris.
+         */
+        AUTO {
+            Directory open(File path, LockFactory lockFactory) throws IOException {
+                return FSDirectory.open(path, lockFactory);
+            }
+        },
+        /**
+         * Memory mapped files: reads are served straight from the page cache without copying. Needs a 64 bit JVM
+         * for large indexes.
+         */
+        MMAP {
+            Directory open(File path, LockFactory lockFactory) throws IOException {
+                final MMapDirectory directory = new MMapDirectory(path, lockFactory);
+                if (MMapDirectory.UNMAP_SUPPORTED) {
+                    // release the mappings of merged away segments right away rather than on garbage collection
+                    directory.setUseUnmap(true);
+                }
+                return directory;
+            }
+        },
+        /**
+         * Positional reads through NIO, so threads reading the same file do not wait for each other.
+         */
+        NIOFS {
+            Directory open(File path, LockFactory lockFactory) throws IOException {
+                return new NIOFSDirectory(path, lockFactory);
+            }
+        },
+        /**
+         * Plain random access files, synchronized per file.
+         */
+        SIMPLEFS {
+            Directory open(File path, LockFactory lockFactory) throws IOException {
+                return new SimpleFSDirectory(path, lockFactory);
+            }
+        },
+        /**
+         * Kept in memory only and lost on restart. Meant for tests.
+         */
+        RAM {
+            Directory open(File path, LockFactory lockFactory) throws IOException {
+                final RAMDirectory directory = new RAMDirectory();
+                directory.setLockFactory(new SingleInstanceLockFactory());
+                return directory;
+            }
+        };
+
+        abstract Directory open(File path, LockFactory lockFactory) throws IOException;
+    }
+
+    enum LockMode {
+        /**
+         * A lock file, as the plugin always used. Left behind by a crash, it has to be removed by hand.
+         */
+        SIMPLE {
+            LockFactory create() throws IOException {
+                return new SimpleFSLockFactory();
+            }
+        },
+        /**
+         * An operating system lock on a file, released by the operating system when the JVM dies.
+         */
+        NATIVE {
+            LockFactory create() throws IOException {
+                return new NativeFSLockFactory();
+            }
+        },
+        /**
+         * A lock in memory. Only safe when no other process ever writes to the index.
+         */
+        SINGLE {
+            LockFactory create() {
+                return new SingleInstanceLockFactory();
+            }
+        };
+
+        abstract LockFactory create() throws IOException;
+    }
+
+    private final Mode mode;
+    private final LockMode lockMode;
+    private final ConcurrentMap<String, Directory> directories = new ConcurrentHashMap<String, Directory>();
+
+    IndexDirectoryFactory() {
+        this(parse(Mode.class, DIRECTORY_MODE_PROPERTY, Mode.AUTO), parse(LockMode.class, LOCK_MODE_PROPERTY, LockMode.SIMPLE));
+    }
+
+    IndexDirectoryFactory(Mode mode, LockMode lockMode) {
+        this.mode = mode;
+        this.lockMode = lockMode;
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    LockMode getLockMode() {
+        return lockMode;
+    }
+
+    /**
+     * @return the directory of the index at the path, opened on first use.
+     */
+    Directory getDirectory(String path) throws IOException {
+        Directory directory = directories.get(path);
+        if (directory == null) {
+            final Directory opened = mode.open(new File(path), lockMode.create());
+            directory = directories.putIfAbsent(path, opened);
+            if (directory == null) {
+                directory = opened;
+                if (log.isDebugEnabled()) {
+                    log.debug("Opened " + directory + " for the revision index");
+                }
+            }
+        }
+        return directory;
+    }
+
+    /**
+     * Forgets the directory of the path and closes it, for an index that is being deleted. The next use opens a new
+     * directory.
+     */
+    void release(String path) throws IOException {
+        final Directory directory = directories.remove(path);
+        if (directory != null) {
+            directory.close();
+        }
+    }
+
+    private static <E extends Enum<E>> E parse(Class<E> type, String property, E defaultValue) {
+        final String value = System.getProperty(property);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring unknown value '" + value + "' of " + property + ", using " + defaultValue.name().toLowerCase());
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks a rebuild of the revision index started by {@link RevisionIndexer#rebuildIndex()}: how many revisions of
+ * the repositories have been scanned into the new index, how fast, and how long the rest should take.
+ */
+public final class IndexRebuildProgress {
+    public enum State {
+        /**
+         * The revisions are scanned into the new index while the current one is still searched and updated.
+         */
+        RUNNING,
+        /**
+         * The revisions committed since the rebuild started are caught up with, holding up indexing, before the
+         * new index replaces the current one.
+         */
+        SWAPPING,
+        COMPLETE,
+        FAILED
+    }
+
+    private final long startTime;
+    private volatile long endTime;
+    private volatile State state = State.RUNNING;
+    private volatile String failure;
+    private final Map<String, String> failedRepositories = new ConcurrentSkipListMap<String, String>();
+    private final AtomicInteger repositories = new AtomicInteger();
+    private final AtomicInteger repositoriesDone = new AtomicInteger();
+    private final AtomicLong revisions = new AtomicLong();
+    private final AtomicLong revisionsScanned = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+
+    IndexRebuildProgress(long startTime) {
+        this.startTime = startTime;
+    }
+
+    void repositoryAdded(long revisions) {
+        repositories.incrementAndGet();
+        this.revisions.addAndGet(Math.max(0, revisions));
+    }
+
+    void repositoryDone() {
+        repositoriesDone.incrementAndGet();
+    }
+
+    /**
+     * The repository has been left out of the new index, see {@link #getFailedRepositories()}.
+     */
+    void repositoryFailed(String name, Exception e) {
+        failedRepositories.put(String.valueOf(name), e.toString());
+    }
+
+    void revisionsScanned(long count) {
+        revisionsScanned.addAndGet(count);
+    }
+
+    void documentIndexed() {
+        documents.incrementAndGet();
+    }
+
+    void swapping() {
+        state = State.SWAPPING;
+    }
+
+    void completed(long time) {
+        endTime = time;
+        state = State.COMPLETE;
+    }
+
+    void failed(long time, Exception e) {
+        endTime = time;
+        failure = e.toString();
+        state = State.FAILED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isFinished() {
+        return state == State.COMPLETE || state == State.FAILED;
+    }
+
+    /**
+     * @return what made the rebuild fail, or <tt>null</tt>.
+     */
+    public String getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return what made each repository fail, by the name of the repository. Those repositories are left out of the
+     * new index and indexed from scratch once it is in use, so their revisions are missing until then.
+     */
+    public Map<String, String> getFailedRepositories() {
+        return Collections.unmodifiableMap(failedRepositories);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getRepositoryCount() {
+        return repositories.get();
+    }
+
+    public int getRepositoriesDone() {
+        return repositoriesDone.get();
+    }
+
+    /**
+     * @return the revisions of all repositories as they were when the rebuild started.
+     */
+    public long getRevisionCount() {
+        return revisions.get();
+    }
+
+    public long getRevisionsScanned() {
+        return revisionsScanned.get();
+    }
+
+    /**
+     * @return the revisions that mention an issue, which are the ones indexed.
+     */
+    public long getDocumentCount() {
+        return documents.get();
+    }
+
+    /**
+     * @return the revisions scanned as a percentage of all revisions, at most 100.
+     */
+    public int getPercentComplete() {
+        if (state == State.COMPLETE) {
+            return 100;
+        }
+        final long total = revisions.get();
+        return total > 0 ? (int) Math.min(100, revisionsScanned.get() * 100 / total) : 0;
+    }
+
+    public long getElapsedMillis() {
+        return getElapsedMillis(System.currentTimeMillis());
+    }
+
+    long getElapsedMillis(long now) {
+        return (isFinished() ? endTime : now) - startTime;
+    }
+
+    public long getRevisionsPerSecond() {
+        return getRevisionsPerSecond(System.currentTimeMillis());
+    }
+
+    long getRevisionsPerSecond(long now) {
+        final long elapsed = getElapsedMillis(now);
+        return elapsed > 0 ? revisionsScanned.get() * TimeUnit.SECONDS.toMillis(1) / elapsed : 0;
+    }
+
+    /**
+     * @return the time the rest of the revisions should take at the rate so far, in milliseconds, or <tt>-1</tt>
+     * before there is a rate to go by.
+     */
+    public long getEstimatedMillisRemaining() {
+        return getEstimatedMillisRemaining(System.currentTimeMillis());
+    }
+
+    long getEstimatedMillisRemaining(long now) {
+        if (isFinished()) {
+            return 0;
+        }
+        final long scanned = revisionsScanned.get();
+        if (scanned == 0) {
+            return -1;
+        }
+        final long remaining = Math.max(0, revisions.get() - scanned);
+        return remaining * getElapsedMillis(now) / scanned;
+    }
+
+    @Override
+    public String toString() {
+        return state + ": " + getRevisionsScanned() + " of " + getRevisionCount() + " revisions of "
+                + getRepositoryCount() + " repositories scanned, " + getDocumentCount() + " indexed, "
+                + getRevisionsPerSecond() + " revisions per second"
+                + (failedRepositories.isEmpty() ? "" : ", failed repositories " + failedRepositories.keySet());
+    }
+}
@@ -0,0 +1,514 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Copies snapshots of the revision index through a directory all nodes of a cluster share, so only one node has to
+ * retrieve the logs of the repositories. The publishing node copies the files of its latest commit, those of the
+ * index and of its shards, to the shared directory and lists them in a manifest. The other nodes compare the
+ * manifest with the one of their replica and copy only the files they do not have yet.
+ * <p>
+ * Index files are written once and never changed, so a file is identified by its path within the index, its length
+ * and its checksum. A replica that has a file of the same path but another content, as after a rebuild of the
+ * index, cannot be updated in place; it is copied into a new directory instead.
+ * <p>
+ * When the publishing node is elected, each manifest records the node and the term of the election it was published
+ * in. A node only publishes once it has confirmed it still leads, and never over a manifest of a later term, and a
+ * replica never takes a manifest of an earlier term than the one it has, so a node that has just lost the election
+ * cannot undo what the node that took over published.
+ * <p>
+ * The shared directory is given by the <tt>jira.plugins.subversion.replication.path</tt> system property.
+ */
+class IndexReplicator {
+    private final static Logger log = LoggerFactory.getLogger(IndexReplicator.class);
+
+    static final String PATH_PROPERTY = "jira.plugins.subversion.replication.path";
+
+    /**
+     * The manifest of the latest snapshot, in the shared directory.
+     */
+    static final String MANIFEST_FILE = "manifest.properties";
+
+    /**
+     * The manifest of the snapshot before the latest, whose files are kept for the nodes still copying it.
+     */
+    private static final String PREVIOUS_MANIFEST_FILE = "manifest.previous.properties";
+
+    /**
+     * The manifest of the snapshot a replica has been copied from, in the directory of the replica.
+     */
+    static final String REPLICA_FILE = "replica.properties";
+
+    private static final String GENERATION_KEY = "generation";
+    private static final String TERM_KEY = "term";
+    private static final String PUBLISHER_KEY = "publisher";
+    private static final String FILE_PREFIX = "file.";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final File sharedDirectory;
+
+    /*
+     * The local files the published files were copied from, so they are not read again to tell whether they changed.
+     */
+    private final Map<String, Source> publishedSources = new HashMap<String, Source>();
+
+    IndexReplicator(File sharedDirectory) {
+        this.sharedDirectory = sharedDirectory;
+    }
+
+    File getSharedDirectory() {
+        return sharedDirectory;
+    }
+
+    /**
+     * Publishes a snapshot of the index at the given path. The files of the commits that have not been published
+     * yet are copied to the shared directory before the manifest listing them replaces the previous one. The files
+     * the previous snapshot lists are kept until the next one, so nodes still copying it can finish.
+     *
+     * @param indexPath the path of the index.
+     * @param commits   the commits of the index and of its shards by their paths, held by the caller until this
+     *                  returns.
+     * @param lease     the leadership of this node, confirmed before any file is copied and again before the manifest
+     *                  is written, or <tt>null</tt> if the publishing node is not elected.
+     * @return the number of files copied.
+     * @throws IOException if there's some problem copying a file or writing the manifest, or this node no longer
+     *                     publishes the index.
+     */
+    synchronized int publish(String indexPath, Map<String, IndexCommit> commits, RevisionIndexer.PublisherLease lease) throws IOException {
+        final Manifest previous = readManifest(new File(sharedDirectory, MANIFEST_FILE));
+        final long term = confirmTerm(lease, previous);
+        final Manifest published = new Manifest(previous != null ? previous.generation + 1 : 1, term,
+                lease != null ? lease.getNodeId() : null);
+        int copied = 0;
+        for (Map.Entry<String, IndexCommit> commit : commits.entrySet()) {
+            final String prefix = getRelativePrefix(indexPath, commit.getKey());
+            for (String name : commit.getValue().getFileNames()) {
+                if (name.equals(IndexFileNames.SEGMENTS_GEN)) {
+                    // rewritten by every commit, the readers find the latest segments file without it
+                    continue;
+                }
+                final String path = prefix + name;
+                final File file = new File(commit.getKey(), name);
+                final Source source = new Source(file);
+                FileEntry entry = previous != null ? previous.files.get(path) : null;
+                if (entry == null || !source.equals(publishedSources.get(path)) && !isCopyOf(file, entry)) {
+                    entry = copy(file, new File(sharedDirectory, path));
+                    copied++;
+                }
+                publishedSources.put(path, source);
+                published.files.put(path, entry);
+            }
+        }
+        publishedSources.keySet().retainAll(published.files.keySet());
+
+        if (confirmTerm(lease, previous) != term) {
+            throw new IOException("The term of this node has changed while it published the revision index");
+        }
+        writeManifest(published, new File(sharedDirectory, MANIFEST_FILE));
+        if (previous != null) {
+            final File previousFile = new File(sharedDirectory, PREVIOUS_MANIFEST_FILE);
+            final Manifest beforePrevious = readManifest(previousFile);
+            writeManifest(previous, previousFile);
+            if (beforePrevious != null) {
+                for (String path : beforePrevious.files.keySet()) {
+                    if (!published.files.containsKey(path) && !previous.files.containsKey(path)) {
+                        delete(new File(sharedDirectory, path));
+                    }
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Published generation " + published.generation + " of the revision index, copied " + copied + " of "
+                    + published.files.size() + " files");
+        }
+        return copied;
+    }
+
+    /**
+     * @return the term this node publishes in, unless another node publishes the index now.
+     */
+    private static long confirmTerm(RevisionIndexer.PublisherLease lease, Manifest previous) throws IOException {
+        if (lease == null) {
+            return previous != null ? previous.term : 0;
+        }
+        final long term = lease.confirm();
+        if (term < 0) {
+            throw new IOException("This node no longer publishes the revision index");
+        }
+        if (previous != null && previous.term > term) {
+            throw new IOException("Generation " + previous.generation + " of the revision index has been published by "
+                    + previous.publisher + " in term " + previous.term + ", after term " + term + " of this node");
+        }
+        return term;
+    }
+
+    /**
+     * @return the manifest of the latest snapshot, or <tt>null</tt> if none has been published yet.
+     */
+    Manifest getPublished() throws IOException {
+        return readManifest(new File(sharedDirectory, MANIFEST_FILE));
+    }
+
+    /**
+     * @return the manifest of the snapshot the replica at the given path has been copied from, or <tt>null</tt> if
+     * it is not a replica.
+     */
+    static Manifest getReplica(String indexPath) {
+        try {
+            return readManifest(new File(indexPath, REPLICA_FILE));
+        } catch (IOException e) {
+            log.warn("Unable to read the manifest of the replica " + indexPath, e);
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the snapshot the replica at the given path has been copied from, once the node writes to it. It is
+     * copied afresh if it becomes a replica again.
+     */
+    static void detach(String indexPath) throws IOException {
+        if (!delete(new File(indexPath, REPLICA_FILE))) {
+            throw new IOException("Unable to delete the manifest of the replica " + indexPath);
+        }
+    }
+
+    /**
+     * @return whether the snapshot has been published in an earlier term than the one the replica has been copied
+     * from, by a node that has lost the election since.
+     */
+    static boolean isStale(Manifest published, Manifest replica) {
+        return replica != null && published.term < replica.term;
+    }
+
+    /**
+     * @return whether the replica can be brought up to the published snapshot by adding and removing files, without
+     * replacing any file it has.
+     */
+    static boolean canUpdate(Manifest replica, Manifest published) {
+        if (replica == null) {
+            return false;
+        }
+        for (Map.Entry<String, FileEntry> file : published.files.entrySet()) {
+            final FileEntry copy = replica.files.get(file.getKey());
+            if (copy != null && !copy.equals(file.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the files of the published snapshot the replica does not have, the shards before the index and the
+     * segments file of each last, so a reader never sees a commit whose files are not all there yet. The files of
+     * the replica the snapshot no longer lists are deleted afterwards, except those of the shards that have been
+     * dropped, which are left to the caller.
+     *
+     * @param published the manifest of the published snapshot.
+     * @param replica   the manifest of the replica, or <tt>null</tt> to copy the whole snapshot.
+     * @param indexPath the path of the replica.
+     * @return the paths of the shards of the replica the snapshot no longer has.
+     * @throws IOException if there's some problem copying a file, a copy does not match the manifest because the
+     *                     snapshot has been replaced in the meantime, or the snapshot is stale.
+     */
+    List<String> pull(Manifest published, Manifest replica, String indexPath) throws IOException {
+        if (isStale(published, replica)) {
+            throw new IOException("Generation " + published.generation + " of the revision index has been published in term "
+                    + published.term + ", before term " + replica.term + " of the replica " + indexPath);
+        }
+        final List<String> missing = new ArrayList<String>();
+        for (String path : published.files.keySet()) {
+            if (replica == null || !replica.files.containsKey(path)) {
+                missing.add(path);
+            }
+        }
+        Collections.sort(missing, new Comparator<String>() {
+            public int compare(String path1, String path2) {
+                final int order = rank(path1) - rank(path2);
+                return order != 0 ? order : path1.compareTo(path2);
+            }
+        });
+        for (String path : missing) {
+            final FileEntry copy = copy(new File(sharedDirectory, path), new File(indexPath, path));
+            if (!copy.equals(published.files.get(path))) {
+                delete(new File(indexPath, path));
+                throw new IOException("The copy of " + path + " does not match generation " + published.generation + " of the revision index");
+            }
+        }
+        writeManifest(published, new File(indexPath, REPLICA_FILE));
+
+        final Set<String> droppedShards = new LinkedHashSet<String>();
+        if (replica != null) {
+            final Set<String> shards = new LinkedHashSet<String>();
+            for (String path : published.files.keySet()) {
+                shards.add(getShard(path));
+            }
+            for (String path : replica.files.keySet()) {
+                final String shard = getShard(path);
+                if (!shards.contains(shard)) {
+                    droppedShards.add(shard);
+                } else if (!published.files.containsKey(path) && !delete(new File(indexPath, path))) {
+                    log.warn("Unable to delete " + path + " of the revision index replica " + indexPath);
+                }
+            }
+        }
+        final List<String> dropped = new ArrayList<String>(droppedShards.size());
+        for (String shard : droppedShards) {
+            dropped.add(new File(indexPath, shard).getPath());
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Copied " + missing.size() + " files of generation " + published.generation + " of the revision index to " + indexPath);
+        }
+        return dropped;
+    }
+
+    /**
+     * Orders the files so the shards come before the index and the segments file of each after its other files.
+     */
+    private static int rank(String path) {
+        final boolean segments = new File(path).getName().startsWith(IndexFileNames.SEGMENTS);
+        return (getShard(path).length() > 0 ? 0 : 2) + (segments ? 1 : 0);
+    }
+
+    /**
+     * @return the shard directory of a path within the index, or the empty string for the index itself.
+     */
+    private static String getShard(String path) {
+        final int slash = path.indexOf('/');
+        return slash >= 0 ? path.substring(0, slash) : "";
+    }
+
+    private static String getRelativePrefix(String indexPath, String commitPath) throws IOException {
+        final File index = new File(indexPath);
+        final File directory = new File(commitPath);
+        if (directory.equals(index)) {
+            return "";
+        }
+        if (!index.equals(directory.getParentFile())) {
+            throw new IOException(commitPath + " is not a shard of the revision index " + indexPath);
+        }
+        return directory.getName() + "/";
+    }
+
+    /**
+     * @return whether the file has the length and checksum of the entry.
+     */
+    private static boolean isCopyOf(File file, FileEntry entry) throws IOException {
+        return file.length() == entry.length && Files.getChecksum(file, new CRC32()) == entry.checksum;
+    }
+
+    /**
+     * Copies a file through a temporary file renamed over the target, so readers only ever see a complete file and
+     * those that have the target open keep reading what they had.
+     *
+     * @return the length and checksum of the copy.
+     */
+    private static FileEntry copy(File from, File to) throws IOException {
+        final File directory = to.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory: " + directory);
+        }
+        final File written = new File(directory, to.getName() + TEMPORARY_SUFFIX);
+        final CheckedInputStream in;
+        try {
+            in = new CheckedInputStream(new FileInputStream(from), new CRC32());
+        } catch (FileNotFoundException e) {
+            throw new IOException("The snapshot of the revision index has been replaced while " + from + " was copied", e);
+        }
+        final long length;
+        try {
+            final OutputStream out = new FileOutputStream(written);
+            try {
+                length = ByteStreams.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+        if (!written.renameTo(to)) {
+            // some platforms do not rename over an existing file
+            if (!to.delete() || !written.renameTo(to)) {
+                written.delete();
+                throw new IOException("Unable to write " + to);
+            }
+        }
+        return new FileEntry(length, in.getChecksum().getValue());
+    }
+
+    private static boolean delete(File file) {
+        return !file.exists() || file.delete();
+    }
+
+    private static Manifest readManifest(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        try {
+            // manifests written before the publishing node was elected have no term
+            final Manifest manifest = new Manifest(Long.parseLong(properties.getProperty(GENERATION_KEY)),
+                    Long.parseLong(properties.getProperty(TERM_KEY, "0")), properties.getProperty(PUBLISHER_KEY));
+            for (String key : properties.stringPropertyNames()) {
+                if (key.startsWith(FILE_PREFIX)) {
+                    manifest.files.put(key.substring(FILE_PREFIX.length()), FileEntry.parse(properties.getProperty(key)));
+                }
+            }
+            return manifest;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid manifest " + file, e);
+        }
+    }
+
+    private static void writeManifest(Manifest manifest, File file) throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(GENERATION_KEY, Long.toString(manifest.generation));
+        properties.setProperty(TERM_KEY, Long.toString(manifest.term));
+        if (manifest.publisher != null) {
+            properties.setProperty(PUBLISHER_KEY, manifest.publisher);
+        }
+        for (Map.Entry<String, FileEntry> entry : manifest.files.entrySet()) {
+            properties.setProperty(FILE_PREFIX + entry.getKey(), entry.getValue().toString());
+        }
+        final File written = new File(file.getParentFile(), file.getName() + TEMPORARY_SUFFIX);
+        final OutputStream out = new FileOutputStream(written);
+        try {
+            properties.store(out, "Snapshot of the Subversion revision index");
+        } finally {
+            out.close();
+        }
+        if (!written.renameTo(file)) {
+            if (!file.delete() || !written.renameTo(file)) {
+                throw new IOException("Unable to write " + file);
+            }
+        }
+    }
+
+    /**
+     * The files of a snapshot by their paths within the index, shards separated by a slash, and the node that
+     * published it.
+     */
+    static final class Manifest {
+        private final long generation;
+        private final long term;
+        private final String publisher;
+        private final SortedMap<String, FileEntry> files = new TreeMap<String, FileEntry>();
+
+        Manifest(long generation, long term, String publisher) {
+            this.generation = generation;
+            this.term = term;
+            this.publisher = publisher;
+        }
+
+        long getGeneration() {
+            return generation;
+        }
+
+        long getTerm() {
+            return term;
+        }
+
+        Set<String> getFiles() {
+            return Collections.unmodifiableSet(files.keySet());
+        }
+    }
+
+    private static final class FileEntry {
+        private final long length;
+        private final long checksum;
+
+        FileEntry(long length, long checksum) {
+            this.length = length;
+            this.checksum = checksum;
+        }
+
+        static FileEntry parse(String value) {
+            final int colon = value.indexOf(':');
+            if (colon < 0) {
+                throw new NumberFormatException("Invalid file entry '" + value + "'");
+            }
+            return new FileEntry(Long.parseLong(value.substring(0, colon)), Long.parseLong(value.substring(colon + 1), 16));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileEntry)) {
+                return false;
+            }
+            final FileEntry other = (FileEntry) o;
+            return length == other.length && checksum == other.checksum;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (length ^ checksum);
+        }
+
+        @Override
+        public String toString() {
+            return length + ":" + Long.toHexString(checksum);
+        }
+    }
+
+    /**
+     * A local file as it was when it was published. Index files are never changed, so a file of the same path, length
+     * and modification time is the same file.
+     */
+    private static final class Source {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+
+        Source(File file) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Source)) {
+                return false;
+            }
+            final Source other = (Source) o;
+            return path.equals(other.path) && length == other.length && lastModified == other.lastModified;
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
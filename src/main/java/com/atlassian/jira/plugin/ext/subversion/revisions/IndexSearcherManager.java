@@ -0,0 +1,194 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares one searcher over an index between all queries. The reader behind it is reference counted: each query
+ * holds a reference from {@link #acquire()} to {@link #release}, and a reader that has been replaced is closed
+ * once the last query using it has released it.
+ * <p>
+ * The index may be made of several directories, which are searched as one through a {@link MultiReader}.
+ * <p>
+ * The reader is only reopened after it has been {@link #invalidate() invalidated}, which the indexer does after
+ * each commit. Reopening only loads the segments that changed, so the norms and sort caches of the others are
+ * kept, and the directories that have been added or removed since. While one query reopens the reader, the others
+ * carry on with the previous one.
+ */
+class IndexSearcherManager {
+    /**
+     * Lists the directories of the index, each holding an index of its own.
+     */
+    interface Directories {
+        List<Directory> list() throws IOException;
+    }
+
+    private final Directories directories;
+    private final Lock reopenLock = new ReentrantLock();
+    private volatile boolean stale;
+    private IndexSearcher current;
+    // the reader of each directory, holding a reference to each
+    private Map<Directory, IndexReader> readers = Collections.emptyMap();
+    private boolean closed;
+
+    IndexSearcherManager(final Directory directory) {
+        this(new Directories() {
+            public List<Directory> list() {
+                return Collections.singletonList(directory);
+            }
+        });
+    }
+
+    IndexSearcherManager(Directories directories) {
+        this.directories = directories;
+    }
+
+    /**
+     * @return the current searcher. Must be given back with {@link #release}.
+     */
+    IndexSearcher acquire() throws IOException {
+        if (stale) {
+            maybeReopen();
+        }
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("The index searcher has been closed");
+            }
+            if (current == null) {
+                stale = false;
+                final Map<Directory, IndexReader> opened = new LinkedHashMap<Directory, IndexReader>();
+                try {
+                    for (Directory directory : directories.list()) {
+                        opened.put(directory, IndexReader.open(directory));
+                    }
+                } catch (IOException e) {
+                    decRef(opened);
+                    throw e;
+                }
+                readers = opened;
+                current = createSearcher(opened);
+            }
+            current.getIndexReader().incRef();
+            return current;
+        }
+    }
+
+    void release(IndexSearcher searcher) throws IOException {
+        searcher.getIndexReader().decRef();
+    }
+
+    /**
+     * Makes the next {@link #acquire()} reopen the reader, to see the changes committed since it was opened.
+     */
+    void invalidate() {
+        stale = true;
+    }
+
+    /**
+     * Closes the searcher. Queries still holding it may finish; the reader is closed when they release it.
+     */
+    synchronized void close() throws IOException {
+        closed = true;
+        if (current != null) {
+            current.getIndexReader().decRef();
+            current = null;
+        }
+        decRef(readers);
+        readers = Collections.emptyMap();
+    }
+
+    /**
+     * @return a searcher holding a reference of its own to the readers.
+     */
+    private static IndexSearcher createSearcher(Map<Directory, IndexReader> readers) {
+        final IndexReader[] subReaders = readers.values().toArray(new IndexReader[readers.size()]);
+        if (subReaders.length == 1) {
+            subReaders[0].incRef();
+            return new IndexSearcher(subReaders[0]);
+        }
+        // references the readers without closing them, they are closed once the last searcher using them is
+        return new IndexSearcher(new MultiReader(subReaders, false));
+    }
+
+    private static void decRef(Map<Directory, IndexReader> readers) throws IOException {
+        for (IndexReader reader : readers.values()) {
+            reader.decRef();
+        }
+    }
+
+    private void maybeReopen() throws IOException {
+        // whoever gets the lock reopens, the others use the current reader in the meantime
+        if (!reopenLock.tryLock()) {
+            return;
+        }
+        try {
+            final Map<Directory, IndexReader> previous;
+            synchronized (this) {
+                if (current == null || closed) {
+                    return;
+                }
+                // a commit made while the reader is reopened marks it stale again
+                stale = false;
+                previous = readers;
+                for (IndexReader reader : previous.values()) {
+                    reader.incRef();
+                }
+            }
+
+            final Map<Directory, IndexReader> reopened = new LinkedHashMap<Directory, IndexReader>();
+            boolean changed;
+            try {
+                for (Directory directory : directories.list()) {
+                    final IndexReader reader = previous.get(directory);
+                    if (reader == null) {
+                        reopened.put(directory, IndexReader.open(directory));
+                    } else {
+                        final IndexReader newReader = reader.reopen();
+                        if (newReader == reader) {
+                            reader.incRef();
+                        }
+                        reopened.put(directory, newReader);
+                    }
+                }
+                changed = !reopened.keySet().equals(previous.keySet());
+                for (Map.Entry<Directory, IndexReader> entry : reopened.entrySet()) {
+                    changed |= entry.getValue() != previous.get(entry.getKey());
+                }
+            } catch (IOException e) {
+                stale = true;
+                decRef(reopened);
+                throw e;
+            } finally {
+                decRef(previous);
+            }
+            if (!changed) {
+                decRef(reopened);
+                return;
+            }
+
+            synchronized (this) {
+                if (closed || readers != previous) {
+                    decRef(reopened);
+                    return;
+                }
+                final IndexSearcher replaced = current;
+                decRef(previous);
+                readers = reopened;
+                current = createSearcher(reopened);
+                replaced.getIndexReader().decRef();
+            }
+        } finally {
+            reopenLock.unlock();
+        }
+    }
+}
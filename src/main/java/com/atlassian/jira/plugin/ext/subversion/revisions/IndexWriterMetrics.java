@@ -0,0 +1,70 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts what the shared index writer spends its time on: flushes of the buffered documents to new segments,
+ * merges of segments and commits. All counters cover the lifetime of the plugin.
+ */
+public final class IndexWriterMetrics {
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong mergeNanos = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    void flushed() {
+        flushes.incrementAndGet();
+    }
+
+    void merged(long nanos) {
+        merges.incrementAndGet();
+        mergeNanos.addAndGet(nanos);
+    }
+
+    void committed(long nanos) {
+        commits.incrementAndGet();
+        commitNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxCommitNanos.get();
+        } while (nanos > max && !maxCommitNanos.compareAndSet(max, nanos));
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    public long getMergeCount() {
+        return merges.get();
+    }
+
+    public long getMergeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mergeNanos.get());
+    }
+
+    public long getCommitCount() {
+        return commits.get();
+    }
+
+    /**
+     * @return the average time a commit took, in milliseconds, or 0 if there has been none.
+     */
+    public long getAverageCommitMillis() {
+        final long count = commits.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(commitNanos.get() / count) : 0;
+    }
+
+    public long getMaxCommitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxCommitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "flushes=" + getFlushCount() + ", merges=" + getMergeCount() + " (" + getMergeMillis() + " ms)"
+                + ", commits=" + getCommitCount() + " (average " + getAverageCommitMillis() + " ms, max "
+                + getMaxCommitMillis() + " ms)";
+    }
+}
@@ -0,0 +1,252 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Staged indexing of log entries. The thread retrieving the log submits each entry; the document is built by
+ * the extraction pool and handed to a single writer thread, which writes the results in the order they were
+ * submitted. The queue in front of the writer is bounded, so retrieval blocks when the writer falls behind
+ * rather than filling the heap.
+ * <p>
+ * Each repository submits its entries through its own {@link Session}. A session that fails skips the rest of
+ * its entries, so nothing after the failure is written and the checkpoint stops at the last written entry.
+ */
+class IndexingPipeline {
+    private final static Logger log = LoggerFactory.getLogger(IndexingPipeline.class);
+
+    private final ExecutorService extractors;
+    private final BlockingQueue<Pending<?>> queue;
+    private final Thread writerThread;
+    private final Pending<Object> end = new Pending<Object>(null, null, null);
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong fetchBlockedNanos = new AtomicLong();
+    private final AtomicLong extractionNanos = new AtomicLong();
+    private final AtomicLong writerIdleNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    /**
+     * Writes the result of an extraction. Runs on the writer thread.
+     */
+    interface Writer<T> {
+        void write(T value) throws IOException;
+    }
+
+    IndexingPipeline(ExecutorService extractors, int capacity) {
+        this.extractors = extractors;
+        this.queue = new ArrayBlockingQueue<Pending<?>>(capacity);
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "subversion-index-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    Session openSession(String name) {
+        return new Session(name);
+    }
+
+    /**
+     * Waits for everything submitted to be written and stops the writer thread. When interrupted while waiting, the
+     * writer thread is interrupted as well and joined before this returns, so it never writes to an index that has
+     * been closed since.
+     */
+    void close() throws InterruptedException {
+        try {
+            queue.put(end);
+            writerThread.join();
+        } finally {
+            // only when interrupted while waiting
+            if (writerThread.isAlive()) {
+                joinUninterruptibly();
+            }
+        }
+
+        if (log.isDebugEnabled() && submitted.get() > 0) {
+            log.debug("Indexed " + submitted.get() + " log entries: retrieval blocked " + millis(fetchBlockedNanos)
+                    + " ms, extraction " + millis(extractionNanos) + " ms, writer idle " + millis(writerIdleNanos)
+                    + " ms, writing " + millis(writeNanos) + " ms");
+        }
+    }
+
+    private void joinUninterruptibly() {
+        boolean interrupted = false;
+        while (writerThread.isAlive()) {
+            // again each time, as a write may clear the interruption before the writer thread waits for the next one
+            writerThread.interrupt();
+            try {
+                writerThread.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    long getSubmitted() {
+        return submitted.get();
+    }
+
+    long getFetchBlockedMillis() {
+        return millis(fetchBlockedNanos);
+    }
+
+    long getExtractionMillis() {
+        return millis(extractionNanos);
+    }
+
+    long getWriterIdleMillis() {
+        return millis(writerIdleNanos);
+    }
+
+    long getWriteMillis() {
+        return millis(writeNanos);
+    }
+
+    private static long millis(AtomicLong nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                final Pending<?> pending = queue.take();
+                if (pending == end) {
+                    return;
+                }
+                pending.write();
+            }
+        } catch (InterruptedException e) {
+            log.warn("The index writer thread has been interrupted.");
+        }
+    }
+
+    /**
+     * The entries of one repository.
+     */
+    class Session {
+        private final String name;
+        private volatile Exception failure;
+
+        private Session(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Hands the extraction to the extraction pool and queues its result for the writer, blocking while the
+         * writer's queue is full.
+         */
+        <T> void submit(final Callable<T> extraction, Writer<T> writer) throws IOException, InterruptedException {
+            rethrowFailure();
+
+            final Future<T> result = extractors.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    final long start = System.nanoTime();
+                    try {
+                        return extraction.call();
+                    } finally {
+                        extractionNanos.addAndGet(System.nanoTime() - start);
+                    }
+                }
+            });
+
+            final long start = System.nanoTime();
+            queue.put(new Pending<T>(this, result, writer));
+            fetchBlockedNanos.addAndGet(System.nanoTime() - start);
+            submitted.incrementAndGet();
+        }
+
+        /**
+         * Waits until everything submitted to this session so far has been written.
+         *
+         * @throws IOException the first failure of this session, if any.
+         */
+        void flush() throws IOException, InterruptedException {
+            final CountDownLatch written = new CountDownLatch(1);
+            queue.put(new Pending<Object>(this, null, new Writer<Object>() {
+                @Override
+                public void write(Object value) {
+                    written.countDown();
+                }
+            }));
+            written.await();
+            rethrowFailure();
+        }
+
+        private void rethrowFailure() throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+
+        private void fail(Exception e) {
+            if (failure == null) {
+                log.warn("Indexing " + name + " failed, skipping the rest of its log entries.", e);
+                failure = e;
+            }
+        }
+    }
+
+    private class Pending<T> {
+        private final Session session;
+        private final Future<T> result;
+        private final Writer<T> writer;
+
+        Pending(Session session, Future<T> result, Writer<T> writer) {
+            this.session = session;
+            this.result = result;
+            this.writer = writer;
+        }
+
+        void write() throws InterruptedException {
+            try {
+                T value = null;
+                if (result != null) {
+                    final long start = System.nanoTime();
+                    try {
+                        value = result.get();
+                    } finally {
+                        writerIdleNanos.addAndGet(System.nanoTime() - start);
+                    }
+                }
+                // a failed session only runs its flushes
+                if (session.failure == null || result == null) {
+                    final long start = System.nanoTime();
+                    try {
+                        writer.write(value);
+                    } finally {
+                        writeNanos.addAndGet(System.nanoTime() - start);
+                    }
+                }
+            } catch (ExecutionException e) {
+                session.fail(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+            } catch (IOException e) {
+                session.fail(e);
+            } catch (RuntimeException e) {
+                session.fail(e);
+            }
+        }
+    }
+}
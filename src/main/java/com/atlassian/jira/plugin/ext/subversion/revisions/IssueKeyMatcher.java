@@ -0,0 +1,207 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the issue keys of a known set of projects in a log message. The project keys are compiled into a trie
+ * that the message is walked through once, upper-casing one character at a time, so neither the message nor the
+ * candidate keys are copied; only the keys found are turned into strings.
+ * <p>
+ * A key is a project key, a dash and a number. It has to start a word and the number has to end one, so
+ * <tt>XABC-1</tt> and <tt>ABC-1X</tt> are not keys of project <tt>ABC</tt>. As a key can only start at the start of a
+ * word, the trie is tried from each word start and no failure links are needed.
+ * <p>
+ * A project created after the matcher was built is not known to it, so callers check the text for keys of other
+ * projects with {@link #containsUnknownKey(CharSequence)} before relying on the keys found.
+ * <p>
+ * Instances are immutable; a new one is built when the project keys change.
+ */
+public final class IssueKeyMatcher {
+    private static final int FIRST_CHAR = '0';
+    private static final int LAST_CHAR = 'Z' + 1; // underscore
+
+    private final Node root = new Node();
+    private final int projectKeyCount;
+
+    public IssueKeyMatcher(Collection<String> projectKeys) {
+        int count = 0;
+        for (String projectKey : projectKeys) {
+            if (add(projectKey.toUpperCase())) {
+                count++;
+            }
+        }
+        this.projectKeyCount = count;
+    }
+
+    private boolean add(String projectKey) {
+        if (projectKey.length() == 0) {
+            return false;
+        }
+        Node node = root;
+        for (int i = 0; i < projectKey.length(); i++) {
+            final int index = indexOf(projectKey.charAt(i));
+            if (index < 0) {
+                // a key with characters beyond the usual letters, digits and underscore is left out
+                return false;
+            }
+            if (node.children == null) {
+                node.children = new Node[LAST_CHAR - FIRST_CHAR + 1];
+            }
+            if (node.children[index] == null) {
+                node.children[index] = new Node();
+            }
+            node = node.children[index];
+        }
+        if (node.projectKey != null) {
+            return false;
+        }
+        node.projectKey = projectKey;
+        return true;
+    }
+
+    public int getProjectKeyCount() {
+        return projectKeyCount;
+    }
+
+    /**
+     * @return <tt>true</tt> if the text contains at least one issue key.
+     */
+    public boolean containsIssueKey(CharSequence text) {
+        return text != null && find(text, null);
+    }
+
+    /**
+     * @return the distinct issue keys in the text, upper case, in the order they first appear.
+     */
+    public List<String> getIssueKeys(CharSequence text) {
+        if (text == null) {
+            return Collections.emptyList();
+        }
+        final List<String> issueKeys = new ArrayList<String>();
+        find(text, issueKeys);
+        return issueKeys;
+    }
+
+    /**
+     * @return <tt>true</tt> if the text contains a word that looks like an issue key, a letter followed by letters,
+     * digits or underscores, a dash and a number, of a project the matcher does not know.
+     */
+    public boolean containsUnknownKey(CharSequence text) {
+        if (text == null) {
+            return false;
+        }
+        final int length = text.length();
+        int start = 0;
+        while (start < length) {
+            if ((start > 0 && isWordChar(text.charAt(start - 1))) || !isLetter(Character.toUpperCase(text.charAt(start)))) {
+                start++;
+                continue;
+            }
+            Node node = root;
+            int end = start;
+            while (end < length) {
+                final int index = indexOf(Character.toUpperCase(text.charAt(end)));
+                if (index < 0) {
+                    break;
+                }
+                node = node != null && node.children != null ? node.children[index] : null;
+                end++;
+            }
+            if (end + 1 < length && text.charAt(end) == '-' && isDigit(text.charAt(end + 1))) {
+                int numberEnd = end + 1;
+                while (numberEnd < length && isDigit(text.charAt(numberEnd))) {
+                    numberEnd++;
+                }
+                if ((numberEnd == length || !isWordChar(text.charAt(numberEnd))) && (node == null || node.projectKey == null)) {
+                    return true;
+                }
+                end = numberEnd;
+            }
+            start = Math.max(end, start + 1);
+        }
+        return false;
+    }
+
+    /**
+     * Walks the text once. Stops at the first key if no list to collect the keys into is given.
+     */
+    private boolean find(CharSequence text, List<String> issueKeys) {
+        final int length = text.length();
+        boolean found = false;
+        int start = 0;
+        while (start < length) {
+            if (start > 0 && isWordChar(text.charAt(start - 1))) {
+                start++;
+                continue;
+            }
+
+            Node node = root;
+            int end = start;
+            int keyEnd = -1;
+            while (end < length) {
+                final int index = indexOf(Character.toUpperCase(text.charAt(end)));
+                if (index < 0 || node.children == null || node.children[index] == null) {
+                    break;
+                }
+                node = node.children[index];
+                end++;
+                if (node.projectKey != null && end + 1 < length && text.charAt(end) == '-' && isDigit(text.charAt(end + 1))) {
+                    keyEnd = end;
+                    break;
+                }
+            }
+
+            if (keyEnd < 0) {
+                start++;
+                continue;
+            }
+            int numberEnd = keyEnd + 1;
+            while (numberEnd < length && isDigit(text.charAt(numberEnd))) {
+                numberEnd++;
+            }
+            if (numberEnd < length && isWordChar(text.charAt(numberEnd))) {
+                start = numberEnd;
+                continue;
+            }
+
+            if (issueKeys == null) {
+                return true;
+            }
+            found = true;
+            final String issueKey = new StringBuilder(node.projectKey.length() + numberEnd - keyEnd)
+                    .append(node.projectKey).append(text, keyEnd, numberEnd).toString();
+            if (!issueKeys.contains(issueKey)) {
+                issueKeys.add(issueKey);
+            }
+            start = numberEnd;
+        }
+        return found;
+    }
+
+    private static int indexOf(char c) {
+        if (c == '_') {
+            return LAST_CHAR - FIRST_CHAR;
+        }
+        return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'Z') ? c - FIRST_CHAR : -1;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+
+    private static class Node {
+        private Node[] children;
+        private String projectKey;
+    }
+}
@@ -0,0 +1,37 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.tmatesoft.svn.core.SVNLogEntry;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of commits, grouped by repository, together with the cursor of the page after it.
+ */
+public final class LogEntryPage {
+    private final Map<Long, List<SVNLogEntry>> logEntries;
+    private final String nextCursor;
+
+    public LogEntryPage(Map<Long, List<SVNLogEntry>> logEntries, String nextCursor) {
+        this.logEntries = logEntries;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return a {@link Map} of repository IDs to the commits of the page in them, in the order of the page.
+     */
+    public Map<Long, List<SVNLogEntry>> getLogEntries() {
+        return logEntries;
+    }
+
+    /**
+     * @return the opaque cursor to pass in for the next page, or <tt>null</tt> if this is the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -1,24 +1,31 @@
 package com.atlassian.jira.plugin.ext.subversion.revisions;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Small abstraction for Lucene index reader and writer acquisition. Helps contain the dependencies of
  * RevisionIndexer on the internals of lucene and specifically the knock-on effects of static references
  * to Bonnie classes in LuceneUtils. Introduced to aid testability.
+ * <p>
+ * An index may be split into shards: indexes of their own in the subdirectories of its path. They are written
+ * through shared writers of their own and searched together with the index at the path as one index.
  *
  * @since 0.9.12
  */
 interface LuceneIndexAccessor {
     /**
-     * Gets a Lucene {@link org.apache.lucene.index.IndexReader} at the given path.
+     * Gets a Lucene {@link org.apache.lucene.index.IndexReader} at the given path, reading its shards as well.
      *
      * @param path the path.
-     * @return the IndexReader.
+     * @return the IndexReader, closing the readers of the shards when it is closed.
      * @throws IOException if there's some problem getting the reader.
      */
     IndexReader getIndexReader(String path) throws IOException;
@@ -33,4 +40,117 @@ interface LuceneIndexAccessor {
      * @throws IOException if there's some problem getting the writer.
      */
     IndexWriter getIndexWriter(String path, boolean create, Analyzer analyzer) throws IOException;
+
+    /**
+     * Gets the writer all indexing goes through. It is opened on first use, creating the index if there is none,
+     * and kept open until {@link #close()}, so its buffered documents and the write lock survive between indexing
+     * runs. Each shard has a shared writer of its own.
+     *
+     * @param path     the path.
+     * @param analyzer the {@link org.apache.lucene.analysis.Analyzer} to use.
+     * @return the IndexWriter, which must not be closed by the caller.
+     * @throws IOException if there's some problem opening the writer.
+     */
+    IndexWriter getSharedIndexWriter(String path, Analyzer analyzer) throws IOException;
+
+    /**
+     * Commits the shared writer at the given path, so the next searcher acquired sees the changes. The shared writers
+     * of its shards are committed first, so the user data never covers documents of a shard that are not committed.
+     *
+     * @param path     the path.
+     * @param userData the user data to store with the commit.
+     * @throws IOException if there's some problem writing the commit.
+     */
+    void commit(String path, Map<String, String> userData) throws IOException;
+
+    /**
+     * Deletes the documents matching any of the terms from the index at the given path and from its shards, through
+     * their shared writers. The deletions are made visible by the next {@link #commit}.
+     *
+     * @param path     the path.
+     * @param analyzer the {@link org.apache.lucene.analysis.Analyzer} of the writers opened to do so.
+     * @param terms    the terms of the documents to delete.
+     * @throws IOException if there's some problem opening a writer.
+     */
+    void deleteDocuments(String path, Analyzer analyzer, Term... terms) throws IOException;
+
+    /**
+     * Drops the index at the given path together with its shards: their shared writers are rolled back, the index
+     * is emptied and its directory deleted. A dropped shard disappears from the searches at once.
+     *
+     * @param path the path.
+     * @throws IOException if there's some problem emptying the index.
+     */
+    void deleteIndex(String path) throws IOException;
+
+    /**
+     * Holds on to the latest commit of the index at the given path and of each of its shards, so their files are not
+     * deleted by the shared writers until {@link #releaseSnapshot} is called. The caller must make sure no commit is
+     * made in the meantime, or the commits may not match.
+     *
+     * @param path     the path.
+     * @param analyzer the {@link org.apache.lucene.analysis.Analyzer} of the writers opened to do so.
+     * @param id       the id of the snapshot.
+     * @return the commits by the paths of the index and its shards.
+     * @throws IOException if there's some problem opening a writer.
+     */
+    Map<String, IndexCommit> snapshot(String path, Analyzer analyzer, String id) throws IOException;
+
+    /**
+     * Lets the shared writers of the index at the given path and of its shards delete the files of a snapshot taken
+     * by {@link #snapshot}, once they are no longer needed.
+     *
+     * @param path the path.
+     * @param id   the id of the snapshot.
+     * @throws IOException if there's some problem releasing a commit.
+     */
+    void releaseSnapshot(String path, String id) throws IOException;
+
+    /**
+     * @return the flushes, merges and commits of the shared writers so far.
+     */
+    IndexWriterMetrics getWriterMetrics();
+
+    /**
+     * Gets the user data stored with the latest commit of the index at the given path.
+     *
+     * @param path the path.
+     * @return the commit user data, never <tt>null</tt>.
+     * @throws IOException if there's some problem reading the segments file.
+     */
+    Map<String, String> getCommitUserData(String path) throws IOException;
+
+    /**
+     * Gets the searcher shared by all queries on the index at the given path and its shards. It is kept open between
+     * queries and only reopened after {@link #invalidateSearcher} has been called, picking up the shards added or
+     * dropped since.
+     *
+     * @param path the path.
+     * @return the searcher, which must be given back with {@link #releaseSearcher}.
+     * @throws IOException if there's some problem opening the index.
+     */
+    IndexSearcher acquireSearcher(String path) throws IOException;
+
+    /**
+     * Gives back a searcher got from {@link #acquireSearcher}.
+     *
+     * @param searcher the searcher.
+     * @throws IOException if there's some problem closing a reader that has been replaced in the meantime.
+     */
+    void releaseSearcher(IndexSearcher searcher) throws IOException;
+
+    /**
+     * Tells the accessor that changes have been committed to the index at the given path or one of its shards, so
+     * the next searcher acquired sees them.
+     *
+     * @param path the path.
+     */
+    void invalidateSearcher(String path);
+
+    /**
+     * Closes the shared writers, committing whatever they still buffer, and the shared searcher.
+     *
+     * @throws IOException if there's some problem closing the writer or the reader.
+     */
+    void close() throws IOException;
 }
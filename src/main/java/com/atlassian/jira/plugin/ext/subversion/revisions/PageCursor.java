@@ -0,0 +1,56 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Where a page of commits sorted by date ends: the date of its last commit and how many commits of that very date
+ * have been shown so far. The next page searches from that date on and skips those commits only, so it costs the
+ * same however deep it is.
+ * <p>
+ * Handed out to the browser as an opaque token.
+ */
+final class PageCursor {
+    private static final char SEPARATOR = '.';
+
+    private final long date;
+    private final int skip;
+
+    PageCursor(long date, int skip) {
+        this.date = date;
+        this.skip = skip;
+    }
+
+    long getDate() {
+        return date;
+    }
+
+    int getSkip() {
+        return skip;
+    }
+
+    String toToken() {
+        return Long.toString(date, Character.MAX_RADIX) + SEPARATOR + Integer.toString(skip, Character.MAX_RADIX);
+    }
+
+    /**
+     * @return the cursor of the token, or <tt>null</tt> for the first page if there is no token or it is invalid. The
+     * token comes from the browser, so one skipping more than {@link RevisionIndexer#MAX_REVISIONS} commits is
+     * invalid: the search would collect them all, and near {@link Integer#MAX_VALUE} the number of hits to collect
+     * would overflow.
+     */
+    static PageCursor parse(String token) {
+        if (StringUtils.isBlank(token)) {
+            return null;
+        }
+        final int separator = token.indexOf(SEPARATOR);
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            final int skip = Integer.parseInt(token.substring(separator + 1), Character.MAX_RADIX);
+            return skip >= 0 && skip <= RevisionIndexer.MAX_REVISIONS ? new PageCursor(Long.parseLong(token.substring(0, separator), Character.MAX_RADIX), skip) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.scheme.AbstractSchemeAddedToProjectEvent;
+import com.atlassian.jira.event.scheme.AbstractSchemeEntityEvent;
+import com.atlassian.jira.event.scheme.AbstractSchemeEvent;
+import com.atlassian.jira.event.scheme.AbstractSchemeRemovedFromProjectEvent;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Invalidates the permissions the revision indexer remembers for the project tab whenever a scheme changes. The
+ * permission and issue security schemes share their events with the other schemes, so those invalidate the
+ * permissions too; they are all changed rarely enough for that not to matter.
+ * <p>
+ * An issue that is updated, which includes a change of its security level, assigned, moved or deleted invalidates
+ * the permissions of the projects of its current and previous keys only, as the commits mentioning a previous key
+ * are shown in the tab of the project of that key. The permissions are invalidated on the other nodes of the
+ * cluster as well, since JIRA publishes these events on the node of the change only.
+ */
+public class PermissionChangeListener implements InitializingBean, DisposableBean {
+    private final static Logger log = LoggerFactory.getLogger(PermissionChangeListener.class);
+
+    private static final Set<Long> PERMISSION_EVENT_TYPES = ImmutableSet.of(EventType.ISSUE_UPDATED_ID,
+            EventType.ISSUE_ASSIGNED_ID, EventType.ISSUE_MOVED_ID, EventType.ISSUE_DELETED_ID);
+
+    private final EventPublisher eventPublisher;
+    private final IssueManager issueManager;
+    private final MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+
+    public PermissionChangeListener(EventPublisher eventPublisher, IssueManager issueManager, MultipleSubversionRepositoryManager multipleSubversionRepositoryManager) {
+        this.eventPublisher = eventPublisher;
+        this.issueManager = issueManager;
+        this.multipleSubversionRepositoryManager = multipleSubversionRepositoryManager;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+    }
+
+    /**
+     * A scheme, such as a permission scheme or an issue security scheme, was created, updated or deleted.
+     */
+    @EventListener
+    public void onSchemeChanged(AbstractSchemeEvent event) {
+        invalidatePermissions();
+    }
+
+    /**
+     * A permission or an issue security level was granted or revoked within a scheme.
+     */
+    @EventListener
+    public void onSchemeEntityChanged(AbstractSchemeEntityEvent event) {
+        invalidatePermissions();
+    }
+
+    @EventListener
+    public void onSchemeAddedToProject(AbstractSchemeAddedToProjectEvent event) {
+        invalidatePermissions();
+    }
+
+    @EventListener
+    public void onSchemeRemovedFromProject(AbstractSchemeRemovedFromProjectEvent event) {
+        invalidatePermissions();
+    }
+
+    /**
+     * An issue was changed in a way that may change who can see it: its security level, its project, or a field
+     * such as the assignee that a permission or a security level can be granted to.
+     */
+    @EventListener
+    public void onIssueEvent(IssueEvent event) {
+        if (!PERMISSION_EVENT_TYPES.contains(event.getEventTypeId()) || event.getIssue() == null) {
+            return;
+        }
+        final Issue issue = event.getIssue();
+        final Set<String> projectKeys = new HashSet<String>();
+        try {
+            // the keys the issue had in other projects before it was moved
+            for (String issueKey : issueManager.getAllIssueKeys(issue.getId())) {
+                projectKeys.add(getProjectKey(issueKey));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to look up the previous keys of " + issue.getKey() + ", invalidating the permissions of all projects", e);
+            invalidatePermissions(null);
+            return;
+        }
+        if (issue.getKey() != null) {
+            projectKeys.add(getProjectKey(issue.getKey()));
+        }
+        invalidatePermissions(projectKeys);
+    }
+
+    private static String getProjectKey(String issueKey) {
+        final int separator = issueKey.lastIndexOf('-');
+        return separator > 0 ? issueKey.substring(0, separator) : issueKey;
+    }
+
+    void invalidatePermissions() {
+        invalidatePermissions(null);
+    }
+
+    private void invalidatePermissions(Collection<String> projectKeys) {
+        if (multipleSubversionRepositoryManager.isIndexingRevisions()) {
+            multipleSubversionRepositoryManager.invalidatePermissions(projectKeys);
+            if (log.isDebugEnabled()) {
+                log.debug("Invalidated the permissions of the project tab of " + (projectKeys != null ? "projects " + projectKeys : "all projects"));
+            }
+        }
+    }
+}
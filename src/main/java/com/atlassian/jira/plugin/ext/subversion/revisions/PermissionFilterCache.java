@@ -0,0 +1,95 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.lucene.search.DocIdSet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers which commits of a project each user may see, so the project tab does not look up the issues and
+ * permissions of every commit on each view.
+ * <p>
+ * The results are kept per segment of the index. Segments never change once written, so a commit to the index
+ * leaves the results of the existing segments valid and only the new segments are filtered on the next view.
+ * Segments that have been merged away are dropped with their readers.
+ * <p>
+ * Permission changes are not visible in the index, so the whole cache is {@link #invalidateAll() invalidated} on
+ * permission and issue security scheme changes, and the results of the projects of an issue are
+ * {@link #invalidateProjects(Collection) invalidated} when it is updated, moved or deleted. Changes JIRA publishes no
+ * event for, such as group memberships, are picked up once the results expire, after the number of minutes of the
+ * <tt>jira.plugins.subversion.permissionCache.expireMinutes</tt> system property.
+ */
+class PermissionFilterCache {
+    static final String EXPIRE_MINUTES_PROPERTY = "jira.plugins.subversion.permissionCache.expireMinutes";
+    private static final long DEFAULT_EXPIRE_MINUTES = 10;
+
+    static final String MAXIMUM_SIZE_PROPERTY = "jira.plugins.subversion.permissionCache.maximumSize";
+    private static final long DEFAULT_MAXIMUM_SIZE = 1000;
+
+    // between the user and the project of a key, as neither contains it
+    private static final char PROJECT_SEPARATOR = '\n';
+
+    private final Cache<String, Map<Object, DocIdSet>> docIdSets;
+
+    PermissionFilterCache() {
+        this(Math.max(0, Long.getLong(EXPIRE_MINUTES_PROPERTY, DEFAULT_EXPIRE_MINUTES)),
+                Math.max(0, Long.getLong(MAXIMUM_SIZE_PROPERTY, DEFAULT_MAXIMUM_SIZE)));
+    }
+
+    PermissionFilterCache(long expireMinutes, long maximumSize) {
+        docIdSets = CacheBuilder.newBuilder()
+                .expireAfterWrite(expireMinutes, TimeUnit.MINUTES)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * @return the commits of the project the user may see, by the {@link org.apache.lucene.index.IndexReader#getCoreCacheKey()
+     * core cache key} of each segment filtered so far.
+     */
+    Map<Object, DocIdSet> getDocIdSets(ApplicationUser user, String projectKey) {
+        final String key = (user != null ? user.getKey() : "") + PROJECT_SEPARATOR + projectKey;
+        try {
+            return docIdSets.get(key, new Callable<Map<Object, DocIdSet>>() {
+                public Map<Object, DocIdSet> call() {
+                    return Collections.synchronizedMap(new WeakHashMap<Object, DocIdSet>());
+                }
+            });
+        } catch (ExecutionException e) {
+            // creating the map does not throw
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Forgets all results, after a change that may affect who can see which issues.
+     */
+    void invalidateAll() {
+        docIdSets.invalidateAll();
+    }
+
+    /**
+     * Forgets the results of the projects for all users, after a change to one of their issues.
+     */
+    void invalidateProjects(Collection<String> projectKeys) {
+        for (Iterator<String> keys = docIdSets.asMap().keySet().iterator(); keys.hasNext(); ) {
+            final String key = keys.next();
+            if (projectKeys.contains(key.substring(key.indexOf(PROJECT_SEPARATOR) + 1))) {
+                keys.remove();
+            }
+        }
+    }
+
+    long size() {
+        return docIdSets.size();
+    }
+}
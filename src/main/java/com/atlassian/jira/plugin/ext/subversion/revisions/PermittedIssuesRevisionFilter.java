@@ -7,31 +7,57 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
 import org.apache.lucene.search.DocIdSet;
-import org.apache.lucene.util.DocIdBitSet;
+import org.apache.lucene.util.OpenBitSet;
 
 import java.io.IOException;
-import java.util.BitSet;
+import java.util.Collections;
 import java.util.Set;
 
+/**
+ * Lets through the commits of the given issues, which the caller has already checked the permissions of. The
+ * commits are looked up term by term into a bit set, so unlike a boolean query there is no limit on the number of
+ * issues.
+ */
 public class PermittedIssuesRevisionFilter extends AbstractRevisionFilter {
     private final Set<String> permittedIssueKeys;
 
+    private final Set<Long> permittedIssueIds;
+
     public PermittedIssuesRevisionFilter(IssueManager issueManager, PermissionManager permissionManager, ApplicationUser user, Set<String> permittedIssueKeys) {
+        this(issueManager, permissionManager, user, permittedIssueKeys, Collections.<Long>emptySet());
+    }
+
+    /**
+     * @param permittedIssueIds the ids of the issues, matching the commits of their previous keys as well.
+     */
+    public PermittedIssuesRevisionFilter(IssueManager issueManager, PermissionManager permissionManager, ApplicationUser user, Set<String> permittedIssueKeys, Set<Long> permittedIssueIds) {
         super(issueManager, permissionManager, user);
         this.permittedIssueKeys = permittedIssueKeys;
+        this.permittedIssueIds = permittedIssueIds;
     }
 
     @Override
     public DocIdSet getDocIdSet(IndexReader indexReader) throws IOException {
-        BitSet bitSet = new BitSet(indexReader.maxDoc());
-
-        for (String issueKey : permittedIssueKeys) {
-            TermDocs termDocs = indexReader.termDocs(new Term(RevisionIndexer.FIELD_ISSUEKEY, issueKey));
-
-            while (termDocs.next())
-                bitSet.set(termDocs.doc(), true);
+        OpenBitSet bitSet = new OpenBitSet(indexReader.maxDoc());
+
+        TermDocs termDocs = indexReader.termDocs();
+        try {
+            for (Long issueId : permittedIssueIds) {
+                addDocs(termDocs, new Term(RevisionIndexer.FIELD_ISSUEID, Long.toString(issueId)), bitSet);
+            }
+            for (String issueKey : permittedIssueKeys) {
+                addDocs(termDocs, new Term(RevisionIndexer.FIELD_ISSUEKEY, issueKey), bitSet);
+            }
+        } finally {
+            termDocs.close();
         }
 
-        return new DocIdBitSet(bitSet);
+        return bitSet;
+    }
+
+    private static void addDocs(TermDocs termDocs, Term term, OpenBitSet bitSet) throws IOException {
+        termDocs.seek(term);
+        while (termDocs.next())
+            bitSet.fastSet(termDocs.doc());
     }
 }
@@ -0,0 +1,86 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.ProjectCreatedEvent;
+import com.atlassian.jira.event.ProjectDeletedEvent;
+import com.atlassian.jira.event.ProjectUpdatedEvent;
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.project.Project;
+import com.atlassian.jira.project.ProjectManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the {@link IssueKeyMatcher} of the revision indexer in line with the project keys. The matcher is
+ * rebuilt whenever a project is created, updated (which includes a change of its key) or deleted.
+ * <p>
+ * The previous keys of a project are kept, since issues can still be referred to by them.
+ */
+public class ProjectKeyListener implements InitializingBean, DisposableBean {
+    private final static Logger log = LoggerFactory.getLogger(ProjectKeyListener.class);
+
+    private final EventPublisher eventPublisher;
+    private final ProjectManager projectManager;
+    private final MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+
+    public ProjectKeyListener(EventPublisher eventPublisher, ProjectManager projectManager, MultipleSubversionRepositoryManager multipleSubversionRepositoryManager) {
+        this.eventPublisher = eventPublisher;
+        this.projectManager = projectManager;
+        this.multipleSubversionRepositoryManager = multipleSubversionRepositoryManager;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        eventPublisher.register(this);
+        updateIssueKeyMatcher();
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
+    }
+
+    @EventListener
+    public void onProjectCreated(ProjectCreatedEvent event) {
+        updateIssueKeyMatcher();
+    }
+
+    @EventListener
+    public void onProjectUpdated(ProjectUpdatedEvent event) {
+        updateIssueKeyMatcher();
+    }
+
+    @EventListener
+    public void onProjectDeleted(ProjectDeletedEvent event) {
+        updateIssueKeyMatcher();
+    }
+
+    void updateIssueKeyMatcher() {
+        final RevisionIndexer revisionIndexer = multipleSubversionRepositoryManager.getRevisionIndexer();
+        if (revisionIndexer == null) {
+            return;
+        }
+
+        try {
+            final Set<String> projectKeys = new HashSet<String>();
+            for (Project project : projectManager.getProjectObjects()) {
+                projectKeys.add(project.getKey());
+                projectKeys.addAll(projectManager.getAllProjectKeys(project.getId()));
+            }
+            final IssueKeyMatcher issueKeyMatcher = new IssueKeyMatcher(projectKeys);
+            revisionIndexer.setIssueKeyMatcher(issueKeyMatcher);
+
+            if (log.isDebugEnabled()) {
+                log.debug("Matching the issue keys of " + issueKeyMatcher.getProjectKeyCount() + " project keys");
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to load the project keys, issue keys are parsed the slow way until the next project change.", e);
+        }
+    }
+}
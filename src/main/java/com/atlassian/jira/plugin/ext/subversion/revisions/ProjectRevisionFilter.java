@@ -15,39 +15,84 @@ import org.apache.lucene.util.DocIdBitSet;
 
 import java.io.IOException;
 import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Lets through the commits of a project that mention an issue the user may see the version control of. With a
+ * {@link PermissionFilterCache}, the commits of each segment of the index are only checked on the first view.
+ */
 public class ProjectRevisionFilter extends AbstractRevisionFilter {
     private final String projectKey;
 
+    private final PermissionFilterCache cache;
+
+    // the issues checked by this filter, as most of them are mentioned by several commits
+    private final Map<String, Boolean> permittedIssueKeys = new HashMap<String, Boolean>();
+
     public ProjectRevisionFilter(IssueManager issueManager, PermissionManager permissionManager, ApplicationUser user, String projectKey) {
+        this(issueManager, permissionManager, user, projectKey, null);
+    }
+
+    ProjectRevisionFilter(IssueManager issueManager, PermissionManager permissionManager, ApplicationUser user, String projectKey, PermissionFilterCache cache) {
         super(issueManager, permissionManager, user);
         this.projectKey = projectKey;
+        this.cache = cache;
     }
 
     @Override
     public DocIdSet getDocIdSet(IndexReader indexReader) throws IOException {
+        if (cache == null) {
+            return createDocIdSet(indexReader);
+        }
+
+        // the searcher filters each segment on its own, so this caches the result of a single segment
+        final Map<Object, DocIdSet> docIdSets = cache.getDocIdSets(user, projectKey);
+        final Object segment = indexReader.getCoreCacheKey();
+        DocIdSet docIdSet = docIdSets.get(segment);
+        if (docIdSet == null) {
+            docIdSet = createDocIdSet(indexReader);
+            docIdSets.put(segment, docIdSet);
+        }
+        return docIdSet;
+    }
+
+    private DocIdSet createDocIdSet(IndexReader indexReader) throws IOException {
         BitSet bitSet = new BitSet(indexReader.maxDoc());
 
         TermDocs termDocs = indexReader.termDocs(new Term(RevisionIndexer.FIELD_PROJECTKEY, projectKey));
-        while (termDocs.next()) {
-            int docId = termDocs.doc();
-            Document theDoc = indexReader.document(docId, issueKeysFieldSelector);
-
-            boolean allow = false;
-            String[] issueKeys = theDoc.getValues(RevisionIndexer.FIELD_ISSUEKEY);
-
-            if (null != issueKeys)
-                for (String issueKey : issueKeys) {
-                    Issue anIssue = issueManager.getIssueObject(StringUtils.upperCase(issueKey));
-                    if (null != anIssue && permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, anIssue, user)) {
-                        allow = true;
-                        break;
+        try {
+            while (termDocs.next()) {
+                int docId = termDocs.doc();
+                Document theDoc = indexReader.document(docId, issueKeysFieldSelector);
+
+                boolean allow = false;
+                String[] issueKeys = theDoc.getValues(RevisionIndexer.FIELD_ISSUEKEY);
+
+                if (null != issueKeys)
+                    for (String issueKey : issueKeys) {
+                        if (isPermitted(StringUtils.upperCase(issueKey))) {
+                            allow = true;
+                            break;
+                        }
                     }
-                }
 
-            bitSet.set(docId, allow);
+                bitSet.set(docId, allow);
+            }
+        } finally {
+            termDocs.close();
         }
 
         return new DocIdBitSet(bitSet);
     }
+
+    private boolean isPermitted(String issueKey) {
+        Boolean permitted = permittedIssueKeys.get(issueKey);
+        if (permitted == null) {
+            Issue anIssue = issueManager.getIssueObject(issueKey);
+            permitted = null != anIssue && permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, anIssue, user);
+            permittedIssueKeys.put(issueKey, permitted);
+        }
+        return permitted;
+    }
 }
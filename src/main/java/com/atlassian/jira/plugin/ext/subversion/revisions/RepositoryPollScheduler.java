@@ -0,0 +1,224 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.SubversionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls each repository for new revisions on its own schedule. A poll only asks the server for the latest
+ * revision; the log is retrieved only when that has moved on. The interval of a repository halves every time it
+ * has new revisions, down to the minimum, and doubles every time it has none, up to the maximum, so busy
+ * repositories are indexed within a minute while idle or unreachable ones are hardly asked at all.
+ * <p>
+ * The intervals are given in seconds by the <tt>jira.plugins.subversion.polling.minInterval</tt> and
+ * <tt>jira.plugins.subversion.polling.maxInterval</tt> system properties. The repositories are polled by a pool of
+ * <tt>jira.plugins.subversion.polling.threads</tt> threads, so a server that is slow to answer does not hold up the
+ * polls of the others.
+ */
+class RepositoryPollScheduler {
+    private final static Logger log = LoggerFactory.getLogger(RepositoryPollScheduler.class);
+
+    static final String MIN_INTERVAL_PROPERTY = "jira.plugins.subversion.polling.minInterval";
+    private static final long DEFAULT_MIN_INTERVAL = 60;
+    static final String MAX_INTERVAL_PROPERTY = "jira.plugins.subversion.polling.maxInterval";
+    private static final long DEFAULT_MAX_INTERVAL = 3600;
+    static final String THREADS_PROPERTY = "jira.plugins.subversion.polling.threads";
+    private static final int DEFAULT_THREADS = 4;
+
+    private final MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+    private final RevisionIndexer revisionIndexer;
+    private final long minInterval;
+    private final long maxInterval;
+    private final ConcurrentMap<Long, PollState> states = new ConcurrentHashMap<Long, PollState>();
+    private final int threads;
+    private volatile ScheduledExecutorService executor;
+
+    RepositoryPollScheduler(MultipleSubversionRepositoryManager multipleSubversionRepositoryManager, RevisionIndexer revisionIndexer) {
+        this.multipleSubversionRepositoryManager = multipleSubversionRepositoryManager;
+        this.revisionIndexer = revisionIndexer;
+        this.minInterval = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong(MIN_INTERVAL_PROPERTY, DEFAULT_MIN_INTERVAL)));
+        this.maxInterval = Math.max(minInterval, TimeUnit.SECONDS.toMillis(Long.getLong(MAX_INTERVAL_PROPERTY, DEFAULT_MAX_INTERVAL)));
+        this.threads = Math.max(1, Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS));
+    }
+
+    synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        // one thread checks which repositories are due, the others poll them
+        final ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(threads + 1, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "subversion-poller-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // the interval of a repository is never shorter than the minimum, so checking that often is enough
+        scheduledExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll(System.currentTimeMillis());
+                } catch (RuntimeException e) {
+                    log.warn("Error polling the Subversion repositories for new revisions", e);
+                }
+            }
+        }, minInterval, minInterval, TimeUnit.MILLISECONDS);
+        executor = scheduledExecutor;
+    }
+
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Polls every repository that is due, and indexes those that have new revisions. Each repository is polled by
+     * the pool, or on the calling thread unless the scheduler has been started.
+     *
+     * @param now the current time in milliseconds.
+     */
+    void poll(final long now) {
+        final ScheduledExecutorService pool = executor;
+        final Set<Long> repoIds = new HashSet<Long>();
+        for (final SubversionManager subversionManager : multipleSubversionRepositoryManager.getRepositoryList()) {
+            final long repoId = subversionManager.getId();
+            repoIds.add(repoId);
+
+            PollState state = states.get(repoId);
+            if (state == null) {
+                state = new PollState(now, minInterval);
+                states.put(repoId, state);
+            }
+            if (state.polling || now < state.nextPoll) {
+                continue;
+            }
+
+            final PollState dueState = state;
+            dueState.polling = true;
+            final Runnable poll = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        poll(subversionManager, dueState, now);
+                    } catch (RuntimeException e) {
+                        log.warn("Error polling repository '" + subversionManager.getDisplayName() + "' for new revisions", e);
+                    } finally {
+                        dueState.polling = false;
+                    }
+                }
+            };
+            if (pool != null) {
+                try {
+                    pool.execute(poll);
+                } catch (RejectedExecutionException e) {
+                    // stopped meanwhile
+                    dueState.polling = false;
+                }
+            } else {
+                poll.run();
+            }
+        }
+        // forget the repositories that have been removed
+        states.keySet().retainAll(repoIds);
+    }
+
+    private void poll(SubversionManager subversionManager, PollState state, long now) {
+        final long repoId = subversionManager.getId();
+        if (state.indexing != null) {
+            if (!state.indexing.isDone()) {
+                return;
+            }
+            settle(repoId, state);
+        }
+
+        if (!subversionManager.isActive()) {
+            subversionManager.activate();
+        }
+        final long latestRevision = subversionManager.isActive() ? subversionManager.getLatestRevision() : -1;
+        if (latestRevision > state.latestRevision) {
+            state.indexing = revisionIndexer.updateRepository(subversionManager, latestRevision);
+            state.indexingRevision = latestRevision;
+            state.interval = Math.max(minInterval, state.interval / 2);
+        } else {
+            state.interval = Math.min(maxInterval, state.interval * 2);
+        }
+        state.nextPoll = now + state.interval;
+
+        if (log.isDebugEnabled()) {
+            log.debug("Latest revision of repository=" + repoId + " is " + latestRevision + ", polling again in "
+                    + TimeUnit.MILLISECONDS.toSeconds(state.interval) + " s");
+        }
+    }
+
+    /**
+     * Takes the revision a finished indexing went up to as the latest one of the repository, provided the indexer
+     * got that far. Otherwise the repository is indexed again on its next poll, even if it has no new revisions.
+     */
+    private void settle(long repoId, PollState state) {
+        try {
+            state.indexing.get();
+            final Long indexedRevision = revisionIndexer.getLatestIndexedRevision(repoId);
+            if (indexedRevision != null && indexedRevision >= state.indexingRevision) {
+                state.latestRevision = state.indexingRevision;
+            }
+        } catch (ExecutionException e) {
+            log.warn("Unable to index repository=" + repoId + ", indexing it again on its next poll", e.getCause());
+        } catch (CancellationException e) {
+            // stopped while indexing
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            state.indexing = null;
+        }
+    }
+
+    /**
+     * @return the current polling interval of a repository in milliseconds, or <tt>-1</tt> if it has not been polled.
+     */
+    long getInterval(long repoId) {
+        final PollState state = states.get(repoId);
+        return state != null ? state.interval : -1;
+    }
+
+    /**
+     * Only changed by the poll of the repository; a poll sees what the previous one left once it has cleared
+     * <tt>polling</tt>.
+     */
+    private static class PollState {
+        private volatile boolean polling;
+        private long nextPoll;
+        private long interval;
+        // the latest revision indexed; the first poll always indexes, to catch up on whatever was committed while
+        // JIRA was down
+        private long latestRevision = -1;
+        private Future<?> indexing;
+        // the revision the pending indexing goes up to
+        private long indexingRevision;
+
+        PollState(long nextPoll, long interval) {
+            this.nextPoll = nextPoll;
+            this.interval = interval;
+        }
+    }
+}
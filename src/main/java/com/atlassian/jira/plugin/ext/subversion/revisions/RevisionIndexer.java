@@ -21,71 +21,291 @@ import com.atlassian.jira.security.PermissionManager;
 import com.atlassian.jira.security.Permissions;
 import com.atlassian.jira.user.ApplicationUser;
 import com.atlassian.jira.util.JiraKeyUtils;
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
+import com.google.common.io.Files;
 import com.opensymphony.util.TextUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.DateField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.document.NumericField;
+import org.apache.lucene.index.IndexCommit;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.NumericRangeFilter;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
-import org.apache.lucene.store.FSDirectory;
-import org.apache.lucene.store.SimpleFSLockFactory;
+import org.apache.lucene.search.TopFieldDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.NumericUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class RevisionIndexer {
     private final static Logger log = LoggerFactory.getLogger(RevisionIndexer.class);
-    private static final Long NOT_INDEXED = -1L;
+    // the latest indexed revision has not been looked up since startup
+    private static final Long NOT_INDEXED = -2L;
+    // nothing has been indexed in the repository yet
+    private static final long NO_REVISION = -1L;
 
     static final String REVISIONS_INDEX_DIRECTORY = "atlassian-subversion-revisions";
 
+    /**
+     * File in the plugin index root naming the directory of the current index, once {@link #rebuildIndex()} has
+     * replaced the index in {@link #REVISIONS_INDEX_DIRECTORY}.
+     */
+    static final String CURRENT_INDEX_FILE = REVISIONS_INDEX_DIRECTORY + ".current";
+
     // These are names of the fields in the Lucene documents that contain revision info.
+    /**
+     * The revision number, indexed as a numeric field and stored as its decimal string.
+     */
     public static final String FIELD_REVISIONNUMBER = "revision";
     public static final Term START_REVISION = new Term(FIELD_REVISIONNUMBER, "");
     public static final String FIELD_MESSAGE = "message";
     public static final String FIELD_AUTHOR = "author";
+    /**
+     * The date of the revision in milliseconds, indexed as a numeric field and stored as its decimal string.
+     */
     public static final String FIELD_DATE = "date";
     public static final String FIELD_ISSUEKEY = "key";
+    /**
+     * The ids of the issues the revision mentions. Ids never change, so the issue tab finds the commits of an issue
+     * whatever keys the issue has had.
+     */
+    public static final String FIELD_ISSUEID = "issueid";
+    /**
+     * The {@link #FIELD_ISSUEID} of the keys {@link #resolveIssueIds()} found no issue for. Such keys are not looked
+     * up again; their revisions are still found by the current key of an issue created later.
+     */
+    static final long UNRESOLVABLE_ISSUE_ID = -1L;
+    /**
+     * The issue keys of the revision that could not be resolved to an issue when it was indexed. They are looked
+     * up again by {@link #resolveIssueIds()}, which removes them once they have been resolved, or once there turns
+     * out to be no issue with the key.
+     */
+    static final String FIELD_UNRESOLVED_ISSUEKEY = "unresolvedkey";
     public static final String FIELD_PROJECTKEY = "project";
     public static final String FIELD_REPOSITORY = "repository";
+    /**
+     * The changed paths of the revision in the form of {@link ChangedPaths}. Together with the message, author
+     * and date, the document holds everything the tab panels show.
+     */
+    public static final String FIELD_CHANGED_PATHS = "paths";
+
+    /**
+     * Prefix of the commit user data entries recording the last revision scanned in each repository.
+     * The checkpoints are committed together with the documents, so they never run ahead of the index.
+     */
+    static final String CHECKPOINT_PREFIX = "checkpoint.";
+
+    /**
+     * Field of the marker document added and deleted again whenever the checkpoints change. Lucene skips commits
+     * without pending changes, which would otherwise drop checkpoints of revisions that did not mention any issue.
+     */
+    static final String FIELD_CHECKPOINT = "checkpoint";
+    private static final Term CHECKPOINT_MARKER = new Term(FIELD_CHECKPOINT, FIELD_CHECKPOINT);
+
+    /**
+     * Commit user data entry with the format of the documents in the index. Indexes without it were written by older
+     * versions, which indexed the revision as a string and the date with {@link DateField}. Indexes of format 2 have
+     * no issue ids, and those of format 3 keep the revisions of all repositories in one index. All are upgraded in
+     * place on startup.
+     */
+    static final String FORMAT_KEY = "format";
+    static final int FORMAT = 4;
+
+    /**
+     * Prefix of the directories of the repository shards. The revisions of each repository are indexed in a
+     * directory of their own below the index path, searched together with the others as one index, so removing a
+     * repository drops its directory and reindexing it leaves the others alone. The index at the path itself keeps
+     * the commit user data.
+     */
+    static final String SHARD_PREFIX = "repository-";
+
+    /**
+     * Precision step of the numeric revision and date fields. A larger step than Lucene's default keeps the number
+     * of terms per document down; range filters still only need a few hundred terms at most.
+     */
+    static final int NUMERIC_PRECISION_STEP = 8;
 
     public static final StandardAnalyzer ANALYZER = new StandardAnalyzer(org.apache.lucene.util.Version.LUCENE_30);
 
     public static final int MAX_REVISIONS = 100;
 
+    /**
+     * System property with the number of repositories indexed in parallel.
+     */
+    static final String INDEXING_THREADS_PROPERTY = "jira.plugins.subversion.indexing.threads";
+    private static final int DEFAULT_INDEXING_THREADS = 4;
+
+    /**
+     * System property with the number of revisions retrieved from a repository between two commits.
+     */
+    static final String INDEXING_WINDOW_PROPERTY = "jira.plugins.subversion.indexing.window";
+    private static final long DEFAULT_INDEXING_WINDOW = 1000;
+
+    /**
+     * System property with the number of threads building documents from log entries.
+     */
+    static final String EXTRACTION_THREADS_PROPERTY = "jira.plugins.subversion.indexing.extractionThreads";
+
+    /**
+     * System property with the number of log entries that may wait for the index writer before retrieval blocks.
+     */
+    static final String INDEXING_QUEUE_PROPERTY = "jira.plugins.subversion.indexing.queueSize";
+    private static final int DEFAULT_INDEXING_QUEUE = 1000;
+
+    /**
+     * System property with the number of documents added after which the index is committed.
+     */
+    static final String COMMIT_DOCUMENTS_PROPERTY = "jira.plugins.subversion.indexing.commitDocuments";
+    private static final int DEFAULT_COMMIT_DOCUMENTS = 1000;
+
+    /**
+     * System property with the number of seconds after which changes to the index are committed.
+     */
+    static final String COMMIT_INTERVAL_PROPERTY = "jira.plugins.subversion.indexing.commitInterval";
+    private static final long DEFAULT_COMMIT_INTERVAL = 30;
+
+    /**
+     * System property with the number of unresolved issue keys looked up by each run of {@link #resolveIssueIds()}.
+     */
+    static final String RESOLVE_BATCH_PROPERTY = "jira.plugins.subversion.issueIds.batchSize";
+    private static final int DEFAULT_RESOLVE_BATCH = 1000;
+
+    /**
+     * System property telling whether this node retrieves the logs of the repositories and publishes the index, when
+     * the index is replicated through the directory given by <tt>jira.plugins.subversion.replication.path</tt>. The
+     * other nodes only copy the snapshots it publishes. Unless it is set, the node publishing the index is elected
+     * among the nodes, see {@link #setPublishing(boolean)}.
+     */
+    static final String PUBLISH_PROPERTY = "jira.plugins.subversion.replication.publish";
+
+    /**
+     * System property with the number of seconds between two snapshots of a replicated index, and between two checks
+     * for a new snapshot.
+     */
+    static final String REPLICATION_INTERVAL_PROPERTY = "jira.plugins.subversion.replication.interval";
+    private static final long DEFAULT_REPLICATION_INTERVAL = 10;
+
+    private static final String REPLICATION_SNAPSHOT = "replication";
+
+    /**
+     * Milliseconds {@link #stop()} waits for the indexing threads to finish before closing the index.
+     */
+    static final long STOP_TIMEOUT = 10000;
+
     private final MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
     private final VersionManager versionManager;
     private final IssueManager issueManager;
     private final PermissionManager permissionManager;
-    private final ChangeHistoryManager changeHistoryManager;
     private final IndexPathManager indexPathManager;
     private ConcurrentMap<Long, Long> latestIndexedRevisionTbl;
     private LuceneIndexAccessor indexAccessor;
+    private final ExecutorService indexingExecutor;
+    private final ExecutorService extractionExecutor;
+    private final ExecutorService repositoryExecutor;
+    private final ExecutorService rebuildExecutor;
+    private final AtomicReference<IndexRebuildProgress> rebuildProgress = new AtomicReference<IndexRebuildProgress>();
+    // the directory of the current index, as last read for the plugin index root
+    private volatile IndexDirectory indexDirectory;
+    private final RepositoryPollScheduler pollScheduler;
+    private volatile IssueKeyMatcher issueKeyMatcher;
+    private final PermissionFilterCache permissionFilterCache = new PermissionFilterCache();
+    /*
+     * Indexing passes share the read lock, so a push is indexed while a sweep of all repositories runs. Whatever
+     * replaces, upgrades or rewrites the index as a whole takes the write lock. Two passes never index the same
+     * repository at once: each repository is indexed holding its own lock.
+     */
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Lock writeLock = indexLock.writeLock();
+    private final Lock passLock = indexLock.readLock();
+    private final ConcurrentMap<Long, Lock> repositoryLocks = new ConcurrentHashMap<Long, Lock>();
+    // null unless the index is replicated between the nodes of a cluster
+    private final IndexReplicator replicator;
+    private final boolean electingPublisher;
+    private volatile boolean publishing;
+    private final long replicationInterval;
+    private final Object replicationLock = new Object();
+    // whether the index has been committed since the last snapshot was published
+    private volatile boolean publishPending = true;
+    private ScheduledExecutorService replicationExecutor;
+    // told each time a snapshot has been published
+    private volatile PublishListener publishListener;
+    // null unless the publishing node is elected
+    private volatile PublisherLease publisherLease;
+    // whether startPolling() has been called, so the node polls the repositories once it publishes the index
+    private volatile boolean polling;
+    private final long indexingWindow;
+    private final int indexingQueueSize;
+    private final int resolveBatchSize;
+    // the unresolved issue key the next run of resolveIssueIds() starts from
+    private volatile String resolveCursor = "";
+
+    /*
+     * The index is committed once enough documents have been added or enough time has passed since the last
+     * commit, and at the end of each indexing run. Commits are made holding the commit lock.
+     */
+    private final Object commitLock = new Object();
+    private final int commitDocuments;
+    private final long commitInterval;
+    private final AtomicInteger uncommittedDocuments = new AtomicInteger();
+    private volatile long lastCommit = System.currentTimeMillis();
+    private Map<String, String> committedUserData;
 
     public RevisionIndexer(MultipleSubversionRepositoryManager multipleSubversionRepositoryManager, VersionManager versionManager, IssueManager issueManager, PermissionManager permissionManager, ChangeHistoryManager changeHistoryManager, IndexPathManager indexPathManager) {
         this(multipleSubversionRepositoryManager, versionManager, issueManager, permissionManager, changeHistoryManager, new DefaultLuceneIndexAccessor(), indexPathManager);
@@ -97,15 +317,63 @@ public class RevisionIndexer {
         this.versionManager = versionManager;
         this.issueManager = issueManager;
         this.permissionManager = permissionManager;
-        this.changeHistoryManager = changeHistoryManager;
         this.indexAccessor = accessor;
         this.indexPathManager = indexPathManager;
+        this.indexingExecutor = createExecutor("subversion-indexer-",
+                Integer.getInteger(INDEXING_THREADS_PROPERTY, DEFAULT_INDEXING_THREADS));
+        this.extractionExecutor = createExecutor("subversion-index-extractor-",
+                Integer.getInteger(EXTRACTION_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+        this.repositoryExecutor = createExecutor("subversion-repository-indexer-", 1);
+        this.rebuildExecutor = createExecutor("subversion-index-rebuild-", 1);
+        this.indexingWindow = Math.max(1, Long.getLong(INDEXING_WINDOW_PROPERTY, DEFAULT_INDEXING_WINDOW));
+        this.indexingQueueSize = Math.max(1, Integer.getInteger(INDEXING_QUEUE_PROPERTY, DEFAULT_INDEXING_QUEUE));
+        this.resolveBatchSize = Math.max(1, Integer.getInteger(RESOLVE_BATCH_PROPERTY, DEFAULT_RESOLVE_BATCH));
+        this.commitDocuments = Math.max(1, Integer.getInteger(COMMIT_DOCUMENTS_PROPERTY, DEFAULT_COMMIT_DOCUMENTS));
+        this.commitInterval = TimeUnit.SECONDS.toMillis(Math.max(0, Long.getLong(COMMIT_INTERVAL_PROPERTY, DEFAULT_COMMIT_INTERVAL)));
+        this.pollScheduler = new RepositoryPollScheduler(multipleSubversionRepositoryManager, this);
+        final String replicationPath = System.getProperty(IndexReplicator.PATH_PROPERTY);
+        this.replicator = StringUtils.isBlank(replicationPath) ? null : new IndexReplicator(new File(replicationPath.trim()));
+        this.electingPublisher = replicator != null && System.getProperty(PUBLISH_PROPERTY) == null;
+        this.publishing = Boolean.getBoolean(PUBLISH_PROPERTY);
+        this.replicationInterval = TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong(REPLICATION_INTERVAL_PROPERTY, DEFAULT_REPLICATION_INTERVAL)));
         initializeLatestIndexedRevisionCache();
     }
 
+    /**
+     * Creates a pool used for indexing. Its threads time out when idle, so an indexer that is not updating the
+     * index holds no threads.
+     */
+    private static ExecutorService createExecutor(final String threadNamePrefix, int size) {
+        final int threads = Math.max(1, size);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, threadNamePrefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     public void start() {
         try {
-            createIndexIfNeeded();
+            deleteStaleIndexes();
+            if (isReplica()) {
+                // searched until the first snapshot has been copied
+                createIndexIfNeeded();
+                try {
+                    updateReplica();
+                } catch (IOException e) {
+                    log.warn("Unable to copy the revision index from " + replicator.getSharedDirectory() + ", trying again later", e);
+                }
+            } else if (createIndexIfNeeded()) {
+                upgradeIndexIfNeeded();
+            }
         } catch (Exception e) {
             log.error("Error installing the revision index service.", e);
             throw new InfrastructureException("Error installing the revision index service.", e);
@@ -124,7 +392,16 @@ public class RevisionIndexer {
         boolean indexExists = indexDirectoryExists();
         if (getIndexPath() != null && !indexExists) {
             try {
-                indexAccessor.getIndexWriter(getIndexPath(), true, ANALYZER).close();
+                final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath(), true, ANALYZER);
+                try {
+                    writer.commit(Collections.singletonMap(FORMAT_KEY, Integer.toString(FORMAT)));
+                } finally {
+                    writer.close();
+                }
+                indexAccessor.invalidateSearcher(getIndexPath());
+                synchronized (commitLock) {
+                    committedUserData = null;
+                }
                 initializeLatestIndexedRevisionCache();
                 return true;
             } catch (IOException ioe) {
@@ -136,6 +413,176 @@ public class RevisionIndexer {
         }
     }
 
+    /**
+     * Upgrades an index written by an older version to the current {@link #FORMAT}. Every document is rewritten from
+     * its stored fields into the shard of its repository and the whole upgrade is committed at once, so searches see
+     * either the old or the new documents, never a mix of both. Shards left behind by an interrupted upgrade are
+     * dropped first. The issue keys are not looked up during the upgrade; they are left to
+     * {@link #resolveIssueIds()}.
+     */
+    private void upgradeIndexIfNeeded() throws IOException {
+        synchronized (commitLock) {
+            if (isCurrentFormat(getCommittedUserData())) {
+                return;
+            }
+        }
+
+        writeLock.lock();
+        try {
+            final IndexWriter writer = indexAccessor.getSharedIndexWriter(getIndexPath(), ANALYZER);
+            synchronized (commitLock) {
+                final Map<String, String> previous = getCommittedUserData();
+                if (isCurrentFormat(previous)) {
+                    return;
+                }
+
+                for (File shard : listShards()) {
+                    indexAccessor.deleteIndex(shard.getPath());
+                }
+                final IndexReader reader = indexAccessor.getIndexReader(getIndexPath());
+                try {
+                    final int format = getFormat(previous);
+                    log.info("Upgrading the " + reader.numDocs() + " documents of the revision index from format " + format + " to format " + FORMAT);
+                    writer.deleteAll();
+                    for (int i = 0; i < reader.maxDoc(); i++) {
+                        if (!reader.isDeleted(i)) {
+                            final Document doc = upgradeDocument(reader.document(i), format);
+                            getWriter(doc).addDocument(doc);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+
+                final Map<String, String> userData = new HashMap<String, String>(previous);
+                userData.put(FORMAT_KEY, Integer.toString(FORMAT));
+                commit(previous, userData);
+                log.info("Upgraded the revision index: " + indexAccessor.getWriterMetrics());
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return the shared writer of the shard of the repository of the document, or of the index itself for the
+     * documents without a repository.
+     */
+    private IndexWriter getWriter(Document doc) throws IOException {
+        final String repoId = doc.get(FIELD_REPOSITORY);
+        return indexAccessor.getSharedIndexWriter(repoId != null ? getShardPath(Long.parseLong(repoId)) : getIndexPath(), ANALYZER);
+    }
+
+    /**
+     * @return the path of the shard holding the revisions of the repository.
+     */
+    String getShardPath(long repoId) {
+        return getShardPath(getIndexPath(), repoId);
+    }
+
+    private static String getShardPath(String indexPath, long repoId) {
+        return new File(indexPath, SHARD_PREFIX + repoId).getPath();
+    }
+
+    private File[] listShards() {
+        return listShards(getIndexPath());
+    }
+
+    private static File[] listShards(String indexPath) {
+        final File[] shards = new File(indexPath).listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isDirectory() && file.getName().startsWith(SHARD_PREFIX);
+            }
+        });
+        return shards != null ? shards : new File[0];
+    }
+
+    private static boolean isCurrentFormat(Map<String, String> userData) {
+        return getFormat(userData) >= FORMAT;
+    }
+
+    /**
+     * @return the format of the documents of the index, <tt>1</tt> for indexes written before the format was recorded.
+     */
+    private static int getFormat(Map<String, String> userData) {
+        try {
+            final String format = userData.get(FORMAT_KEY);
+            return format != null ? Integer.parseInt(format) : 1;
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
+    /**
+     * Rebuilds a document of an older format from its stored fields. The revision and date become numeric fields,
+     * and the issue keys of documents without issue ids are marked as unresolved.
+     */
+    static Document upgradeDocument(Document old, int format) {
+        final Document doc = new Document();
+        for (Fieldable field : old.getFields()) {
+            doc.add(copyField(field, format < 2));
+        }
+        if (format < 3) {
+            for (String issueKey : old.getValues(FIELD_ISSUEKEY)) {
+                doc.add(createUnresolvedIssueKeyField(issueKey));
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * Rebuilds a document from its stored fields, replacing the unresolved issue keys that have been resolved with
+     * the ids of their issues, or with {@link #UNRESOLVABLE_ISSUE_ID} when there is no issue with the key.
+     */
+    static Document resolveDocument(Document stored, Map<String, Long> issueIds) {
+        final Document doc = new Document();
+        final Set<String> ids = new HashSet<String>(Arrays.asList(stored.getValues(FIELD_ISSUEID)));
+        for (Fieldable field : stored.getFields()) {
+            if (FIELD_UNRESOLVED_ISSUEKEY.equals(field.name()) && issueIds.containsKey(field.stringValue())) {
+                final Long issueId = issueIds.get(field.stringValue());
+                if (ids.add(issueId.toString())) {
+                    doc.add(createIssueIdField(issueId));
+                }
+            } else {
+                doc.add(copyField(field, false));
+            }
+        }
+        return doc;
+    }
+
+    /**
+     * @param legacyDate whether the date was stored with {@link DateField}, as by the first format.
+     * @return an indexed copy of a stored field.
+     */
+    private static Fieldable copyField(Fieldable field, boolean legacyDate) {
+        final String name = field.name();
+        if (FIELD_REVISIONNUMBER.equals(name)) {
+            return createRevisionField(Long.parseLong(field.stringValue()));
+        } else if (FIELD_DATE.equals(name)) {
+            return createDateField(legacyDate ? DateField.stringToDate(field.stringValue()) : new Date(Long.parseLong(field.stringValue())));
+        } else if (field.isBinary()) {
+            return new Field(name, field.getBinaryValue(), field.getBinaryOffset(), field.getBinaryLength());
+        } else {
+            return new Field(name, field.stringValue(), Field.Store.YES, Field.Index.NOT_ANALYZED);
+        }
+    }
+
+    static NumericField createRevisionField(long revision) {
+        return new NumericField(FIELD_REVISIONNUMBER, NUMERIC_PRECISION_STEP, Field.Store.YES, true).setLongValue(revision);
+    }
+
+    static NumericField createDateField(Date date) {
+        return new NumericField(FIELD_DATE, NUMERIC_PRECISION_STEP, Field.Store.YES, true).setLongValue(date.getTime());
+    }
+
+    static Field createIssueIdField(long issueId) {
+        return new Field(FIELD_ISSUEID, Long.toString(issueId), Field.Store.YES, Field.Index.NOT_ANALYZED);
+    }
+
+    static Field createUnresolvedIssueKeyField(String issueKey) {
+        return new Field(FIELD_UNRESOLVED_ISSUEKEY, issueKey, Field.Store.YES, Field.Index.NOT_ANALYZED);
+    }
+
     private void initializeLatestIndexedRevisionCache() {
         Collection<SubversionManager> repositories = multipleSubversionRepositoryManager.getRepositoryList();
 
@@ -163,114 +610,1160 @@ public class RevisionIndexer {
         }
     }
 
-    public String getIndexPath() {
-        String indexPath = null;
-        String rootIndexPath = indexPathManager.getPluginIndexRootPath();
-        if (rootIndexPath != null) {
-            indexPath = rootIndexPath + System.getProperty("file.separator") + REVISIONS_INDEX_DIRECTORY;
-        } else {
-            log.warn("At the moment the root index path of jira is not set, so we can not form an index path for the subversion plugin.");
+    public String getIndexPath() {
+        String indexPath = null;
+        String rootIndexPath = indexPathManager.getPluginIndexRootPath();
+        if (rootIndexPath != null) {
+            indexPath = getIndexPath(rootIndexPath, getIndexDirectory(rootIndexPath));
+        } else {
+            log.warn("At the moment the root index path of jira is not set, so we can not form an index path for the subversion plugin.");
+        }
+
+        return indexPath;
+    }
+
+    private static String getIndexPath(String rootIndexPath, String directory) {
+        return rootIndexPath + System.getProperty("file.separator") + directory;
+    }
+
+    /**
+     * @return the name of the directory of the current index, as recorded in {@link #CURRENT_INDEX_FILE}.
+     */
+    private String getIndexDirectory(String rootIndexPath) {
+        final IndexDirectory cached = indexDirectory;
+        if (cached != null && cached.rootIndexPath.equals(rootIndexPath)) {
+            return cached.name;
+        }
+
+        String name = REVISIONS_INDEX_DIRECTORY;
+        final File current = new File(rootIndexPath, CURRENT_INDEX_FILE);
+        if (current.isFile()) {
+            try {
+                final String recorded = Files.toString(current, Charsets.UTF_8).trim();
+                if (recorded.startsWith(REVISIONS_INDEX_DIRECTORY) && new File(recorded).getName().equals(recorded)) {
+                    name = recorded;
+                } else {
+                    log.warn("Ignoring " + current + ", which does not name a revision index.");
+                }
+            } catch (IOException e) {
+                log.warn("Unable to read " + current + ", using the revision index in " + name, e);
+                return name;
+            }
+        }
+        indexDirectory = new IndexDirectory(rootIndexPath, name);
+        return name;
+    }
+
+    /**
+     * Makes the index in the given directory the current one. The name is written to a temporary file first and
+     * renamed over {@link #CURRENT_INDEX_FILE}, so the file always names a complete index.
+     */
+    private void setIndexDirectory(String rootIndexPath, String name) throws IOException {
+        final File current = new File(rootIndexPath, CURRENT_INDEX_FILE);
+        final File written = new File(rootIndexPath, CURRENT_INDEX_FILE + ".tmp");
+        Files.write(name, written, Charsets.UTF_8);
+        if (!written.renameTo(current)) {
+            // some platforms do not rename over an existing file
+            if (!current.delete() || !written.renameTo(current)) {
+                throw new IOException("Unable to write " + current);
+            }
+        }
+        indexDirectory = new IndexDirectory(rootIndexPath, name);
+    }
+
+    /**
+     * Deletes the indexes next to the current one, left behind by a rebuild that was interrupted or whose previous
+     * index could not be deleted at the time.
+     */
+    private void deleteStaleIndexes() {
+        final String rootIndexPath = indexPathManager.getPluginIndexRootPath();
+        if (rootIndexPath == null) {
+            return;
+        }
+        final String current = getIndexDirectory(rootIndexPath);
+        if (current.equals(REVISIONS_INDEX_DIRECTORY) && new File(rootIndexPath, CURRENT_INDEX_FILE).exists()) {
+            // the current index could not be told from the file, so better keep them all
+            return;
+        }
+        final File[] stale = new File(rootIndexPath).listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                final String name = file.getName();
+                return file.isDirectory() && !name.equals(current)
+                        && (name.equals(REVISIONS_INDEX_DIRECTORY) || name.startsWith(REVISIONS_INDEX_DIRECTORY + "-"));
+            }
+        });
+        if (stale != null) {
+            for (File directory : stale) {
+                log.info("Deleting the revision index " + directory + " left behind by a rebuild");
+                try {
+                    indexAccessor.deleteIndex(directory.getPath());
+                } catch (IOException e) {
+                    log.warn("Unable to delete the revision index " + directory, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * The directory of the current index under a plugin index root.
+     */
+    private static final class IndexDirectory {
+        private final String rootIndexPath;
+        private final String name;
+
+        IndexDirectory(String rootIndexPath, String name) {
+            this.rootIndexPath = rootIndexPath;
+            this.name = name;
+        }
+    }
+
+    /**
+     * This method updates the index, creating it if it does not already exist. The repositories are indexed in
+     * parallel by the indexing pool, all feeding the same {@link IndexWriter}, so a slow repository does not hold
+     * up the others. A node that copies the index from the snapshots another node publishes copies the latest one
+     * instead, without asking the repositories.
+     *
+     * @throws IndexException if there is some problem in the indexing subsystem meaning indexes cannot be updated.
+     */
+    public void updateIndex() throws IndexException, IOException {
+        if (isReplica()) {
+            updateReplica();
+        } else if (createIndexIfNeeded()) {
+            upgradeIndexIfNeeded();
+            final Collection<SubversionManager> repositories = multipleSubversionRepositoryManager.getRepositoryList();
+
+            // temp log comment
+            if (log.isDebugEnabled())
+                log.debug("Number of repositories: " + repositories.size());
+
+            runPass(new PassWork() {
+                @Override
+                public void run(final IndexingPass pass) throws InterruptedException {
+                    final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(repositories.size());
+                    for (final SubversionManager subversionManager : repositories) {
+                        tasks.add(new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                pass.index(subversionManager, null, null);
+                                return null;
+                            }
+                        });
+                    }
+                    indexingExecutor.invokeAll(tasks);
+                }
+            });
+        }
+    }
+
+    /**
+     * Indexes the given revisions of a repository in the background, without looking at any other repository.
+     * This is what a post-commit hook asks for, so a commit shows up in the issue tabs right after it has been made.
+     * The checkpoint of the repository only moves if the revisions follow on from it; any gap is left to
+     * {@link #updateIndex()}.
+     *
+     * @param subversionManager the repository.
+     * @param fromRevision      the first revision to index.
+     * @param toRevision        the last revision to index.
+     * @return the pending indexing.
+     */
+    public Future<?> indexRevisions(SubversionManager subversionManager, long fromRevision, long toRevision) {
+        return submitRepository(subversionManager, fromRevision, toRevision);
+    }
+
+    /**
+     * Indexes a repository in the background, from its checkpoint up to the given revision. Used by the
+     * {@link RepositoryPollScheduler} once it has seen the repository move on.
+     *
+     * @param subversionManager the repository.
+     * @param latestRevision    the latest revision of the repository, as just retrieved.
+     * @return the pending indexing.
+     */
+    public Future<?> updateRepository(SubversionManager subversionManager, long latestRevision) {
+        return submitRepository(subversionManager, null, latestRevision);
+    }
+
+    /**
+     * Indexes a repository again from scratch in the background. Its shard is dropped and its revisions are indexed
+     * into a new one, while the revisions of the other repositories stay searchable.
+     *
+     * @param subversionManager the repository.
+     * @return the pending indexing.
+     */
+    public Future<?> reindexRepository(final SubversionManager subversionManager) {
+        return repositoryExecutor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws IOException, IndexException, SVNException {
+                removeEntries(subversionManager.getId());
+                indexRepository(subversionManager, null, null);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the whole index in the background from the logs of the repositories, without taking the current
+     * index offline. The revisions are scanned into a shadow index next to the current one, while queries and
+     * indexing carry on with the current one. Once the scan is through, indexing is held up while the shadow index
+     * catches up with the revisions committed in the meantime; then it replaces the current index, which is
+     * deleted.
+     *
+     * @return the progress of the rebuild, or of the rebuild already running.
+     */
+    public IndexRebuildProgress rebuildIndex() {
+        final IndexRebuildProgress progress = new IndexRebuildProgress(System.currentTimeMillis());
+        IndexRebuildProgress running;
+        do {
+            running = rebuildProgress.get();
+            if (running != null && !running.isFinished()) {
+                return running;
+            }
+        } while (!rebuildProgress.compareAndSet(running, progress));
+
+        rebuildExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    rebuild(progress);
+                    progress.completed(System.currentTimeMillis());
+                    log.info("Rebuilt the revision index: " + progress);
+                } catch (IOException e) {
+                    progress.failed(System.currentTimeMillis(), e);
+                    log.error("Unable to rebuild the revision index.", e);
+                } catch (RuntimeException e) {
+                    progress.failed(System.currentTimeMillis(), e);
+                    log.error("Unable to rebuild the revision index.", e);
+                } catch (InterruptedException e) {
+                    progress.failed(System.currentTimeMillis(), e);
+                    log.warn("Interrupted while rebuilding the revision index.");
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return progress;
+    }
+
+    /**
+     * @return the progress of the latest rebuild, or <tt>null</tt> if there has been none since startup.
+     */
+    public IndexRebuildProgress getRebuildProgress() {
+        return rebuildProgress.get();
+    }
+
+    private void rebuild(IndexRebuildProgress progress) throws IOException, InterruptedException {
+        final String rootIndexPath = indexPathManager.getPluginIndexRootPath();
+        if (rootIndexPath == null) {
+            throw new IOException("The root index path of JIRA is not set");
+        }
+        if (isReplica()) {
+            throw new IOException("The revision index is copied from the node publishing it, it can only be rebuilt there");
+        }
+        final String shadowDirectory = REVISIONS_INDEX_DIRECTORY + "-" + progress.getStartTime();
+        final String shadowPath = getIndexPath(rootIndexPath, shadowDirectory);
+        log.info("Rebuilding the revision index in " + shadowPath);
+
+        // the revision each repository has been scanned up to
+        final Map<Long, Long> scanned = new HashMap<Long, Long>();
+        final IndexingPipeline pipeline = new IndexingPipeline(extractionExecutor, indexingQueueSize);
+        boolean replaced = false;
+        try {
+            indexAccessor.getSharedIndexWriter(shadowPath, ANALYZER);
+
+            final Map<SubversionManager, Long> repositories = new LinkedHashMap<SubversionManager, Long>();
+            for (SubversionManager repository : multipleSubversionRepositoryManager.getRepositoryList()) {
+                if (activate(repository)) {
+                    final long latestRevision = repository.getLatestRevision();
+                    repositories.put(repository, latestRevision);
+                    progress.repositoryAdded(latestRevision);
+                }
+            }
+            for (Map.Entry<SubversionManager, Long> repository : repositories.entrySet()) {
+                rebuildRepository(pipeline, shadowPath, repository.getKey(), null, repository.getValue(), scanned, progress);
+                progress.repositoryDone();
+            }
+
+            writeLock.lock();
+            try {
+                progress.swapping();
+                final Map<String, String> userData = new HashMap<String, String>();
+                userData.put(FORMAT_KEY, Integer.toString(FORMAT));
+                final Set<String> shards = new HashSet<String>();
+                for (SubversionManager repository : multipleSubversionRepositoryManager.getRepositoryList()) {
+                    final long repoId = repository.getId();
+                    shards.add(getShardPath(shadowPath, repoId));
+                    // the repositories that failed, or were added meanwhile, are indexed once the new index is in use
+                    if (scanned.containsKey(repoId) && activate(repository)) {
+                        rebuildRepository(pipeline, shadowPath, repository, scanned.get(repoId), repository.getLatestRevision(), scanned, progress);
+                    }
+                    if (scanned.containsKey(repoId)) {
+                        userData.put(CHECKPOINT_PREFIX + repoId, Long.toString(scanned.get(repoId)));
+                    }
+                }
+                // the repositories removed while the rebuild ran
+                for (File shard : listShards(shadowPath)) {
+                    if (!shards.contains(shard.getPath())) {
+                        indexAccessor.deleteIndex(shard.getPath());
+                    }
+                }
+                indexAccessor.commit(shadowPath, userData);
+
+                replaceIndex(rootIndexPath, shadowDirectory);
+                replaced = true;
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            try {
+                pipeline.close();
+            } finally {
+                if (!replaced) {
+                    indexAccessor.deleteIndex(shadowPath);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the index in the given directory the current one and deletes the previous one. The next query opens the
+     * new index.
+     */
+    private void replaceIndex(String rootIndexPath, String directory) throws IOException {
+        final String previousPath;
+        synchronized (commitLock) {
+            previousPath = getIndexPath();
+            setIndexDirectory(rootIndexPath, directory);
+            committedUserData = null;
+            uncommittedDocuments.set(0);
+            initializeLatestIndexedRevisionCache();
+            publishPending = true;
+        }
+        resolveCursor = "";
+        permissionFilterCache.invalidateAll();
+        log.info("Replaced the revision index in " + previousPath + " with " + getIndexPath(rootIndexPath, directory));
+        try {
+            // queries still running on the previous index keep its files open until they finish
+            indexAccessor.deleteIndex(previousPath);
+        } catch (IOException e) {
+            // deleted on the next start
+            log.warn("Unable to delete the revision index " + previousPath, e);
+        }
+    }
+
+    /**
+     * Scans the log of a repository into its shard of the shadow index. A repository that fails is left out of the
+     * shadow index, to be indexed from scratch once the shadow index has replaced the current one. That includes a
+     * repository whose log fails part way through a window, or that is deactivated meanwhile, as either would leave
+     * a gap in its shard.
+     *
+     * @param fromRevision the revision the repository has been scanned up to, or <tt>null</tt> to start afresh.
+     */
+    private void rebuildRepository(IndexingPipeline pipeline, String shadowPath, SubversionManager repository, Long fromRevision, long toRevision,
+                                   Map<Long, Long> scanned, final IndexRebuildProgress progress) throws IOException, InterruptedException {
+        final long repoId = repository.getId();
+        final String shardPath = getShardPath(shadowPath, repoId);
+        try {
+            if (fromRevision == null) {
+                // drops whatever an attempt that failed half way left behind
+                indexAccessor.deleteIndex(shardPath);
+            }
+            final IndexWriter writer = indexAccessor.getSharedIndexWriter(shardPath, ANALYZER);
+            final IndexingPipeline.Session session = pipeline.openSession("rebuild of repository=" + repoId);
+            final SvnEntryHandler handler = new SvnEntryHandler() {
+                @Override
+                public void handle(final SVNLogEntry logEntry) {
+                    try {
+                        session.submit(new Callable<Document>() {
+                            @Override
+                            public Document call() {
+                                return createDocument(repoId, logEntry);
+                            }
+                        }, new IndexingPipeline.Writer<Document>() {
+                            @Override
+                            public void write(Document doc) throws IOException {
+                                if (doc != null) {
+                                    writer.addDocument(doc);
+                                    progress.documentIndexed();
+                                }
+                            }
+                        });
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+
+            long windowStart = fromRevision != null ? fromRevision : NO_REVISION;
+            while (windowStart < toRevision) {
+                final long windowEnd = Math.min(windowStart + indexingWindow, toRevision);
+                repository.getLogEntries(windowStart, windowEnd, handler);
+                if (!repository.isActive()) {
+                    // nothing is retrieved from an inactive repository
+                    throw new IOException("The repository has been deactivated while retrieving the revisions after " + windowStart);
+                }
+                session.flush();
+                progress.revisionsScanned(windowEnd - windowStart);
+                windowStart = windowEnd;
+            }
+            scanned.put(repoId, toRevision);
+        } catch (IOException e) {
+            leaveOutRepository(shardPath, repository, scanned, progress, e);
+        } catch (SVNException e) {
+            leaveOutRepository(shardPath, repository, scanned, progress, e);
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            leaveOutRepository(shardPath, repository, scanned, progress, e);
+        }
+    }
+
+    private void leaveOutRepository(String shardPath, SubversionManager repository, Map<Long, Long> scanned,
+                                    IndexRebuildProgress progress, Exception e) throws IOException {
+        log.warn("Unable to rebuild the index of repository '" + repository.getDisplayName() + "', it is indexed from scratch once the new index is in use", e);
+        scanned.remove(repository.getId());
+        progress.repositoryFailed(repository.getDisplayName(), e);
+        indexAccessor.deleteIndex(shardPath);
+    }
+
+    /**
+     * @return whether the repository is active, after trying to activate it if it was not.
+     */
+    private static boolean activate(SubversionManager repository) {
+        if (!repository.isActive()) {
+            repository.activate();
+        }
+        return repository.isActive();
+    }
+
+    private Future<?> submitRepository(final SubversionManager subversionManager, final Long fromRevision, final Long toRevision) {
+        return repositoryExecutor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws IOException {
+                indexRepository(subversionManager, fromRevision, toRevision);
+                return null;
+            }
+        });
+    }
+
+    private void indexRepository(final SubversionManager subversionManager, final Long fromRevision, final Long toRevision) throws IOException {
+        if (isReplica()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Leaving repository=" + subversionManager.getId() + " to the node publishing the revision index");
+            }
+        } else if (createIndexIfNeeded()) {
+            upgradeIndexIfNeeded();
+            runPass(new PassWork() {
+                @Override
+                public void run(IndexingPass pass) {
+                    pass.index(subversionManager, fromRevision, toRevision);
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts polling each repository for new revisions on its own schedule. When the index is replicated, the
+     * snapshots of the index are published on a schedule as well, or only they are copied on a node that does not
+     * publish the index, which does not poll the repositories until it is made to publish it.
+     */
+    public void startPolling() {
+        polling = true;
+        if (replicator != null) {
+            startReplication();
+        }
+        if (!isReplica()) {
+            pollScheduler.start();
+        }
+    }
+
+    /**
+     * @return whether the index is copied from the snapshots another node publishes, rather than indexed here.
+     */
+    public boolean isReplica() {
+        return replicator != null && !publishing;
+    }
+
+    /**
+     * @return whether the index is replicated and the node publishing it is to be elected among the nodes, rather
+     * than set by <tt>jira.plugins.subversion.replication.publish</tt>.
+     */
+    public boolean isElectingPublisher() {
+        return electingPublisher;
+    }
+
+    /**
+     * Makes this node the one that polls the repositories and publishes the index, or one that copies the snapshots
+     * another node publishes. A node taking over first copies the latest snapshot, so it carries on from the
+     * revisions published by the previous one. A node stepping down copies the whole snapshot on its next update,
+     * as the index it wrote may have more than was published.
+     */
+    public void setPublishing(boolean publishing) {
+        if (replicator == null) {
+            return;
+        }
+        synchronized (replicationLock) {
+            if (this.publishing == publishing) {
+                return;
+            }
+            if (publishing) {
+                try {
+                    updateReplica();
+                } catch (IOException e) {
+                    log.warn("Unable to copy the latest revision index from " + replicator.getSharedDirectory() + ", indexing from the local copy", e);
+                }
+                if (indexDirectoryExists()) {
+                    try {
+                        IndexReplicator.detach(getIndexPath());
+                    } catch (IOException e) {
+                        log.warn("Unable to detach the revision index from " + replicator.getSharedDirectory(), e);
+                    }
+                }
+                synchronized (commitLock) {
+                    committedUserData = null;
+                    initializeLatestIndexedRevisionCache();
+                    publishPending = true;
+                }
+            }
+            this.publishing = publishing;
+        }
+        log.info(publishing ? "Indexing the repositories and publishing the revision index to " + replicator.getSharedDirectory()
+                : "Copying the revision index published by another node to " + replicator.getSharedDirectory());
+        if (polling) {
+            if (publishing) {
+                pollScheduler.start();
+            } else {
+                pollScheduler.stop();
+            }
+        }
+    }
+
+    /**
+     * Told on the replication thread each time this node has published a snapshot of the index.
+     */
+    public interface PublishListener {
+        void published(long generation);
+    }
+
+    public void setPublishListener(PublishListener publishListener) {
+        this.publishListener = publishListener;
+    }
+
+    /**
+     * The leadership of a node elected to publish the index. {@link #setPublishing(boolean)} is told of a change of
+     * leader some time after it happened, so the lease is confirmed again before each snapshot is published.
+     */
+    public interface PublisherLease {
+        /**
+         * @return the id of this node, recorded in the snapshots it publishes.
+         */
+        String getNodeId();
+
+        /**
+         * Confirms with the rest of the cluster that this node still publishes the index.
+         *
+         * @return the term of the election this node won, or <tt>-1</tt> if it no longer leads.
+         */
+        long confirm();
+    }
+
+    public void setPublisherLease(PublisherLease publisherLease) {
+        this.publisherLease = publisherLease;
+    }
+
+    /**
+     * Copies the latest snapshot published by another node right away, rather than on the next check. Does nothing
+     * unless the node copies the index.
+     */
+    public void copyPublishedIndex() throws IOException {
+        if (isReplica()) {
+            updateReplica();
+        }
+    }
+
+    private synchronized void startReplication() {
+        if (replicationExecutor != null) {
+            return;
+        }
+        replicationExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "subversion-index-replication");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        replicationExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (isReplica()) {
+                        updateReplica();
+                    } else {
+                        publishIndex();
+                    }
+                } catch (IOException e) {
+                    log.warn("Unable to replicate the revision index through " + replicator.getSharedDirectory(), e);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to replicate the revision index through " + replicator.getSharedDirectory(), e);
+                }
+            }
+        }, replicationInterval, replicationInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the replication executor that has been shut down, or <tt>null</tt> if the index was not replicated.
+     */
+    private synchronized ExecutorService stopReplication() {
+        final ExecutorService stopped = replicationExecutor;
+        if (stopped != null) {
+            stopped.shutdownNow();
+            replicationExecutor = null;
+        }
+        return stopped;
+    }
+
+    /**
+     * Publishes a snapshot of the index to the other nodes, unless it has not been committed since the last one. The
+     * latest commits of the index and its shards are held while their files are copied, so the writers carry on
+     * meanwhile without deleting them. The publish listener is told once the snapshot has been published.
+     */
+    void publishIndex() throws IOException {
+        if (replicator == null || !publishPending || !indexDirectoryExists()) {
+            return;
+        }
+        final long generation;
+        synchronized (replicationLock) {
+            if (isReplica()) {
+                // stepped down meanwhile, the index may be behind the one published by the node that took over
+                return;
+            }
+            final String indexPath;
+            final Map<String, IndexCommit> commits;
+            synchronized (commitLock) {
+                publishPending = false;
+                indexPath = getIndexPath();
+                // no commit is made while the snapshot is taken, so the commits of the shards match the checkpoints
+                commits = indexAccessor.snapshot(indexPath, ANALYZER, REPLICATION_SNAPSHOT);
+            }
+            try {
+                final int copied = replicator.publish(indexPath, commits, publisherLease);
+                if (log.isDebugEnabled()) {
+                    log.debug("Published the revision index to " + replicator.getSharedDirectory() + ", " + copied + " files copied");
+                }
+                generation = replicator.getPublished().getGeneration();
+            } catch (IOException e) {
+                publishPending = true;
+                throw e;
+            } finally {
+                indexAccessor.releaseSnapshot(indexPath, REPLICATION_SNAPSHOT);
+            }
+        }
+        final PublishListener listener = publishListener;
+        if (listener != null) {
+            listener.published(generation);
+        }
+    }
+
+    /**
+     * Copies the files of the latest snapshot published by another node that the index does not have yet, and makes
+     * the next query see them. An index that cannot be brought up to the snapshot by adding files, as after the
+     * index has been rebuilt on the publishing node, is replaced by a copy of the whole snapshot.
+     */
+    private void updateReplica() throws IOException {
+        synchronized (replicationLock) {
+            final String rootIndexPath = indexPathManager.getPluginIndexRootPath();
+            final IndexReplicator.Manifest published = replicator.getPublished();
+            if (rootIndexPath == null || published == null) {
+                return;
+            }
+            final String indexPath = getIndexPath();
+            final IndexReplicator.Manifest replica = IndexReplicator.getReplica(indexPath);
+            if (IndexReplicator.isStale(published, replica)) {
+                log.warn("Ignoring generation " + published.getGeneration() + " of the revision index, published in term "
+                        + published.getTerm() + " by a node that is no longer elected");
+                return;
+            }
+            if (IndexReplicator.canUpdate(replica, published)) {
+                if (replica.getFiles().equals(published.getFiles())) {
+                    return;
+                }
+                for (String shard : replicator.pull(published, replica, indexPath)) {
+                    indexAccessor.deleteIndex(shard);
+                }
+                synchronized (commitLock) {
+                    committedUserData = null;
+                }
+                indexAccessor.invalidateSearcher(indexPath);
+            } else {
+                final String directory = REVISIONS_INDEX_DIRECTORY + "-" + System.currentTimeMillis();
+                final String replicaPath = getIndexPath(rootIndexPath, directory);
+                log.info("Copying generation " + published.getGeneration() + " of the revision index from "
+                        + replicator.getSharedDirectory() + " to " + replicaPath);
+                boolean replaced = false;
+                try {
+                    replicator.pull(published, null, replicaPath);
+                    // an indexing pass still running since the node stepped down finishes before its index goes
+                    writeLock.lock();
+                    try {
+                        replaceIndex(rootIndexPath, directory);
+                    } finally {
+                        writeLock.unlock();
+                    }
+                    replaced = true;
+                } finally {
+                    if (!replaced) {
+                        indexAccessor.deleteIndex(replicaPath);
+                    }
+                }
+            }
+        }
+    }
+
+    private interface PassWork {
+        void run(IndexingPass pass) throws InterruptedException;
+    }
+
+    /**
+     * Runs an indexing pass on the shared writers. Passes run alongside each other, so a push does not wait for a
+     * sweep of all repositories, but not alongside anything replacing or rewriting the index. Whatever the pass
+     * leaves uncommitted is committed at its end.
+     */
+    private void runPass(PassWork work) throws IOException {
+        passLock.lock();
+        try {
+            // the writer of the index itself commits the checkpoints
+            indexAccessor.getSharedIndexWriter(getIndexPath(), ANALYZER);
+            try {
+                final IndexingPass pass = new IndexingPass();
+                try {
+                    work.run(pass);
+                } finally {
+                    pass.close();
+                }
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the repositories to be indexed.");
+                Thread.currentThread().interrupt();
+            } finally {
+                commitPending();
+            }
+        } finally {
+            passLock.unlock();
+        }
+    }
+
+    private Lock getRepositoryLock(long repoId) {
+        final Lock lock = repositoryLocks.get(repoId);
+        if (lock != null) {
+            return lock;
+        }
+        final Lock created = new ReentrantLock();
+        final Lock existing = repositoryLocks.putIfAbsent(repoId, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * Shuts down the indexing pool. Repositories being indexed are interrupted; whatever has been scanned so far
+     * is committed by the running {@link #updateIndex()}. The index is only closed once the indexing threads have
+     * finished, or after {@link #STOP_TIMEOUT} milliseconds, so none of them is left writing to a closed index.
+     */
+    public void stop() {
+        pollScheduler.stop();
+        final ExecutorService replication = stopReplication();
+        repositoryExecutor.shutdownNow();
+        rebuildExecutor.shutdownNow();
+        indexingExecutor.shutdownNow();
+        extractionExecutor.shutdownNow();
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT);
+        boolean locked = false;
+        try {
+            for (ExecutorService executor : Arrays.asList(replication, repositoryExecutor, rebuildExecutor, indexingExecutor, extractionExecutor)) {
+                if (executor != null && !executor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    log.warn("The Subversion indexing threads have not finished in " + STOP_TIMEOUT + " ms, closing the revision index anyway.");
+                }
+            }
+            // an update running on the caller's thread holds it until its writer thread has been joined
+            locked = writeLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (!locked) {
+                log.warn("The update of the revision index has not finished in " + STOP_TIMEOUT + " ms, closing the revision index anyway.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            try {
+                if (hasCommitted()) {
+                    commitPending();
+                }
+            } catch (IOException e) {
+                log.warn("Unable to commit the revision index.", e);
+            } catch (RuntimeException e) {
+                log.warn("Unable to commit the revision index.", e);
+            }
+            try {
+                indexAccessor.close();
+            } catch (IOException e) {
+                log.warn("Unable to close the revision index.", e);
+            }
+        } finally {
+            if (locked) {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the flushes, merges and commits of the index writer so far.
+     */
+    public IndexWriterMetrics getWriterMetrics() {
+        return indexAccessor.getWriterMetrics();
+    }
+
+    /**
+     * One run of {@link #updateIndex()} or {@link #indexRevisions}: the pipeline feeding the shared writers of the
+     * repository shards.
+     * <p>
+     * The thread retrieving the log of a repository only submits its entries to the pipeline. Documents are built
+     * by the extraction pool, while a single writer thread adds them to the index and advances the checkpoint in
+     * revision order.
+     */
+    private class IndexingPass {
+        private final IndexingPipeline pipeline;
+        // the repositories with documents added by this pass since it last committed them
+        private final Set<Long> writtenRepositories = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+        IndexingPass() {
+            this.pipeline = new IndexingPipeline(extractionExecutor, indexingQueueSize);
+        }
+
+        void close() throws InterruptedException {
+            pipeline.close();
+        }
+
+        /**
+         * Indexes a repository, from its checkpoint to its latest revision unless a range is given. Another pass
+         * indexing the same repository is waited for.
+         *
+         * @param fromRevision the first revision to index, or <tt>null</tt> to continue from the checkpoint.
+         * @param toRevision   the last revision to index, or <tt>null</tt> for the latest revision.
+         */
+        void index(final SubversionManager subversionManager, Long fromRevision, Long toRevision) {
+            final Lock repositoryLock = getRepositoryLock(subversionManager.getId());
+            try {
+                repositoryLock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting to index repository '" + subversionManager.getDisplayName() + "'");
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                scan(subversionManager, fromRevision, toRevision);
+                // the next pass indexing the repository only skips the revisions committed to its shard
+                if (writtenRepositories.remove(subversionManager.getId())) {
+                    commitPending();
+                }
+            } catch (IOException e) {
+                log.warn("Unable to commit the revisions of repository '" + subversionManager.getDisplayName() + "'", e);
+            } finally {
+                repositoryLock.unlock();
+            }
+        }
+
+        private void scan(final SubversionManager subversionManager, Long fromRevision, Long toRevision) {
+            try {
+                // if the repository isn't active, try activating it. if it still not accessible, skip it
+                if (!subversionManager.isActive()) {
+                    subversionManager.activate();
+
+                    if (!subversionManager.isActive()) {
+                        return;
+                    }
+                }
+
+                final long repoId = subversionManager.getId();
+                final long latestIndexedRevision;
+
+                final Long tmpLatestIndexedRevision = getLatestIndexedRevision(repoId);
+                if (tmpLatestIndexedRevision != null) {
+                    if (NOT_INDEXED.equals(tmpLatestIndexedRevision)) {
+                        final Long checkpoint = getCheckpoint(repoId);
+                        latestIndexedRevision = checkpoint != null ? checkpoint : updateLastRevisionIndexed(repoId);
+                    } else {
+                        latestIndexedRevision = tmpLatestIndexedRevision;
+                    }
+                } else {
+                    // no latestIndexedRevision, no need to update? This probably means
+                    // that the repository have been removed from the file system
+                    log.warn("Did not update index because null value in hash table for " + repoId);
+                    return;
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Updating revision index for repository=" + repoId);
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Latest indexed revision for repository=" + repoId + " is : " + latestIndexedRevision);
+                }
+
+                // a range only moves the checkpoint if it leaves no gap after it
+                final long firstWindowStart = fromRevision != null ? fromRevision - 1 : latestIndexedRevision;
+                final boolean advanceCheckpoint = firstWindowStart <= latestIndexedRevision;
+
+                final IndexingPipeline.Session session = pipeline.openSession("repository=" + repoId);
+                final RepositoryWriter repositoryWriter = new RepositoryWriter(repoId, advanceCheckpoint);
+                final SvnEntryHandler handler = new SvnEntryHandler() {
+                    @Override
+                    public void handle(final SVNLogEntry logEntry) {
+                        try {
+                            session.submit(new Callable<Document>() {
+                                @Override
+                                public Document call() {
+                                    return createDocument(repoId, logEntry);
+                                }
+                            }, new IndexingPipeline.Writer<Document>() {
+                                @Override
+                                public void write(Document doc) throws IOException {
+                                    repositoryWriter.write(logEntry.getRevision(), doc);
+                                }
+                            });
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+
+                // retrieve the log in windows, so the server never sees one huge request; commits are made as
+                // documents pile up or time passes, and an interrupted import resumes from the last one
+                final long latestRevision = toRevision != null ? toRevision : subversionManager.getLatestRevision();
+                long windowStart = firstWindowStart;
+                while (windowStart < latestRevision && subversionManager.isActive()) {
+                    final long windowEnd = Math.min(windowStart + indexingWindow, latestRevision);
+                    if (log.isDebugEnabled()) {
+                        log.debug("Indexing repository=" + repoId + " from revision " + windowStart + " to " + windowEnd);
+                    }
+                    try {
+                        subversionManager.getLogEntries(windowStart, windowEnd, handler);
+                    } finally {
+                        try {
+                            session.flush();
+                        } finally {
+                            // retrieval may have failed half way, the checkpoint covers whatever has been written
+                            maybeCommit();
+                        }
+                    }
+                    windowStart = windowEnd;
+                }
+            } catch (IOException e) {
+                log.warn("Unable to index repository '" + subversionManager.getDisplayName() + "'", e);
+            } catch (SVNException e) {
+                // the windows after the one that failed are left to the next run, so no revision is skipped
+                log.warn("Unable to retrieve the log of repository '" + subversionManager.getDisplayName() + "'", e);
+            } catch (IndexException e) {
+                log.warn("Unable to index repository '" + subversionManager.getDisplayName() + "'", e);
+            } catch (RuntimeException e) {
+                log.warn("Unable to index repository '" + subversionManager.getDisplayName() + "'", e);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while indexing repository '" + subversionManager.getDisplayName() + "'");
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Writes the documents of one repository. Only used by the writer thread of the pipeline.
+         */
+        private class RepositoryWriter {
+            private final long repoId;
+            private final boolean advanceCheckpoint;
+            // loaded on the first matching entry, so polls without new commits stay cheap
+            private BitSet indexedRevisions;
+            private IndexWriter writer;
+
+            RepositoryWriter(long repoId, boolean advanceCheckpoint) {
+                this.repoId = repoId;
+                this.advanceCheckpoint = advanceCheckpoint;
+            }
+
+            void write(long revision, Document doc) throws IOException {
+                if (doc != null) {
+                    if (indexedRevisions == null) {
+                        writer = indexAccessor.getSharedIndexWriter(getShardPath(repoId), ANALYZER);
+                        indexedRevisions = getIndexedRevisions(repoId, writer.getDirectory());
+                    }
+                    if (!indexedRevisions.get((int) revision)) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Indexing repository=" + repoId + ", revision: " + revision);
+                        }
+                        writer.addDocument(doc);
+                        uncommittedDocuments.incrementAndGet();
+                        indexedRevisions.set((int) revision);
+                        writtenRepositories.add(repoId);
+                    }
+                }
+                final Long latestIndexedRevision = latestIndexedRevisionTbl.get(repoId);
+                if (advanceCheckpoint && latestIndexedRevision != null && revision > latestIndexedRevision) {
+                    // update the in-memory cache SVN-71
+                    latestIndexedRevisionTbl.put(repoId, revision);
+                }
+                maybeCommit();
+            }
+        }
+    }
+
+    /**
+     * Commits if enough documents have been added or enough time has passed since the last commit.
+     */
+    private void maybeCommit() throws IOException {
+        if (uncommittedDocuments.get() >= commitDocuments || System.currentTimeMillis() - lastCommit >= commitInterval) {
+            commitPending();
+        }
+    }
+
+    /**
+     * Commits the documents added so far, unless neither they nor the checkpoints have changed since the last commit.
+     * The checkpoints are read after the documents have been added, so a checkpoint never covers a document that is
+     * not part of the commit.
+     */
+    private void commitPending() throws IOException {
+        synchronized (commitLock) {
+            final Map<String, String> previous = getCommittedUserData();
+            final int documents = uncommittedDocuments.get();
+            final Map<String, String> userData = createCommitUserData(previous);
+            if (documents == 0 && userData.equals(previous)) {
+                lastCommit = System.currentTimeMillis();
+                return;
+            }
+            commit(previous, userData);
+            uncommittedDocuments.addAndGet(-documents);
+        }
+    }
+
+    private boolean hasCommitted() {
+        synchronized (commitLock) {
+            return committedUserData != null;
+        }
+    }
+
+    /**
+     * Must be called holding the commit lock.
+     */
+    private Map<String, String> getCommittedUserData() throws IOException {
+        if (committedUserData == null) {
+            committedUserData = indexAccessor.getCommitUserData(getIndexPath());
+        }
+        return committedUserData;
+    }
+
+    /**
+     * Reads the durable checkpoint of a repository from the commit user data of the index. This only reads the
+     * segments file, so it is cheap compared to searching for the last indexed revision.
+     *
+     * @param repoId ID of the repository.
+     * @return The last revision scanned in the repository, or <tt>null</tt> if there is no checkpoint for it.
+     */
+    private Long getCheckpoint(long repoId) {
+        try {
+            final String checkpoint = indexAccessor.getCommitUserData(getIndexPath()).get(CHECKPOINT_PREFIX + repoId);
+            if (checkpoint != null) {
+                final long revision = Long.parseLong(checkpoint);
+                if (log.isDebugEnabled()) {
+                    log.debug("Resuming repository=" + repoId + " from checkpoint " + revision);
+                }
+                latestIndexedRevisionTbl.put(repoId, revision);
+                return revision;
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the indexing checkpoint for repository=" + repoId + ", falling back to the index.", e);
+        } catch (NumberFormatException e) {
+            log.warn("Ignoring invalid indexing checkpoint for repository=" + repoId, e);
+        }
+        return null;
+    }
+
+    /**
+     * Builds the commit user data for the next commit: the previous data overlaid with the revisions scanned so far.
+     * Repositories that have not been scanned since startup keep their previous checkpoint.
+     */
+    private Map<String, String> createCommitUserData(Map<String, String> previous) {
+        final Map<String, String> userData = new HashMap<String, String>();
+        if (previous != null) {
+            userData.putAll(previous);
+        }
+        for (Map.Entry<Long, Long> entry : latestIndexedRevisionTbl.entrySet()) {
+            if (!NOT_INDEXED.equals(entry.getValue())) {
+                userData.put(CHECKPOINT_PREFIX + entry.getKey(), Long.toString(entry.getValue()));
+            }
+        }
+        return userData;
+    }
+
+    /**
+     * Commits the pending changes of the shared writers together with the given checkpoints. Must be called holding
+     * the commit lock.
+     */
+    private void commit(Map<String, String> previous, Map<String, String> userData) throws IOException {
+        final IndexWriter writer = indexAccessor.getSharedIndexWriter(getIndexPath(), ANALYZER);
+        if (!userData.equals(previous)) {
+            final Document marker = new Document();
+            marker.add(new Field(FIELD_CHECKPOINT, FIELD_CHECKPOINT, Field.Store.NO, Field.Index.NOT_ANALYZED));
+            writer.addDocument(marker);
+            writer.deleteDocuments(CHECKPOINT_MARKER);
+        }
+        indexAccessor.commit(getIndexPath(), userData);
+        committedUserData = userData;
+        lastCommit = System.currentTimeMillis();
+        publishPending = true;
+        if (log.isDebugEnabled()) {
+            log.debug("Committed the revision index: " + indexAccessor.getWriterMetrics());
         }
-
-        return indexPath;
     }
 
     /**
-     * This method updates the index, creating it if it does not already exist.
-     * TODO: this monster really needs to be broken down - weed out the loop control
-     *
-     * @throws IndexException if there is some problem in the indexing subsystem meaning indexes cannot be updated.
+     * Sets the matcher for the issue keys of the current projects. Until one is set, log messages are parsed with
+     * {@link JiraKeyUtils}, as are the messages with keys of projects the matcher does not know yet, so their
+     * revisions are not skipped while the event of a new project is on its way.
      */
-    public void updateIndex() throws IndexException, IOException {
-        if (createIndexIfNeeded()) {
-            Collection<SubversionManager> repositories = multipleSubversionRepositoryManager.getRepositoryList();
-
-            // temp log comment
-            if (log.isDebugEnabled())
-                log.debug("Number of repositories: " + repositories.size());
-
-            for (SubversionManager subversionManager : repositories) {
-                try {
-                    // if the repository isn't active, try activating it. if it still not accessible, skip it
-                    if (!subversionManager.isActive()) {
-                        subversionManager.activate();
-
-                        if (!subversionManager.isActive()) {
-                            continue;
-                        }
-                    }
-
-                    final long repoId = subversionManager.getId();
-                    final long latestIndexedRevision;
-
-                    final Long tmpLatestIndexedRevision = getLatestIndexedRevision(repoId);
-                    if (tmpLatestIndexedRevision != null) {
-                        if (tmpLatestIndexedRevision < 0) {
-                            latestIndexedRevision = updateLastRevisionIndexed(repoId);
-                        } else {
-                            latestIndexedRevision = tmpLatestIndexedRevision;
-                        }
-                    } else {
-                        // no latestIndexedRevision, no need to update? This probably means
-                        // that the repository have been removed from the file system
-                        log.warn("Did not update index because null value in hash table for " + repoId);
-                        continue;
-                    }
-
-                    if (log.isDebugEnabled()) {
-                        log.debug("Updating revision index for repository=" + repoId);
-                    }
-
-                    if (log.isDebugEnabled()) {
-                        log.debug("Latest indexed revision for repository=" + repoId + " is : " + latestIndexedRevision);
-                    }
-
-                    final IndexWriter writer = indexAccessor.getIndexWriter(getIndexPath(), false, ANALYZER);
-
-                    try {
+    public void setIssueKeyMatcher(IssueKeyMatcher issueKeyMatcher) {
+        this.issueKeyMatcher = issueKeyMatcher;
+    }
 
-                        final IndexReader reader = indexAccessor.getIndexReader(getIndexPath());
+    /**
+     * Forgets which commits of each project the users may see, after a change of the permissions or the issue
+     * security. The next view of each project tab checks the permissions again.
+     */
+    public void invalidatePermissions() {
+        permissionFilterCache.invalidateAll();
+    }
 
-                        try {
-                            subversionManager.getLogEntries(latestIndexedRevision, new SvnEntryHandler() {
-                                        @Override
-                                        public void handle(final SVNLogEntry logEntry) {
-                                            if (TextUtils.stringSet(logEntry.getMessage()) && isKeyInString(logEntry)) {
-                                                try {
-                                                    if (!hasDocument(repoId, logEntry.getRevision(), reader)) {
-                                                        Document doc = getDocument(repoId, logEntry);
-                                                        if (log.isDebugEnabled()) {
-                                                            log.debug("Indexing repository=" + repoId + ", revision: " + logEntry.getRevision());
-                                                        }
-                                                        writer.addDocument(doc);
-                                                    }
-                                                } catch (IOException e) {
-                                                    throw new RuntimeException(e);
-                                                }
-                                            }
-                                            if (logEntry.getRevision() > latestIndexedRevision) {
-                                                // update the in-memory cache SVN-71
-                                                latestIndexedRevisionTbl.put(repoId, logEntry.getRevision());
-                                            }
-                                        }
-                                    }
-                            );
-                        } finally {
-                            reader.close();
-                        }
-                    } finally {
-                        writer.close();
-                    }
-                } catch (IOException e) {
-                    log.warn("Unable to index repository '" + subversionManager.getDisplayName() + "'", e);
-                } catch (RuntimeException e) {
-                    log.warn("Unable to index repository '" + subversionManager.getDisplayName() + "'", e);
-                }
-            }  // while
+    /**
+     * Forgets which commits of the projects the users may see, after a change to one of their issues.
+     *
+     * @param projectKeys the keys of the projects, or <tt>null</tt> for all projects.
+     */
+    public void invalidatePermissions(Collection<String> projectKeys) {
+        if (projectKeys == null) {
+            permissionFilterCache.invalidateAll();
+        } else {
+            permissionFilterCache.invalidateProjects(projectKeys);
         }
     }
 
     protected boolean isKeyInString(SVNLogEntry logEntry) {
+        final IssueKeyMatcher matcher = issueKeyMatcher;
+        if (matcher != null) {
+            if (matcher.containsIssueKey(logEntry.getMessage())) {
+                return true;
+            }
+            if (!matcher.containsUnknownKey(logEntry.getMessage())) {
+                return false;
+            }
+        }
         final String logMessageUpperCase = StringUtils.upperCase(logEntry.getMessage());
         return JiraKeyUtils.isKeyInString(logMessageUpperCase);
     }
@@ -280,33 +1773,50 @@ public class RevisionIndexer {
     }
 
     /**
-     * Work out whether a given change, for the specified repository, is already in the index or not.
+     * Collects the revisions of the specified repository that are already in the index, so that the
+     * duplicate check for each log entry is a bit lookup rather than a search. Subversion revision
+     * numbers are dense and fit in an <tt>int</tt>, which keeps the set small.
+     * <p>
+     * The shard of the repository holds its documents only, so all its revision terms are read from the latest
+     * commit of the shard rather than those of every repository from the reader of the whole index.
      */
-    private boolean hasDocument(long repoId, long revisionNumber, IndexReader reader) throws IOException {
-        IndexSearcher searcher = new IndexSearcher(reader);
-        try {
-            TermQuery repoQuery = new TermQuery(new Term(FIELD_REPOSITORY, Long.toString(repoId)));
-            TermQuery revQuery = new TermQuery(new Term(FIELD_REVISIONNUMBER, Long.toString(revisionNumber)));
-            BooleanQuery repoAndRevQuery = new BooleanQuery();
-
-            repoAndRevQuery.add(repoQuery, BooleanClause.Occur.MUST);
-            repoAndRevQuery.add(revQuery, BooleanClause.Occur.MUST);
-
-            TopDocs hits = searcher.search(repoAndRevQuery, MAX_REVISIONS);
+    private BitSet getIndexedRevisions(long repoId, Directory shard) throws IOException {
+        final BitSet revisions = new BitSet();
+        if (!IndexReader.indexExists(shard)) {
+            return revisions;
+        }
 
-            if (hits.totalHits == 1) {
-                return true;
-            } else if (hits.totalHits == 0) {
-                return false;
-            } else {
-                log.error("Found MORE than one document for revision: " + revisionNumber + ", repository=" + repoId);
-                return true;
+        final IndexReader reader = IndexReader.open(shard, true);
+        try {
+            final TermEnum terms = reader.terms(START_REVISION);
+            final TermDocs termDocs = reader.termDocs();
+            try {
+                do {
+                    final Term term = terms.term();
+                    // the full precision terms come first, the lower precision ones of the numeric field are not needed
+                    if (term == null || !FIELD_REVISIONNUMBER.equals(term.field())
+                            || term.text().charAt(0) != NumericUtils.SHIFT_START_LONG) {
+                        break;
+                    }
+                    // the term of a revision whose documents have all been deleted is only dropped by a merge
+                    termDocs.seek(terms);
+                    if (termDocs.next()) {
+                        revisions.set((int) NumericUtils.prefixCodedToLong(term.text()));
+                    }
+                } while (terms.next());
+            } finally {
+                termDocs.close();
+                terms.close();
             }
         } finally {
-            searcher.close();
+            reader.close();
         }
-    }
 
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + revisions.cardinality() + " indexed revisions for repository=" + repoId);
+        }
+        return revisions;
+    }
 
     private long updateLastRevisionIndexed(long repoId) throws IndexException, IOException {
         if (log.isDebugEnabled()) {
@@ -315,20 +1825,19 @@ public class RevisionIndexer {
 
         // find all log entries that have already been indexed for the specified repository
         // (i.e. all logs that have been associated with issues in JIRA)
-        long latestIndexedRevision = latestIndexedRevisionTbl.get(repoId);
+        long latestIndexedRevision = NO_REVISION;
 
         String indexPath = getIndexPath();
-        final IndexReader reader;
+        final IndexSearcher searcher;
         try {
-            reader = IndexReader.open(FSDirectory.open(new File(indexPath), new SimpleFSLockFactory()));
+            searcher = indexAccessor.acquireSearcher(indexPath);
         } catch (IOException e) {
             log.error("Problem with path " + indexPath + ": " + e.getMessage(), e);
             throw new IndexException("Problem with path " + indexPath + ": " + e.getMessage(), e);
         }
-        IndexSearcher searcher = new IndexSearcher(reader);
 
         try {
-            TopDocs hits = searcher.search(new TermQuery(new Term(FIELD_REPOSITORY, Long.toString(repoId))), MAX_REVISIONS, new Sort(new SortField(FIELD_REVISIONNUMBER, SortField.LONG, true)));
+            TopDocs hits = searcher.search(new TermQuery(new Term(FIELD_REPOSITORY, Long.toString(repoId))), MAX_REVISIONS, new Sort(new SortField(FIELD_REVISIONNUMBER, FieldCache.NUMERIC_UTILS_LONG_PARSER, true)));
             if (hits.totalHits > 0) {
                 Document doc = searcher.doc(hits.scoreDocs[0].doc);
                 final long revision = Long.parseLong(doc.get(FIELD_REVISIONNUMBER));
@@ -339,12 +1848,19 @@ public class RevisionIndexer {
             log.debug("latestIndRev for " + repoId + " = " + latestIndexedRevision);
             latestIndexedRevisionTbl.put(repoId, latestIndexedRevision);
         } finally {
-            reader.close();
+            indexAccessor.releaseSearcher(searcher);
         }
 
         return latestIndexedRevision;
     }
 
+    /**
+     * @return the document of the log entry, or <tt>null</tt> if its message mentions no issue.
+     */
+    private Document createDocument(long repoId, SVNLogEntry logEntry) {
+        return TextUtils.stringSet(logEntry.getMessage()) && isKeyInString(logEntry) ? getDocument(repoId, logEntry) : null;
+    }
+
     /**
      * Creates a new Lucene document for the supplied log entry. This method is used when indexing
      * revisions, not during retrieval.
@@ -364,18 +1880,23 @@ public class RevisionIndexer {
         }
 
         doc.add(new Field(FIELD_REPOSITORY, Long.toString(repoId), Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(FIELD_REVISIONNUMBER, Long.toString(logEntry.getRevision()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(createRevisionField(logEntry.getRevision()));
 
         if (logEntry.getDate() != null) {
-            doc.add(new Field(FIELD_DATE, DateField.dateToString(logEntry.getDate()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(createDateField(logEntry.getDate()));
         }
 
+        doc.add(new Field(FIELD_CHANGED_PATHS, ChangedPaths.compress(logEntry.getChangedPaths())));
+
         // relevant issue keys
         List<String> keys = getIssueKeysFromString(logEntry);
 
         // Relevant project keys. Used to avoid adding duplicate projects.
         Map<String, String> projects = new HashMap<String, String>();
 
+        // a message may mention an issue by its current and a previous key
+        Set<Long> issueIds = new HashSet<Long>();
+
         for (String issueKey : keys) {
             doc.add(new Field(FIELD_ISSUEKEY, issueKey, Field.Store.YES, Field.Index.NOT_ANALYZED));
             String projectKey = getProjectKeyFromIssueKey(issueKey);
@@ -383,17 +1904,140 @@ public class RevisionIndexer {
                 projects.put(projectKey, projectKey);
                 doc.add(new Field(FIELD_PROJECTKEY, projectKey, Field.Store.YES, Field.Index.NOT_ANALYZED));
             }
+
+            // an issue may be created shortly after the commit, so missing keys get another look up before they are
+            // given up on
+            Long issueId = resolveIssueId(issueKey);
+            if (issueId == null || issueId == UNRESOLVABLE_ISSUE_ID) {
+                doc.add(createUnresolvedIssueKeyField(issueKey));
+            } else if (issueIds.add(issueId)) {
+                doc.add(createIssueIdField(issueId));
+            }
         }
 
         return doc;
     }
 
+    /**
+     * Looks up the id of the issue with the given key. JIRA also finds issues by the keys they had before they were
+     * moved or their project key was changed.
+     *
+     * @return the id of the issue, {@link #UNRESOLVABLE_ISSUE_ID} if there is no issue with the key, or <tt>null</tt>
+     * if it could not be looked up.
+     */
+    protected Long resolveIssueId(String issueKey) {
+        try {
+            final Issue issue = issueManager.getIssueObject(issueKey);
+            return issue != null ? issue.getId() : UNRESOLVABLE_ISSUE_ID;
+        } catch (RuntimeException e) {
+            log.debug("Unable to look up issue " + issueKey + ", leaving it to be resolved later", e);
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the issue keys that could not be resolved to an issue when their revisions were indexed, such as
+     * the keys of issues created after the commit and all keys of an index upgraded from an older format. Each run
+     * looks up at most <tt>jira.plugins.subversion.issueIds.batchSize</tt> keys, carrying on where the previous run
+     * stopped, and rewrites the documents of the keys it resolves with the ids of their issues. Keys without an issue
+     * are rewritten with {@link #UNRESOLVABLE_ISSUE_ID} so that later runs do not look them up again; only keys that
+     * could not be looked up at all are retried.
+     *
+     * @return the number of documents rewritten.
+     */
+    public int resolveIssueIds() throws IOException {
+        if (!indexDirectoryExists() || isReplica()) {
+            return 0;
+        }
+
+        writeLock.lock();
+        try {
+            indexAccessor.getSharedIndexWriter(getIndexPath(), ANALYZER);
+            final Map<String, Long> issueIds = new HashMap<String, Long>();
+            final List<Document> resolved = new ArrayList<Document>();
+            final IndexSearcher searcher = indexAccessor.acquireSearcher(getIndexPath());
+            try {
+                final IndexReader reader = searcher.getIndexReader();
+                final TermEnum terms = reader.terms(new Term(FIELD_UNRESOLVED_ISSUEKEY, resolveCursor));
+                String next = "";
+                try {
+                    int lookedUp = 0;
+                    do {
+                        final Term term = terms.term();
+                        if (term == null || !FIELD_UNRESOLVED_ISSUEKEY.equals(term.field())) {
+                            break;
+                        }
+                        if (lookedUp++ == resolveBatchSize) {
+                            next = term.text();
+                            break;
+                        }
+                        final Long issueId = resolveIssueId(term.text());
+                        if (issueId != null) {
+                            issueIds.put(term.text(), issueId);
+                        }
+                    } while (terms.next());
+                } finally {
+                    terms.close();
+                }
+                // once the last key has been looked up, the next run starts over
+                resolveCursor = next;
+
+                final BitSet docs = new BitSet(reader.maxDoc());
+                final TermDocs termDocs = reader.termDocs();
+                try {
+                    for (String issueKey : issueIds.keySet()) {
+                        termDocs.seek(new Term(FIELD_UNRESOLVED_ISSUEKEY, issueKey));
+                        while (termDocs.next()) {
+                            docs.set(termDocs.doc());
+                        }
+                    }
+                } finally {
+                    termDocs.close();
+                }
+                for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+                    resolved.add(resolveDocument(reader.document(doc), issueIds));
+                }
+            } finally {
+                indexAccessor.releaseSearcher(searcher);
+            }
+
+            if (!resolved.isEmpty()) {
+                final List<Term> unresolved = new ArrayList<Term>(issueIds.size());
+                for (String issueKey : issueIds.keySet()) {
+                    unresolved.add(new Term(FIELD_UNRESOLVED_ISSUEKEY, issueKey));
+                }
+                synchronized (commitLock) {
+                    indexAccessor.deleteDocuments(getIndexPath(), ANALYZER, unresolved.toArray(new Term[unresolved.size()]));
+                    for (Document doc : resolved) {
+                        getWriter(doc).addDocument(doc);
+                    }
+                    final Map<String, String> previous = getCommittedUserData();
+                    commit(previous, createCommitUserData(previous));
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Resolved " + issueIds.size() + " issue keys of " + resolved.size() + " revisions");
+                }
+            }
+            return resolved.size();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
     protected String getProjectKeyFromIssueKey(String issueKey) {
+        if (issueKeyMatcher != null) {
+            // the keys found by the matcher or by JiraKeyUtils are upper case already
+            return issueKey.substring(0, issueKey.lastIndexOf('-'));
+        }
         final String issueKeyUpperCase = StringUtils.upperCase(issueKey);
         return JiraKeyUtils.getFastProjectKeyFromIssueKey(issueKeyUpperCase);
     }
 
     protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+        final IssueKeyMatcher matcher = issueKeyMatcher;
+        if (matcher != null && !matcher.containsUnknownKey(logEntry.getMessage())) {
+            return matcher.getIssueKeys(logEntry.getMessage());
+        }
         final String logMessageUpperCase = StringUtils.upperCase(logEntry.getMessage());
         return JiraKeyUtils.getIssueKeysFromString(logMessageUpperCase);
     }
@@ -414,6 +2058,15 @@ public class RevisionIndexer {
      * @throws IOException    Thrown if there's a problem reading the index.
      */
     public Map<Long, List<SVNLogEntry>> getLogEntriesByRepository(Issue issue, int startIndex, int pageSize, boolean ascending) throws IndexException, IOException {
+        return getLogEntriesByRepository(issue, startIndex, pageSize, ascending, RevisionRange.ALL);
+    }
+
+    /**
+     * Gets the commits relevant to the specified issue within a range of revisions and dates.
+     *
+     * @see #getLogEntriesByRepository(Issue, int, int, boolean)
+     */
+    public Map<Long, List<SVNLogEntry>> getLogEntriesByRepository(Issue issue, int startIndex, int pageSize, boolean ascending, RevisionRange range) throws IndexException, IOException {
         if (log.isDebugEnabled())
             log.debug("Retrieving revisions for : " + issue.getKey());
 
@@ -422,46 +2075,44 @@ public class RevisionIndexer {
             log.warn("The indexes for the subversion plugin have not yet been created.");
             return null;
         } else {
-            final IndexReader reader = indexAccessor.getIndexReader(getIndexPath());
-            IndexSearcher searcher = new IndexSearcher(reader);
+            final IndexSearcher searcher = indexAccessor.acquireSearcher(getIndexPath());
 
             try {
-                TopDocs hits = searcher.search(createQueryByIssueKey(issue), MAX_REVISIONS, new Sort(new SortField(FIELD_DATE, SortField.STRING, !ascending)));
-                Map<Long, List<SVNLogEntry>> logEntries = new LinkedHashMap<Long, List<SVNLogEntry>>(hits.totalHits);
-
-                int endIndex = startIndex + pageSize;
-
-                // SVN-370 - Prevent ArrayIndexOutOfBoundsException when more than 100 commits (which is MAX_REVISIONS) are to be shown
-                for (int i = 0; i < Math.min(hits.totalHits, MAX_REVISIONS); i++) {
-                    if (i < startIndex || i >= endIndex)
-                        continue;
-
-                    Document doc = searcher.doc(hits.scoreDocs[i].doc);
-                    long repositoryId = Long.parseLong(doc.get(FIELD_REPOSITORY));//repositoryId is UUID + location
-                    SubversionManager manager = multipleSubversionRepositoryManager.getRepository(repositoryId);
-                    long revision = Long.parseLong(doc.get(FIELD_REVISIONNUMBER));
-                    SVNLogEntry logEntry = manager.getLogEntry(revision);
-                    if (logEntry == null) {
-                        log.error("Could not find log message for revision: " + Long.parseLong(doc.get(FIELD_REVISIONNUMBER)));
-                    } else {
-                        // Look for list of map entries for repository
-                        List<SVNLogEntry> entries = logEntries.get(repositoryId);
-                        if (entries == null) {
-                            entries = new ArrayList<SVNLogEntry>();
-                            logEntries.put(repositoryId, entries);
-                        }
-                        entries.add(logEntry);
-                    }
-                }
-
-                return logEntries;
+                TopDocs hits = searcher.search(range.restrict(createQueryByIssue(issue)), MAX_REVISIONS, sortByDate(!ascending));
+                return getLogEntries(searcher, hits, startIndex, pageSize, "getLogEntriesByRepository()");
             } finally {
-                searcher.close();
-                reader.close();
+                indexAccessor.releaseSearcher(searcher);
             }
         }
     }
 
+    /**
+     * Gets one page of the commits relevant to the specified issue, however deep. Unlike the <tt>startIndex</tt>
+     * paging, which is limited to the first {@link #MAX_REVISIONS}, each page only collects its own commits.
+     *
+     * @param issue     The issue to get entries for.
+     * @param cursor    The cursor of the previous page, or <tt>null</tt> for the first page.
+     * @param pageSize  The size of the page.
+     * @param ascending Whether the oldest commits come first.
+     * @param range     The revisions and dates to restrict the commits to.
+     * @return the page, or <tt>null</tt> if the index has not been created yet.
+     * @throws IndexException Thrown if there's a getting a reader to the index.
+     * @throws IOException    Thrown if there's a problem reading the index.
+     */
+    public LogEntryPage getLogEntryPageByRepository(Issue issue, String cursor, int pageSize, boolean ascending, RevisionRange range) throws IndexException, IOException {
+        if (!indexDirectoryExists()) {
+            log.warn("The indexes for the subversion plugin have not yet been created.");
+            return null;
+        }
+
+        final IndexSearcher searcher = indexAccessor.acquireSearcher(getIndexPath());
+        try {
+            return getLogEntryPage(searcher, range.restrict(createQueryByIssue(issue)), null, cursor, pageSize, !ascending, "getLogEntryPageByRepository()");
+        } finally {
+            indexAccessor.releaseSearcher(searcher);
+        }
+    }
+
     /**
      * Gets the commits relevant to the specified project.
      *
@@ -475,6 +2126,15 @@ public class RevisionIndexer {
      * @throws IOException    Thrown if there's a problem reading the index.
      */
     public Map<Long, List<SVNLogEntry>> getLogEntriesByProject(String projectKey, ApplicationUser user, int startIndex, int pageSize) throws IndexException, IOException {
+        return getLogEntriesByProject(projectKey, user, startIndex, pageSize, RevisionRange.ALL);
+    }
+
+    /**
+     * Gets the commits relevant to the specified project within a range of revisions and dates.
+     *
+     * @see #getLogEntriesByProject(String, ApplicationUser, int, int)
+     */
+    public Map<Long, List<SVNLogEntry>> getLogEntriesByProject(String projectKey, ApplicationUser user, int startIndex, int pageSize, RevisionRange range) throws IndexException, IOException {
         if (!indexDirectoryExists()) {
             log.warn("getLogEntriesByProject() The indexes for the subversion plugin have not yet been created.");
             return null;
@@ -482,50 +2142,21 @@ public class RevisionIndexer {
 
             // Set up and perform a search for all documents having the supplied projectKey,
             // sorted in descending date order
-            TermQuery query = new TermQuery(new Term(FIELD_PROJECTKEY, projectKey));
+            Query query = range.restrict(new TermQuery(new Term(FIELD_PROJECTKEY, projectKey)));
 
             Map<Long, List<SVNLogEntry>> logEntries;
-            final IndexReader reader = indexAccessor.getIndexReader(getIndexPath());
-            IndexSearcher searcher = new IndexSearcher(reader);
+            final IndexSearcher searcher = indexAccessor.acquireSearcher(getIndexPath());
 
             try {
-                TopDocs hits = searcher.search(query, new ProjectRevisionFilter(issueManager, permissionManager, user, projectKey), MAX_REVISIONS, new Sort(new SortField(FIELD_DATE, SortField.LONG, true)));
+                TopDocs hits = searcher.search(query, new ProjectRevisionFilter(issueManager, permissionManager, user, projectKey, permissionFilterCache), MAX_REVISIONS, sortByDate(true));
 
                 if (hits == null) {
                     log.info("getLogEntriesByProject() No matches -- returning null.");
                     return null;
                 }
-                // Build the result map
-                logEntries = new LinkedHashMap<Long, List<SVNLogEntry>>();
-                int endIndex = startIndex + pageSize;
-
-                for (int i = 0, j = Math.min(hits.totalHits, MAX_REVISIONS); i < j; ++i) {
-                    if (i < startIndex || i >= endIndex)
-                        continue;
-
-                    Document doc = searcher.doc(hits.scoreDocs[i].doc);
-
-                    long repositoryId = Long.parseLong(doc.get(FIELD_REPOSITORY));//repositoryId is UUID + location
-                    SubversionManager manager = multipleSubversionRepositoryManager.getRepository(repositoryId);
-                    long revision = Long.parseLong(doc.get(FIELD_REVISIONNUMBER));
-                    SVNLogEntry logEntry = manager.getLogEntry(revision);
-                    if (logEntry == null) {
-                        log.error("getLogEntriesByProject() Could not find log message for revision: " + revision);
-                        continue;
-                    }
-                    // Look up the list of map entries for this repository. Create one if needed
-                    List<SVNLogEntry> entries = logEntries.get(repositoryId);
-                    if (entries == null) {
-                        entries = new ArrayList<SVNLogEntry>();
-                        logEntries.put(repositoryId, entries);
-                    }
-
-                    // Add this entry
-                    entries.add(logEntry);
-                }
+                logEntries = getLogEntries(searcher, hits, startIndex, pageSize, "getLogEntriesByProject()");
             } finally {
-                searcher.close();
-                reader.close();
+                indexAccessor.releaseSearcher(searcher);
             }
 
             return logEntries;
@@ -533,6 +2164,35 @@ public class RevisionIndexer {
     }
 
 
+    /**
+     * Gets one page of the commits relevant to the specified project, however deep.
+     *
+     * @param projectKey The project key.
+     * @param user       The requesting user.
+     * @param cursor     The cursor of the previous page, or <tt>null</tt> for the first page.
+     * @param pageSize   The size of the page.
+     * @param range      The revisions and dates to restrict the commits to.
+     * @return the page, newest commits first, or <tt>null</tt> if the index has not been created yet.
+     * @throws IndexException Thrown if there's a getting a reader to the index.
+     * @throws IOException    Thrown if there's a problem reading the index.
+     * @see #getLogEntryPageByRepository(Issue, String, int, boolean, RevisionRange)
+     */
+    public LogEntryPage getLogEntryPageByProject(String projectKey, ApplicationUser user, String cursor, int pageSize, RevisionRange range) throws IndexException, IOException {
+        if (!indexDirectoryExists()) {
+            log.warn("getLogEntryPageByProject() The indexes for the subversion plugin have not yet been created.");
+            return null;
+        }
+
+        final Query query = range.restrict(new TermQuery(new Term(FIELD_PROJECTKEY, projectKey)));
+        final IndexSearcher searcher = indexAccessor.acquireSearcher(getIndexPath());
+        try {
+            return getLogEntryPage(searcher, query, new ProjectRevisionFilter(issueManager, permissionManager, user, projectKey, permissionFilterCache),
+                    cursor, pageSize, true, "getLogEntryPageByProject()");
+        } finally {
+            indexAccessor.releaseSearcher(searcher);
+        }
+    }
+
     /**
      * Gets all commits for issues related to version specified from all configured repositories.
      *
@@ -546,88 +2206,211 @@ public class RevisionIndexer {
      * @throws IOException    Thrown if there's a problem reading the index.
      */
     public Map<Long, List<SVNLogEntry>> getLogEntriesByVersion(Version version, ApplicationUser user, int startIndex, int pageSize) throws IndexException, IOException {
+        return getLogEntriesByVersion(version, user, startIndex, pageSize, RevisionRange.ALL);
+    }
+
+    /**
+     * Gets all commits for issues related to the specified version within a range of revisions and dates.
+     *
+     * @see #getLogEntriesByVersion(Version, ApplicationUser, int, int)
+     */
+    public Map<Long, List<SVNLogEntry>> getLogEntriesByVersion(Version version, ApplicationUser user, int startIndex, int pageSize, RevisionRange range) throws IndexException, IOException {
         if (!indexDirectoryExists()) {
             log.warn("getLogEntriesByVersion() The indexes for the subversion plugin have not yet been created.");
             return null;
         }
 
-        // Find all isuses affected by and fixed by any of the versions:
-        Collection<Issue> issues = new HashSet();
-
-        issues.addAll(versionManager.getIssuesWithFixVersion(version));
-        issues.addAll(versionManager.getIssuesWithAffectsVersion(version));
-
-        // Construct a query with all the issue keys. Make sure to increase the maximum number of clauses if needed.
-        int maxClauses = BooleanQuery.getMaxClauseCount();
-        if (issues.size() > maxClauses)
-            BooleanQuery.setMaxClauseCount(issues.size());
-
-        BooleanQuery query = new BooleanQuery();
-        Set<String> permittedIssueKeys = new HashSet();
-
-        for (Issue issue : issues) {
-            String key = issue.getKey();
-            Issue theIssue = issueManager.getIssueObject(key);
-
-            if (permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, theIssue, user)) {
-                TermQuery termQuery = new TermQuery(new Term(FIELD_ISSUEKEY, key));
-                query.add(termQuery, BooleanClause.Occur.SHOULD);
-                permittedIssueKeys.add(key);
-            }
+        // Find all issues affected by and fixed by the version, each once
+        final Map<String, Issue> issues = new LinkedHashMap<String, Issue>();
+        for (Issue issue : versionManager.getIssuesWithFixVersion(version)) {
+            issues.put(issue.getKey(), issue);
+        }
+        for (Issue issue : versionManager.getIssuesWithAffectsVersion(version)) {
+            issues.put(issue.getKey(), issue);
         }
 
-        final IndexReader reader = indexAccessor.getIndexReader(getIndexPath());
-        IndexSearcher searcher = new IndexSearcher(reader);
+        final IndexSearcher searcher = indexAccessor.acquireSearcher(getIndexPath());
         Map<Long, List<SVNLogEntry>> logEntries;
 
         try {
+            // Only the issues with commits need their permissions checked, which for most releases is a fraction of them
+            final IndexReader reader = searcher.getIndexReader();
+            final Set<String> permittedIssueKeys = new HashSet<String>();
+            final Set<Long> permittedIssueIds = new HashSet<Long>();
+            for (Issue issue : issues.values()) {
+                if ((reader.docFreq(new Term(FIELD_ISSUEID, Long.toString(issue.getId()))) > 0
+                        || reader.docFreq(new Term(FIELD_ISSUEKEY, issue.getKey())) > 0)
+                        && permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, issue, user)) {
+                    permittedIssueKeys.add(issue.getKey());
+                    permittedIssueIds.add(issue.getId());
+                }
+            }
+
+            // The filter looks the issues up term by term, so there is no limit on the number of issues
+            final Query query = new ConstantScoreQuery(new PermittedIssuesRevisionFilter(issueManager, permissionManager, user, permittedIssueKeys, permittedIssueIds));
+
             // Run the query and sort by date in descending order
-            TopDocs hits = searcher.search(query, new PermittedIssuesRevisionFilter(issueManager, permissionManager, user, permittedIssueKeys), MAX_REVISIONS, new Sort(new SortField(FIELD_DATE, SortField.LONG, true)));
+            TopDocs hits = searcher.search(range.restrict(query), MAX_REVISIONS, sortByDate(true));
 
             if (hits == null) {
                 log.info("getLogEntriesByVersion() No matches -- returning null.");
                 return null;
             }
 
-            logEntries = new LinkedHashMap<Long, List<SVNLogEntry>>();
-            int endDocIndex = startIndex + pageSize;
+            logEntries = getLogEntries(searcher, hits, startIndex, pageSize, "getLogEntriesByVersion()");
+        } finally {
+            indexAccessor.releaseSearcher(searcher);
+        }
 
-            for (int i = 0, j = Math.min(hits.totalHits, MAX_REVISIONS); i < j; ++i) {
-                if (i < startIndex || i >= endDocIndex)
-                    continue;
+        return logEntries;
+    }
 
-                Document doc = searcher.doc(hits.scoreDocs[i].doc);
-                long repositoryId = Long.parseLong(doc.get(FIELD_REPOSITORY));//repositoryId is UUID + location
-                SubversionManager manager = multipleSubversionRepositoryManager.getRepository(repositoryId);
-                long revision = Long.parseLong(doc.get(FIELD_REVISIONNUMBER));
+    /**
+     * Sorts on the numeric date field, whose values the field cache reads straight from the full precision terms.
+     */
+    private static Sort sortByDate(boolean descending) {
+        return new Sort(new SortField(FIELD_DATE, FieldCache.NUMERIC_UTILS_LONG_PARSER, descending));
+    }
 
-                SVNLogEntry logEntry = manager.getLogEntry(revision);
-                if (logEntry == null) {
-                    log.error("getLogEntriesByVersion() Could not find log message for revision: " + Long.parseLong(doc.get(FIELD_REVISIONNUMBER)));
-                }
-                // Add the entry to the list of map entries for the repository. Create a new list if needed
-                List<SVNLogEntry> entries = logEntries.get(repositoryId);
-                if (entries == null) {
-                    entries = new ArrayList<SVNLogEntry>();
-                    logEntries.put(repositoryId, entries);
+    /**
+     * Searches for the page after the cursor, sorted by date. Only the commits from the date of the cursor on are
+     * searched, and of those of that very date the ones the previous pages have shown are skipped.
+     */
+    private LogEntryPage getLogEntryPage(IndexSearcher searcher, Query query, Filter filter, String cursorToken, int pageSize, boolean descending, String caller) throws IOException {
+        final PageCursor cursor = PageCursor.parse(cursorToken);
+        Query restricted = query;
+        int skip = 0;
+        if (cursor != null) {
+            final Long date = cursor.getDate();
+            restricted = new FilteredQuery(query, NumericRangeFilter.newLongRange(FIELD_DATE, NUMERIC_PRECISION_STEP,
+                    descending ? null : date, descending ? date : null, true, true));
+            skip = cursor.getSkip();
+        }
+
+        final int wanted = skip + Math.max(1, pageSize);
+        final TopFieldDocs hits = searcher.search(restricted, filter, wanted, sortByDate(descending));
+        final int end = Math.min(hits.scoreDocs.length, wanted);
+        final Map<Long, List<SVNLogEntry>> logEntries = getLogEntries(searcher, hits.scoreDocs, skip, end, caller);
+
+        String nextCursor = null;
+        if (hits.totalHits > wanted) {
+            // the hits of the last date, counting those of the previous pages if the page did not get past it
+            final Object lastDate = ((FieldDoc) hits.scoreDocs[end - 1]).fields[0];
+            int lastDateHits = 0;
+            for (int i = end - 1; i >= 0 && lastDate.equals(((FieldDoc) hits.scoreDocs[i]).fields[0]); i--) {
+                lastDateHits++;
+            }
+            nextCursor = new PageCursor((Long) lastDate, lastDateHits).toToken();
+        }
+        return new LogEntryPage(logEntries, nextCursor);
+    }
+
+    private Map<Long, List<SVNLogEntry>> getLogEntries(IndexSearcher searcher, TopDocs hits, int startIndex, int pageSize, String caller) throws IOException {
+        // SVN-370 - Prevent ArrayIndexOutOfBoundsException when more than 100 commits (which is MAX_REVISIONS) are to be shown
+        final int endIndex = (int) Math.min(Math.min(hits.totalHits, MAX_REVISIONS), (long) startIndex + pageSize);
+        return getLogEntries(searcher, hits.scoreDocs, startIndex, endIndex, caller);
+    }
+
+    /**
+     * Rebuilds the log entries of one page of hits from their documents, grouped by repository in the order of the
+     * hits. Documents indexed before the changed paths were stored are looked up in their repositories instead,
+     * with one bulk request per repository.
+     */
+    private Map<Long, List<SVNLogEntry>> getLogEntries(IndexSearcher searcher, ScoreDoc[] scoreDocs, int startIndex, int endIndex, String caller) throws IOException {
+        final List<Document> docs = new ArrayList<Document>();
+        final List<SVNLogEntry> stored = new ArrayList<SVNLogEntry>();
+        final Map<Long, Set<Long>> missingRevisions = new HashMap<Long, Set<Long>>();
+
+        for (int i = Math.max(0, startIndex); i < endIndex; i++) {
+            final Document doc = searcher.doc(scoreDocs[i].doc);
+            final SVNLogEntry logEntry = getStoredLogEntry(doc);
+            if (logEntry == null) {
+                final long repositoryId = Long.parseLong(doc.get(FIELD_REPOSITORY));
+                Set<Long> revisions = missingRevisions.get(repositoryId);
+                if (revisions == null) {
+                    revisions = new HashSet<Long>();
+                    missingRevisions.put(repositoryId, revisions);
                 }
-                entries.add(logEntry);
+                revisions.add(Long.parseLong(doc.get(FIELD_REVISIONNUMBER)));
             }
-        } finally {
-            searcher.close();
-            reader.close();
-            BooleanQuery.setMaxClauseCount(maxClauses);
+            docs.add(doc);
+            stored.add(logEntry);
         }
 
+        final Map<Long, Map<Long, SVNLogEntry>> retrieved = new HashMap<Long, Map<Long, SVNLogEntry>>();
+        for (Map.Entry<Long, Set<Long>> missing : missingRevisions.entrySet()) {
+            retrieved.put(missing.getKey(), retrieveLogEntries(missing.getKey(), missing.getValue()));
+        }
+
+        final Map<Long, List<SVNLogEntry>> logEntries = new LinkedHashMap<Long, List<SVNLogEntry>>();
+        for (int i = 0; i < docs.size(); i++) {
+            final Document doc = docs.get(i);
+            final long repositoryId = Long.parseLong(doc.get(FIELD_REPOSITORY));//repositoryId is UUID + location
+            SVNLogEntry logEntry = stored.get(i);
+            if (logEntry == null) {
+                logEntry = retrieved.get(repositoryId).get(Long.parseLong(doc.get(FIELD_REVISIONNUMBER)));
+            }
+            if (logEntry == null) {
+                log.error(caller + " Could not find log message for revision: " + doc.get(FIELD_REVISIONNUMBER));
+                continue;
+            }
+
+            // Look up the list of map entries for this repository. Create one if needed
+            List<SVNLogEntry> entries = logEntries.get(repositoryId);
+            if (entries == null) {
+                entries = new ArrayList<SVNLogEntry>();
+                logEntries.put(repositoryId, entries);
+            }
+            entries.add(logEntry);
+        }
         return logEntries;
     }
 
+    /**
+     * @return the log entry stored in the document, or <tt>null</tt> if it was indexed before the changed paths were stored.
+     */
+    private SVNLogEntry getStoredLogEntry(Document doc) throws IOException {
+        final byte[] changedPaths = doc.getBinaryValue(FIELD_CHANGED_PATHS);
+        if (changedPaths == null) {
+            return null;
+        }
+        final String date = doc.get(FIELD_DATE);
+        return new SVNLogEntry(ChangedPaths.decompress(changedPaths), Long.parseLong(doc.get(FIELD_REVISIONNUMBER)),
+                doc.get(FIELD_AUTHOR), date != null ? new Date(Long.parseLong(date)) : null, doc.get(FIELD_MESSAGE));
+    }
+
+    private Map<Long, SVNLogEntry> retrieveLogEntries(long repositoryId, Set<Long> revisions) {
+        final SubversionManager manager = multipleSubversionRepositoryManager.getRepository(repositoryId);
+        if (manager == null) {
+            return Collections.emptyMap();
+        }
+        try {
+            return manager.getLogEntries(revisions);
+        } catch (IllegalStateException e) {
+            log.warn("Repository " + repositoryId + " is not active, cannot retrieve revisions " + revisions);
+        } catch (InfrastructureException e) {
+            log.warn("Unable to retrieve revisions " + revisions + " of repository " + repositoryId, e);
+        }
+        return Collections.emptyMap();
+    }
+
     public void addRepository(long repositoryId) {
+        addRepositories(Collections.singletonList(repositoryId));
+    }
+
+    /**
+     * Indexes the given repositories, which have just been added, by a single update of the index.
+     *
+     * @param repositoryIds the ids of the repositories.
+     */
+    public void addRepositories(Collection<Long> repositoryIds) {
         if (log.isDebugEnabled()) {
-            log.debug("Adding repository with id: " + repositoryId);
+            log.debug("Adding repositories with ids: " + repositoryIds);
         }
 
-        initializeLatestIndexedRevisionCache(repositoryId);
+        for (Long repositoryId : repositoryIds) {
+            initializeLatestIndexedRevisionCache(repositoryId);
+        }
         try {
             updateIndex();
         } catch (Exception e) {
@@ -642,53 +2425,53 @@ public class RevisionIndexer {
 
         if (!indexDirectoryExists()) {
             log.warn("The indexes for the subversion plugin have not yet been created.");
+        } else if (isReplica()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Leaving the revisions of repositoryId " + repositoryId + " to be removed by the node publishing the revision index");
+            }
         } else {
-            IndexWriter writer = null;
-
+            writeLock.lock();
             try {
-                writer = indexAccessor.getIndexWriter(getIndexPath(), false, ANALYZER);
-
-                writer.deleteDocuments(new Term(FIELD_REPOSITORY, Long.toString(repositoryId)));
-                initializeLatestIndexedRevisionCache(repositoryId);
+                final IndexWriter writer = indexAccessor.getSharedIndexWriter(getIndexPath(), ANALYZER);
+
+                synchronized (commitLock) {
+                    // documents written to the index itself rather than to a shard
+                    writer.deleteDocuments(new Term(FIELD_REPOSITORY, Long.toString(repositoryId)));
+                    initializeLatestIndexedRevisionCache(repositoryId);
+
+                    final Map<String, String> previous = getCommittedUserData();
+                    final Map<String, String> userData = createCommitUserData(previous);
+                    userData.remove(CHECKPOINT_PREFIX + repositoryId);
+                    commit(previous, userData);
+                    // dropped once the checkpoint is gone, so a crash in between at worst leaves revisions that are
+                    // skipped as duplicates when the repository is indexed again
+                    indexAccessor.deleteIndex(getShardPath(repositoryId));
+                }
             } catch (IOException ie) {
                 if (log.isErrorEnabled())
                     log.error("Unable to open index. " +
                             "Perhaps the index is corrupted. It might be possible to fix the problem " +
-                            "by removing the index directory (" + getIndexPath() + ")", ie);
+                            "by rebuilding the index from the Subversion repositories administration page, " +
+                            "or by removing the index directory (" + getIndexPath() + ")", ie);
 
                 throw ie; /* Rethrow for normal error handling? SVN-200 */
             } finally {
-                if (null != writer) {
-                    try {
-                        writer.close();
-                    } catch (IOException ioe) {
-                        if (log.isWarnEnabled())
-                            log.warn("Unable to close index.", ioe);
-                    }
-                }
-
+                writeLock.unlock();
             }
         }
     }
 
     /**
-     * Returns the query that matches the key of the passed issue and
-     * any previous keys this issue had if it has moved between
-     * projects previously.
+     * Returns the query that matches the revisions of the passed issue: those resolved to its id, whichever of its
+     * keys they mention, and all those mentioning its current key. Since JIRA never gives the key of one issue to
+     * another, the revisions the second clause adds are the ones whose key has not been resolved yet; it matches on
+     * {@link #FIELD_ISSUEKEY} rather than {@link #FIELD_UNRESOLVED_ISSUEKEY} so that documents carrying the key only
+     * are found as well.
      */
-    protected Query createQueryByIssueKey(Issue issue) {
+    protected Query createQueryByIssue(Issue issue) {
         BooleanQuery query = new BooleanQuery();
-
-        // add current key
+        query.add(new TermQuery(new Term(FIELD_ISSUEID, Long.toString(issue.getId()))), BooleanClause.Occur.SHOULD);
         query.add(new TermQuery(new Term(FIELD_ISSUEKEY, issue.getKey())), BooleanClause.Occur.SHOULD);
-
-        // add all previous keys
-        Collection<String> previousIssueKeys = changeHistoryManager.getPreviousIssueKeys(issue.getId());
-        for (String previousIssueKey : previousIssueKeys) {
-            TermQuery termQuery = new TermQuery(new Term(FIELD_ISSUEKEY, previousIssueKey));
-            query.add(termQuery, BooleanClause.Occur.SHOULD);
-        }
-
         return query;
     }
 }
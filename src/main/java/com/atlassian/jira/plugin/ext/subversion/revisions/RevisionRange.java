@@ -0,0 +1,122 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.NumericRangeFilter;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Restricts the commits shown by a tab panel to a range of revisions and a range of dates. Each end of each range is
+ * inclusive and may be left open. The ranges are applied with filters on the numeric revision and date fields of the
+ * index, so they cost a few term lookups whatever the size of the range.
+ */
+public final class RevisionRange {
+    private static final Logger log = LoggerFactory.getLogger(RevisionRange.class);
+
+    /**
+     * The format of the dates accepted by {@link #parse}.
+     */
+    public static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    public static final RevisionRange ALL = new RevisionRange(null, null, null, null);
+
+    private final Long fromRevision;
+    private final Long toRevision;
+    private final Date fromDate;
+    private final Date toDate;
+
+    public RevisionRange(Long fromRevision, Long toRevision, Date fromDate, Date toDate) {
+        this.fromRevision = fromRevision;
+        this.toRevision = toRevision;
+        this.fromDate = fromDate;
+        this.toDate = toDate;
+    }
+
+    /**
+     * Reads a range from request parameters. Blank or invalid values leave that end of the range open. Dates are in
+     * {@link #DATE_FORMAT}, and the end date includes the whole day.
+     */
+    public static RevisionRange parse(String fromRevision, String toRevision, String fromDate, String toDate) {
+        final Date to = parseDate(toDate);
+        return new RevisionRange(parseRevision(fromRevision), parseRevision(toRevision), parseDate(fromDate),
+                to != null ? new Date(to.getTime() + TimeUnit.DAYS.toMillis(1) - 1) : null);
+    }
+
+    private static Long parseRevision(String revision) {
+        if (StringUtils.isBlank(revision)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(revision.trim());
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring invalid revision '" + revision + "'");
+            return null;
+        }
+    }
+
+    private static Date parseDate(String date) {
+        if (StringUtils.isBlank(date)) {
+            return null;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
+        format.setLenient(false);
+        try {
+            return format.parse(date.trim());
+        } catch (ParseException e) {
+            log.debug("Ignoring invalid date '" + date + "'");
+            return null;
+        }
+    }
+
+    public Long getFromRevision() {
+        return fromRevision;
+    }
+
+    public Long getToRevision() {
+        return toRevision;
+    }
+
+    public Date getFromDate() {
+        return fromDate;
+    }
+
+    public Date getToDate() {
+        return toDate;
+    }
+
+    /**
+     * @return <tt>true</tt> if the range lets every commit through.
+     */
+    public boolean isUnbounded() {
+        return fromRevision == null && toRevision == null && fromDate == null && toDate == null;
+    }
+
+    /**
+     * @return the query, restricted to the documents within the range.
+     */
+    Query restrict(Query query) {
+        Query restricted = query;
+        if (fromRevision != null || toRevision != null) {
+            restricted = new FilteredQuery(restricted, NumericRangeFilter.newLongRange(RevisionIndexer.FIELD_REVISIONNUMBER,
+                    RevisionIndexer.NUMERIC_PRECISION_STEP, fromRevision, toRevision, true, true));
+        }
+        if (fromDate != null || toDate != null) {
+            restricted = new FilteredQuery(restricted, NumericRangeFilter.newLongRange(RevisionIndexer.FIELD_DATE,
+                    RevisionIndexer.NUMERIC_PRECISION_STEP, fromDate != null ? fromDate.getTime() : null,
+                    toDate != null ? toDate.getTime() : null, true, true));
+        }
+        return restricted;
+    }
+
+    @Override
+    public String toString() {
+        return "revisions " + fromRevision + " to " + toRevision + ", dates " + fromDate + " to " + toDate;
+    }
+}
@@ -0,0 +1,351 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions.scheduling.clustersafe;
+
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManagerImpl;
+import com.atlassian.jira.propertyset.JiraPropertySetFactory;
+import com.opensymphony.module.propertyset.PropertySet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Elects the node of the cluster that polls the Subversion repositories and publishes the revision index.
+ * <p/>
+ * The leader is recorded in the application properties along with a heartbeat, a counter it increments every few
+ * seconds. The cluster lock is only held while the record is read and written, never for as long as a node leads, so
+ * a node that dies holding leadership does not hold up the others. A node takes over once the heartbeat has not
+ * changed for the length of the lease, measured on its own clock, so the clocks of the nodes need not agree. The
+ * leader steps down on its own once it has been unable to renew its lease for nearly that long, before any other
+ * node can take over. Each node that takes over starts a new term, which the record counts, so what a node published
+ * while it led can be told apart from what its successor published.
+ * </p>
+ *
+ * @since v2.0
+ */
+public class IndexingLeaderElection {
+    private static final Logger log = LoggerFactory.getLogger(IndexingLeaderElection.class);
+
+    static final String LOCK_NAME = IndexingLeaderElection.class.getName() + ".lock";
+
+    static final String LEADER_KEY = "indexing.leader";
+
+    static final String HEARTBEAT_KEY = "indexing.heartbeat";
+
+    static final String TERM_KEY = "indexing.term";
+
+    /**
+     * System property with the number of seconds between two heartbeats of the leader, and between two checks of
+     * the other nodes.
+     */
+    public static final String HEARTBEAT_PROPERTY = "jira.plugins.subversion.leader.heartbeat";
+    private static final long DEFAULT_HEARTBEAT = 3;
+
+    /**
+     * System property with the number of seconds the heartbeat of the leader must stay unchanged before another node
+     * takes over. It is at least twice the heartbeat.
+     */
+    public static final String LEASE_PROPERTY = "jira.plugins.subversion.leader.lease";
+    private static final long DEFAULT_LEASE = 15;
+
+    /**
+     * Told each time this node gains or loses leadership, on a thread of its own so a slow change of role never holds
+     * up the heartbeat and costs the lease. A change undone before the listener got to it is not told.
+     */
+    public interface Listener {
+        void leadershipChanged(boolean leader);
+    }
+
+    private final ClusterLockService clusterLockService;
+    private final JiraPropertySetFactory jiraPropertySetFactory;
+    private final Listener listener;
+    private final String nodeId;
+    private final long heartbeatInterval;
+    private final long lease;
+
+    private volatile boolean leader;
+    // the term this node leads in, and the heartbeat it last wrote; only written holding the cluster lock
+    private volatile long term = -1;
+    private volatile long renewedHeartbeat;
+    // only touched by the election thread, or by the caller of heartbeat(long) in tests
+    private long lastRenewal;
+    private String observedLeader;
+    private long observedHeartbeat;
+    private long observedAt;
+
+    private final Executor listenerExecutor;
+    // only touched by the listener thread
+    private boolean notifiedLeader;
+
+    private ScheduledExecutorService executor;
+
+    public IndexingLeaderElection(ClusterLockService clusterLockService, JiraPropertySetFactory jiraPropertySetFactory, Listener listener) {
+        this(clusterLockService, jiraPropertySetFactory, listener, createNodeId(),
+                TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong(HEARTBEAT_PROPERTY, DEFAULT_HEARTBEAT))),
+                TimeUnit.SECONDS.toMillis(Math.max(1, Long.getLong(LEASE_PROPERTY, DEFAULT_LEASE))),
+                createListenerExecutor());
+    }
+
+    IndexingLeaderElection(ClusterLockService clusterLockService, JiraPropertySetFactory jiraPropertySetFactory, Listener listener,
+                           String nodeId, long heartbeatInterval, long lease, Executor listenerExecutor) {
+        this.clusterLockService = clusterLockService;
+        this.jiraPropertySetFactory = jiraPropertySetFactory;
+        this.listener = listener;
+        this.nodeId = nodeId;
+        this.heartbeatInterval = heartbeatInterval;
+        this.lease = Math.max(2 * heartbeatInterval, lease);
+        this.listenerExecutor = listenerExecutor;
+    }
+
+    /**
+     * @return a single thread, so the listener is told of the changes in order. It times out when idle, so a node
+     * whose role does not change holds none.
+     */
+    static Executor createListenerExecutor() {
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "subversion-leader-change");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * @return the host name, made unique to this run of the plugin, so a restarted node does not mistake the lease
+     * of its previous run for its own.
+     */
+    private static String createNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "unknown";
+        }
+        return host + "/" + UUID.randomUUID();
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "subversion-leader-election");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                heartbeat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+            }
+        }, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
+        log.info("Electing the node indexing the Subversion repositories as " + nodeId);
+    }
+
+    /**
+     * Stops taking part in the election. The leader gives up its lease, so another node takes over on its next
+     * check rather than once the lease has run out, and the listener is told before this returns, unless it takes
+     * longer than the lease.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (executor == null) {
+                return;
+            }
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(heartbeatInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+        resign();
+        awaitListener();
+    }
+
+    private void awaitListener() {
+        final FutureTask<Void> told = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                // the changes are told in order, so they all have been once this runs
+            }
+        }, null);
+        try {
+            listenerExecutor.execute(told);
+            told.get(lease, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the task does nothing, so it cannot fail
+        } catch (TimeoutException e) {
+            log.warn("The role of this node in the Subversion indexing is still changing after " + lease + " ms");
+        } catch (RejectedExecutionException e) {
+            log.warn("The role of this node in the Subversion indexing is no longer changed", e);
+        }
+    }
+
+    /**
+     * Renews the lease of this node if it leads, or takes over if the record shows no leader or a heartbeat that
+     * has not changed for the length of the lease.
+     *
+     * @param now the current time in milliseconds, on a clock that only has to be consistent on this node.
+     */
+    void heartbeat(long now) {
+        boolean elected = leader && now - lastRenewal < lease - heartbeatInterval;
+        try {
+            final Lock lock = clusterLockService.getLockForName(LOCK_NAME);
+            // another node is reading the record, it is read on the next heartbeat
+            if (lock.tryLock()) {
+                try {
+                    elected = elect(now);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to read the leader of the Subversion indexing from the application properties", e);
+        }
+        setLeader(elected);
+    }
+
+    private boolean elect(long now) {
+        final PropertySet propertySet = jiraPropertySetFactory.buildNoncachingPropertySet(MultipleSubversionRepositoryManagerImpl.APP_PROPERTY_PREFIX);
+        final String leaderNode = propertySet.getString(LEADER_KEY);
+        final long heartbeat = propertySet.getLong(HEARTBEAT_KEY);
+        if (!nodeId.equals(leaderNode)) {
+            if (leaderNode != null && (!leaderNode.equals(observedLeader) || heartbeat != observedHeartbeat)) {
+                observedLeader = leaderNode;
+                observedHeartbeat = heartbeat;
+                observedAt = now;
+            }
+            if (leaderNode != null && now - observedAt < lease) {
+                return false;
+            }
+            term = propertySet.getLong(TERM_KEY) + 1;
+            log.info("Taking over the Subversion indexing from " + (leaderNode != null ? leaderNode : "no node") + " in term " + term);
+            propertySet.setString(LEADER_KEY, nodeId);
+            propertySet.setLong(TERM_KEY, term);
+        }
+        propertySet.setLong(HEARTBEAT_KEY, heartbeat + 1);
+        renewedHeartbeat = heartbeat + 1;
+        lastRenewal = now;
+        return true;
+    }
+
+    /**
+     * Confirms with the record in the application properties that this node still leads, rather than relying on
+     * what it found on its last heartbeat: the record must still name this node, in its term, with the heartbeat it
+     * last wrote.
+     *
+     * @return the term this node leads in, or <tt>-1</tt> if it no longer leads.
+     */
+    public long confirmLeadership() {
+        if (!leader) {
+            return -1;
+        }
+        try {
+            final Lock lock = clusterLockService.getLockForName(LOCK_NAME);
+            lock.lock();
+            try {
+                final PropertySet propertySet = jiraPropertySetFactory.buildNoncachingPropertySet(MultipleSubversionRepositoryManagerImpl.APP_PROPERTY_PREFIX);
+                if (leader && nodeId.equals(propertySet.getString(LEADER_KEY)) && propertySet.getLong(TERM_KEY) == term
+                        && propertySet.getLong(HEARTBEAT_KEY) == renewedHeartbeat) {
+                    return term;
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to read the leader of the Subversion indexing from the application properties", e);
+        }
+        return -1;
+    }
+
+    private void resign() {
+        if (!leader) {
+            return;
+        }
+        setLeader(false);
+        try {
+            final Lock lock = clusterLockService.getLockForName(LOCK_NAME);
+            lock.lock();
+            try {
+                final PropertySet propertySet = jiraPropertySetFactory.buildNoncachingPropertySet(MultipleSubversionRepositoryManagerImpl.APP_PROPERTY_PREFIX);
+                if (nodeId.equals(propertySet.getString(LEADER_KEY))) {
+                    propertySet.remove(LEADER_KEY);
+                }
+            } finally {
+                lock.unlock();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Unable to give up the Subversion indexing, another node takes over once the lease has run out", e);
+        }
+    }
+
+    private void setLeader(boolean elected) {
+        if (elected == leader) {
+            return;
+        }
+        leader = elected;
+        if (!elected) {
+            log.info("No longer indexing the Subversion repositories");
+        }
+        try {
+            listenerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    notifyListener();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("Unable to change the role of this node in the Subversion indexing", e);
+        }
+    }
+
+    /**
+     * Tells the listener whether this node leads now, unless it has been told already.
+     */
+    private void notifyListener() {
+        final boolean elected = leader;
+        if (elected == notifiedLeader) {
+            return;
+        }
+        notifiedLeader = elected;
+        try {
+            listener.leadershipChanged(elected);
+        } catch (RuntimeException e) {
+            log.error("Error changing the role of this node in the Subversion indexing", e);
+        }
+    }
+
+    public boolean isLeader() {
+        return leader;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+}
@@ -12,7 +12,9 @@ import org.slf4j.LoggerFactory;
 import java.util.Date;
 
 /**
- * Service responsible for indexing subversion repository
+ * Service responsible for indexing subversion repository. New revisions are normally picked up by the poller of
+ * the revision indexer; this service is the periodic full sweep over all repositories that backs it up.
+ * Each run also resolves a batch of the issue keys that could not be resolved to issue ids when they were indexed.
  *
  * @since v2.0
  **/
@@ -38,6 +40,7 @@ public class UpdateSvnIndexService extends AbstractService {
             final RevisionIndexer revisionIndexer = multipleSubversionRepositoryManager.getRevisionIndexer();
             if (revisionIndexer != null) {
                 revisionIndexer.updateIndex();
+                revisionIndexer.resolveIssueIds();
             } else {
                 logger.warn("Tried to index changes but SubversionManager has no revision indexer.");
             }
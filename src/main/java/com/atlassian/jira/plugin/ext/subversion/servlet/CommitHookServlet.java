@@ -0,0 +1,122 @@
+package com.atlassian.jira.plugin.ext.subversion.servlet;
+
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.SubversionManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.user.ApplicationUser;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Endpoint for Subversion <tt>post-commit</tt> hooks. The hook posts the repository, by its root or its UUID, and
+ * the revision just committed (or a <tt>from</tt>/<tt>to</tt> range), and the revisions are indexed right away
+ * instead of waiting for the next run of the indexing service. For example:
+ * <pre>
+ * curl -u user:password -d repository=$(svnlook uuid "$REPOS") -d revision="$REV" \
+ *     https://jira.example.com/plugins/servlet/svn/commit
+ * </pre>
+ * Only administrators may call it. The indexing happens in the background, so the hook does not hold up the commit.
+ * When the index is replicated, only the node publishing it indexes the repositories; any other node answers with
+ * <tt>503</tt> so the hook can retry, or be pointed at the publishing node.
+ */
+public class CommitHookServlet extends HttpServlet {
+    private final static Logger log = LoggerFactory.getLogger(CommitHookServlet.class);
+
+    static final String PARAM_REPOSITORY = "repository";
+    static final String PARAM_REVISION = "revision";
+    static final String PARAM_FROM = "from";
+    static final String PARAM_TO = "to";
+
+    /**
+     * The largest range a hook may ask for; anything bigger is left to the indexing service.
+     */
+    static final long MAX_REVISIONS = 1000;
+
+    private final MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+    private final JiraAuthenticationContext authenticationContext;
+    private final PermissionManager permissionManager;
+
+    public CommitHookServlet(MultipleSubversionRepositoryManager multipleSubversionRepositoryManager, JiraAuthenticationContext authenticationContext, PermissionManager permissionManager) {
+        this.multipleSubversionRepositoryManager = multipleSubversionRepositoryManager;
+        this.authenticationContext = authenticationContext;
+        this.permissionManager = permissionManager;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        final ApplicationUser user = authenticationContext.getLoggedInUser();
+        if (user == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED);
+            return;
+        }
+        if (!permissionManager.hasPermission(Permissions.ADMINISTER, user)) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+        if (!multipleSubversionRepositoryManager.isIndexingRevisions()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Revision indexing is not running.");
+            return;
+        }
+
+        final RevisionIndexer revisionIndexer = multipleSubversionRepositoryManager.getRevisionIndexer();
+        if (revisionIndexer.isReplica()) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "This node does not index the repositories, retry on the node publishing the revision index.");
+            return;
+        }
+
+        final String repository = StringUtils.trimToNull(request.getParameter(PARAM_REPOSITORY));
+        final long fromRevision;
+        final long toRevision;
+        try {
+            final String revision = request.getParameter(PARAM_REVISION);
+            fromRevision = Long.parseLong(StringUtils.trim(revision != null ? revision : request.getParameter(PARAM_FROM)));
+            toRevision = Long.parseLong(StringUtils.trim(revision != null ? revision : request.getParameter(PARAM_TO)));
+        } catch (NumberFormatException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a revision, or a from and to revision.");
+            return;
+        }
+        if (repository == null || fromRevision < 0 || toRevision < fromRevision || toRevision - fromRevision >= MAX_REVISIONS) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a repository and at most " + MAX_REVISIONS + " revisions.");
+            return;
+        }
+
+        final SubversionManager subversionManager = findRepository(repository);
+        if (subversionManager == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "No repository with root or UUID " + repository);
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Post-commit hook for repository=" + subversionManager.getId() + ", revisions " + fromRevision + " to " + toRevision);
+        }
+        revisionIndexer.indexRevisions(subversionManager, fromRevision, toRevision);
+        response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    /**
+     * Looks the repository up by its root first, so the UUID is only fetched from the server when needed.
+     */
+    private SubversionManager findRepository(String rootOrUuid) {
+        final String root = StringUtils.removeEnd(rootOrUuid, "/");
+        for (SubversionManager subversionManager : multipleSubversionRepositoryManager.getRepositoryList()) {
+            if (root.equals(StringUtils.removeEnd(subversionManager.getRoot(), "/"))) {
+                return subversionManager;
+            }
+        }
+        for (SubversionManager subversionManager : multipleSubversionRepositoryManager.getRepositoryList()) {
+            if (rootOrUuid.equalsIgnoreCase(subversionManager.getRepositoryUUID())) {
+                return subversionManager;
+            }
+        }
+        return null;
+    }
+}
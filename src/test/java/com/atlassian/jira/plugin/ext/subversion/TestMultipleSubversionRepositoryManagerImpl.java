@@ -178,6 +178,7 @@ public class TestMultipleSubversionRepositoryManagerImpl {
     public void checkIfListenersAreRemoved() throws Exception {
         multipleSubversionRepositoryManager.destroy();
         verify(indexMessageService, atMost(1)).unregisterListeners();
+        verify(revisionIndexer).stop();
     }
 
 }
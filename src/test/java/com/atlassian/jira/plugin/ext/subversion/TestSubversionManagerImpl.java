@@ -4,12 +4,30 @@ import com.opensymphony.module.propertyset.PropertySet;
 import com.opensymphony.module.propertyset.memory.MemoryPropertySet;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
+import org.jmock.core.Constraint;
+import org.jmock.core.Invocation;
+import org.jmock.core.stub.CustomStub;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.io.ISVNSession;
 import org.tmatesoft.svn.core.io.SVNRepository;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests the SubversionManagerImpl.
@@ -61,6 +79,180 @@ public class TestSubversionManagerImpl extends MockObjectTestCase {
         assertTrue(subversionManager.isActive());
     }
 
+    public void testLogEntriesOfNearbyRevisionsAreRetrievedTogether() {
+        mockSVNRepository.expects(once()).method("setAuthenticationManager").withAnyArguments();
+        mockSVNRepository.expects(once()).method("testConnection").withNoArguments();
+        mockSVNRepository.expects(once()).method("log")
+                .with(new Constraint[]{ANYTHING, eq(3L), eq(10L), eq(true), eq(true), ANYTHING})
+                .will(new LogEntriesStub())
+                .id("first range");
+        mockSVNRepository.expects(once()).method("log")
+                .with(new Constraint[]{ANYTHING, eq(100L), eq(100L), eq(true), eq(true), ANYTHING})
+                .after("first range")
+                .will(new LogEntriesStub());
+
+        subversionManager = new SubversionManagerImpl(1l, propertySet) {
+            @Override
+            SVNURL parseSvnUrl() throws SVNException {
+                return null;
+            }
+
+            @Override
+            SVNRepository createRepository(SVNURL url) throws SVNException {
+                return (SVNRepository) mockSVNRepository.proxy();
+            }
+        };
+
+        Map<Long, SVNLogEntry> logEntries = subversionManager.getLogEntries(new HashSet<Long>(Arrays.asList(3L, 4L, 10L, 100L)));
+        assertEquals(new HashSet<Long>(Arrays.asList(3L, 4L, 10L, 100L)), logEntries.keySet());
+        assertEquals(100L, logEntries.get(100L).getRevision());
+
+        /* Cached now, so no more requests */
+        assertSame(logEntries.get(4L), subversionManager.getLogEntries(Collections.singleton(4L)).get(4L));
+    }
+
+    public void testCachedLogEntryIsReadWhileIndexingStreamsTheLog() throws Exception {
+        mockSVNRepository.expects(atLeastOnce()).method("setAuthenticationManager").withAnyArguments();
+        mockSVNRepository.expects(once()).method("testConnection").withNoArguments();
+        mockSVNRepository.expects(atLeastOnce()).method("log")
+                .with(new Constraint[]{ANYTHING, isA(Long.class), isA(Long.class), eq(true), eq(true), ANYTHING})
+                .will(new LogEntriesStub());
+
+        subversionManager = new SubversionManagerImpl(1l, propertySet) {
+            @Override
+            SVNURL parseSvnUrl() throws SVNException {
+                return null;
+            }
+
+            @Override
+            SVNRepository createRepository(SVNURL url) throws SVNException {
+                return (SVNRepository) mockSVNRepository.proxy();
+            }
+        };
+        final SVNLogEntry cached = subversionManager.getLogEntry(4L);
+
+        /* The indexer is stuck in the middle of the log */
+        final CountDownLatch indexing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread indexer = new Thread() {
+            public void run() {
+                try {
+                    subversionManager.getLogEntries(0L, 10L, new SvnEntryHandler() {
+                        public void handle(SVNLogEntry logEntry) {
+                            indexing.countDown();
+                            try {
+                                release.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        }
+                    });
+                } catch (SVNException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        indexer.start();
+        assertTrue(indexing.await(10, TimeUnit.SECONDS));
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<SVNLogEntry> read = reader.submit(new Callable<SVNLogEntry>() {
+                public SVNLogEntry call() {
+                    return subversionManager.getLogEntry(4L);
+                }
+            });
+            assertSame(cached, read.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            indexer.join();
+            reader.shutdownNow();
+        }
+    }
+
+    public void testBrokenSessionIsReplacedWithoutDeactivatingTheRepository() {
+        mockSVNRepository.expects(once()).method("setAuthenticationManager").withAnyArguments();
+        mockSVNRepository.expects(once()).method("testConnection").withNoArguments();
+        mockSVNRepository.expects(once()).method("getLatestRevision").withNoArguments()
+                .will(throwException(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR, "Connection reset"))));
+        mockSVNRepository.expects(once()).method("closeSession").withNoArguments();
+
+        final Mock newSVNRepository = mock(TestSVNRepository.class,
+                new Class[]{SVNURL.class, ISVNSession.class},
+                new Object[]{null, null});
+        newSVNRepository.expects(once()).method("setAuthenticationManager").withAnyArguments();
+        newSVNRepository.expects(once()).method("getLatestRevision").withNoArguments().will(returnValue(42L));
+
+        subversionManager = new SubversionManagerImpl(1l, propertySet) {
+            private boolean created;
+
+            @Override
+            SVNURL parseSvnUrl() throws SVNException {
+                return null;
+            }
+
+            @Override
+            SVNRepository createRepository(SVNURL url) throws SVNException {
+                final Mock session = created ? newSVNRepository : mockSVNRepository;
+                created = true;
+                return (SVNRepository) session.proxy();
+            }
+        };
+
+        assertEquals(42L, subversionManager.getLatestRevision());
+        assertTrue(subversionManager.isActive());
+    }
+
+    public void testFailedLogStreamIsReportedWithoutDeactivatingTheRepository() {
+        mockSVNRepository.expects(once()).method("setAuthenticationManager").withAnyArguments();
+        mockSVNRepository.expects(once()).method("testConnection").withNoArguments();
+        mockSVNRepository.expects(once()).method("log").withAnyArguments()
+                .will(throwException(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR, "Connection reset"))));
+        mockSVNRepository.expects(once()).method("closeSession").withNoArguments();
+
+        subversionManager = new SubversionManagerImpl(1l, propertySet) {
+            @Override
+            SVNURL parseSvnUrl() throws SVNException {
+                return null;
+            }
+
+            @Override
+            SVNRepository createRepository(SVNURL url) throws SVNException {
+                return (SVNRepository) mockSVNRepository.proxy();
+            }
+        };
+
+        try {
+            subversionManager.getLogEntries(0L, 10L, new SvnEntryHandler() {
+                public void handle(SVNLogEntry logEntry) {
+                }
+            });
+            fail("The caller has to know the log is incomplete");
+        } catch (SVNException e) {
+            assertEquals(SVNErrorCode.RA_SVN_IO_ERROR, e.getErrorMessage().getErrorCode());
+        }
+        assertTrue(subversionManager.isActive());
+    }
+
+    /**
+     * Hands one log entry for each revision of the requested range to the handler.
+     */
+    private static class LogEntriesStub extends CustomStub {
+        LogEntriesStub() {
+            super("hands the log entries of the range to the handler");
+        }
+
+        public Object invoke(Invocation invocation) throws Throwable {
+            long start = (Long) invocation.parameterValues.get(1);
+            long end = (Long) invocation.parameterValues.get(2);
+            ISVNLogEntryHandler handler = (ISVNLogEntryHandler) invocation.parameterValues.get(5);
+            for (long revision = start; revision <= end; revision++) {
+                handler.handleLogEntry(new SVNLogEntry(Collections.EMPTY_MAP, revision, "dchui", new Date(), "Commit " + revision));
+            }
+            return end - start + 1;
+        }
+    }
+
     public void testIndexingOff() {
 
         propertySet.setString(MultipleSubversionRepositoryManager.SVN_ROOT_KEY, "/root/repo");
@@ -0,0 +1,149 @@
+package com.atlassian.jira.plugin.ext.subversion;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestSvnSessionPool {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Mock
+    private SvnSessionPool.SessionFactory factory;
+    @Mock
+    private SVNRepository first;
+    @Mock
+    private SVNRepository second;
+
+    @Test
+    public void releasedSessionIsReusedWithoutTestingIt() throws SVNException {
+        when(factory.create()).thenReturn(first, second);
+        SvnSessionPool pool = new SvnSessionPool(factory, 2, HOUR, HOUR, 0);
+
+        pool.release(pool.borrow());
+        assertSame(first, pool.borrow());
+
+        verify(factory, times(1)).create();
+        verify(first, never()).testConnection();
+        assertEquals(1, pool.getBorrowedCount());
+    }
+
+    @Test
+    public void brokenIdleSessionIsReplaced() throws SVNException {
+        when(factory.create()).thenReturn(first, second);
+        doThrow(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR, "Connection reset")))
+                .when(first).testConnection();
+        SvnSessionPool pool = new SvnSessionPool(factory, 2, HOUR, 0, 0);
+
+        pool.release(pool.borrow());
+        assertSame(second, pool.borrow());
+
+        verify(first).closeSession();
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void sessionsIdleForTooLongAreClosed() throws SVNException {
+        when(factory.create()).thenReturn(first, second);
+        SvnSessionPool pool = new SvnSessionPool(factory, 2, 0, HOUR, 0);
+
+        pool.release(pool.borrow());
+        assertSame(second, pool.borrow());
+
+        verify(first).closeSession();
+    }
+
+    @Test
+    public void idleSessionsAreClosedWithoutAnotherBorrow() throws SVNException {
+        when(factory.create()).thenReturn(first);
+        final ScheduledThreadPoolExecutor evictor = new ScheduledThreadPoolExecutor(1);
+        evictor.setRemoveOnCancelPolicy(true);
+        try {
+            SvnSessionPool pool = new SvnSessionPool(factory, 2, 200, HOUR, 0, evictor);
+
+            pool.release(pool.borrow());
+            assertEquals(1, pool.getIdleCount());
+
+            verify(first, timeout(5000)).closeSession();
+            assertEquals(0, pool.getIdleCount());
+
+            /* Closing the pool stops the eviction */
+            pool.close();
+            assertEquals(0, evictor.getQueue().size());
+        } finally {
+            evictor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void borrowingFailsWhenAllSessionsAreInUse() throws SVNException {
+        when(factory.create()).thenReturn(first, second);
+        SvnSessionPool pool = new SvnSessionPool(factory, 1, HOUR, HOUR, 10);
+
+        SVNRepository session = pool.borrow();
+        try {
+            pool.borrow();
+            fail("Only one session may be open");
+        } catch (SVNException expected) {
+        }
+
+        pool.invalidate(session);
+        assertSame(second, pool.borrow());
+    }
+
+    @Test
+    public void failedSessionDoesNotTakeUpThePool() throws SVNException {
+        when(factory.create())
+                .thenThrow(new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR, "Connection refused")))
+                .thenReturn(first);
+        SvnSessionPool pool = new SvnSessionPool(factory, 1, HOUR, HOUR, 10);
+
+        try {
+            pool.borrow();
+            fail("The session could not be opened");
+        } catch (SVNException expected) {
+        }
+        assertSame(first, pool.borrow());
+    }
+
+    @Test
+    public void closingThePoolClosesIdleAndReturnedSessions() throws SVNException {
+        when(factory.create()).thenReturn(first, second);
+        SvnSessionPool pool = new SvnSessionPool(factory, 2, HOUR, HOUR, 0);
+
+        SVNRepository borrowed = pool.borrow();
+        pool.release(pool.borrow());
+        pool.close();
+        verify(second).closeSession();
+        verify(first, never()).closeSession();
+
+        pool.release(borrowed);
+        verify(first).closeSession();
+        assertEquals(0, pool.getIdleCount());
+
+        try {
+            pool.borrow();
+            fail("A closed pool hands out no sessions");
+        } catch (SVNException expected) {
+        }
+    }
+}
@@ -7,6 +7,7 @@ import com.atlassian.jira.issue.IssueManager;
 import com.atlassian.jira.issue.changehistory.ChangeHistoryManager;
 import com.atlassian.jira.issue.tabpanels.GenericMessageAction;
 import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.LogEntryPage;
 import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
 import com.atlassian.jira.project.version.VersionManager;
 import com.atlassian.jira.security.PermissionManager;
@@ -15,6 +16,7 @@ import com.atlassian.jira.util.EasyList;
 import com.atlassian.jira.util.velocity.VelocityRequestContextFactory;
 import com.atlassian.plugin.webresource.WebResourceManager;
 import org.jmock.Mock;
+import org.jmock.core.Constraint;
 import org.jmock.cglib.MockObjectTestCase;
 import org.tmatesoft.svn.core.SVNLogEntry;
 
@@ -36,6 +38,8 @@ public class TestSubversionRevisionsTabPanel extends MockObjectTestCase {
 
     private Mock mockVelocityRequestContextFactory;
 
+    private String lastActionCursor;
+
     SubversionRevisionsTabPanel getSubversionRevisionsTabPanel() {
         SubversionRevisionsTabPanel subversionRevisionsTabPanel;
 
@@ -59,7 +63,8 @@ public class TestSubversionRevisionsTabPanel extends MockObjectTestCase {
             }
 
             @Override
-            SubversionRevisionAction createLastSubversionRevisionActionInPage(long repoId, SVNLogEntry logEntry) {
+            SubversionRevisionAction createLastSubversionRevisionActionInPage(long repoId, SVNLogEntry logEntry, String nextCursor) {
+                lastActionCursor = nextCursor;
                 return createSubversionRevisionAction(repoId, logEntry);
             }
 
@@ -123,7 +128,7 @@ public class TestSubversionRevisionsTabPanel extends MockObjectTestCase {
         issue = (Issue) mockIssue.proxy();
 
         mockRevisionIndexer.reset();
-        mockRevisionIndexer.expects(once()).method("getLogEntriesByRepository").with(same(issue), eq(0), ANYTHING, ANYTHING).will(returnValue(null));
+        mockRevisionIndexer.expects(once()).method("getLogEntryPageByRepository").with(new Constraint[]{same(issue), NULL, ANYTHING, ANYTHING, ANYTHING}).will(returnValue(null));
         revisionIndexer = (RevisionIndexer) mockRevisionIndexer.proxy();
 
         mockMultipleSubversionRepositoryManager.reset();
@@ -151,7 +156,7 @@ public class TestSubversionRevisionsTabPanel extends MockObjectTestCase {
         issue = (Issue) mockIssue.proxy();
 
         mockRevisionIndexer.reset();
-        mockRevisionIndexer.expects(once()).method("getLogEntriesByRepository").with(same(issue), eq(0), ANYTHING, ANYTHING).will(returnValue(Collections.EMPTY_MAP));
+        mockRevisionIndexer.expects(once()).method("getLogEntryPageByRepository").with(new Constraint[]{same(issue), NULL, ANYTHING, ANYTHING, ANYTHING}).will(returnValue(new LogEntryPage(Collections.EMPTY_MAP, null)));
         revisionIndexer = (RevisionIndexer) mockRevisionIndexer.proxy();
 
         mockMultipleSubversionRepositoryManager.reset();
@@ -179,11 +184,11 @@ public class TestSubversionRevisionsTabPanel extends MockObjectTestCase {
         issue = (Issue) mockIssue.proxy();
 
         mockRevisionIndexer.reset();
-        mockRevisionIndexer.expects(once()).method("getLogEntriesByRepository").with(same(issue), eq(0), ANYTHING, ANYTHING).will(returnValue(
+        mockRevisionIndexer.expects(once()).method("getLogEntryPageByRepository").with(new Constraint[]{same(issue), NULL, ANYTHING, ANYTHING, ANYTHING}).will(returnValue(new LogEntryPage(
                 EasyMap.build(
                         1L, EasyList.build(new SVNLogEntry(null, 1, "dchui", new Date(), "foobar")),
                         2L, EasyList.build(new SVNLogEntry(null, 1, "dchui", new Date(), "foobar"))
-                )
+                ), null)
         ));
         revisionIndexer = (RevisionIndexer) mockRevisionIndexer.proxy();
 
@@ -201,6 +206,28 @@ public class TestSubversionRevisionsTabPanel extends MockObjectTestCase {
         assertTrue(SubversionRevisionAction.class.isAssignableFrom(actions.get(1).getClass()));
     }
 
+    public void testGetActionsMarksLastActionWithCursorOfNextPage() {
+        Mock mockIssue = new Mock(Issue.class);
+        mockIssue.expects(once()).method("getKey").withNoArguments().will(returnValue("TST-1"));
+        Issue issue = (Issue) mockIssue.proxy();
+
+        mockRevisionIndexer.reset();
+        mockRevisionIndexer.expects(once()).method("getLogEntryPageByRepository").with(new Constraint[]{same(issue), NULL, ANYTHING, ANYTHING, ANYTHING}).will(returnValue(new LogEntryPage(
+                EasyMap.build(1L, EasyList.build(new SVNLogEntry(null, 2, "dchui", new Date(), "foobar"), new SVNLogEntry(null, 1, "dchui", new Date(), "foobar"))),
+                "next")
+        ));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(once()).method("getRevisionIndexer").withNoArguments().will(returnValue(mockRevisionIndexer.proxy()));
+
+        mockWebResourceManager.expects(once()).method("requireResource").with(ANYTHING);
+
+        /* The whole page is shown, the 'More' button asks for the page after it */
+        List actions = getSubversionRevisionsTabPanel().getActions(issue, null);
+        assertEquals(2, actions.size());
+        assertEquals("next", lastActionCursor);
+    }
+
     public void testShowPanelWhenMultipleSubversionManagerIsNotIndexing() {
         SubversionRevisionsTabPanel subversionRevisionsTabPanel;
 
@@ -0,0 +1,186 @@
+package com.atlassian.jira.plugin.ext.subversion.messages;
+
+import com.atlassian.cache.CachedReference;
+import com.atlassian.jira.cluster.ClusterMessageConsumer;
+import com.atlassian.jira.cluster.ClusterMessagingService;
+import com.atlassian.jira.plugin.ext.subversion.SubversionManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestDefaultIndexMessageService {
+    private static final String CHANNEL = "INDEX_CHANNEL";
+
+    @Mock
+    private ClusterMessagingService clusterMessagingService;
+    @Mock
+    private RevisionIndexer revisionIndexer;
+    @Mock
+    private CachedReference<Map<Long, SubversionManager>> cachedSvnManagers;
+    @Mock
+    private SubversionManager subversionManager;
+
+    private DefaultIndexMessageService indexMessageService;
+    private ClusterMessageConsumer consumer;
+
+    @Before
+    public void setUp() {
+        when(cachedSvnManagers.get()).thenReturn(ImmutableMap.of(1L, subversionManager, 2L, subversionManager, 3L, subversionManager));
+        indexMessageService = new DefaultIndexMessageService(clusterMessagingService, revisionIndexer, cachedSvnManagers);
+        indexMessageService.registerListeners();
+        final ArgumentCaptor<ClusterMessageConsumer> captor = ArgumentCaptor.forClass(ClusterMessageConsumer.class);
+        verify(clusterMessagingService).registerListener(eq(CHANNEL), captor.capture());
+        consumer = captor.getValue();
+    }
+
+    @After
+    public void tearDown() {
+        indexMessageService.unregisterListeners();
+    }
+
+    @Test
+    public void messagesReceivedWhileBusyAreCoalescedPerRepository() throws Exception {
+        final CountDownLatch indexing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                indexing.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(revisionIndexer).addRepositories(Collections.singletonList(1L));
+
+        /* The receiving thread returns while the first repository is still being indexed */
+        consumer.receive(CHANNEL, "ADD_INDEX|1", "node1");
+        assertTrue(indexing.await(10, TimeUnit.SECONDS));
+
+        consumer.receive(CHANNEL, "ADD_INDEX|2", "node1");
+        consumer.receive(CHANNEL, "ADD_INDEX|3", "node1");
+        consumer.receive(CHANNEL, "ADD_INDEX|2", "node2");
+        consumer.receive(CHANNEL, "REMOVE_INDEX|3", "node2");
+        assertThat(indexMessageService.getMetrics().getQueueDepth(), is(2));
+        release.countDown();
+
+        // not verify(timeout()), which fails at once on the earlier call with different arguments
+        for (int i = 0; i < 1000 && indexMessageService.getMetrics().getProcessedCount() < 3; i++) {
+            Thread.sleep(10);
+        }
+        verify(revisionIndexer).removeEntries(3L);
+        verify(revisionIndexer).addRepositories(Arrays.asList(2L));
+        verify(revisionIndexer, never()).addRepositories(Arrays.asList(2L, 3L));
+
+        final IndexMessageMetrics metrics = indexMessageService.getMetrics();
+        assertThat(metrics.getReceivedCount(), is(5L));
+        assertThat(metrics.getCoalescedCount(), is(2L));
+        assertThat(metrics.getMaxQueueDepth(), is(2));
+    }
+
+    @Test
+    public void messagesAreActedOnAfterTheListenersAreRegisteredAgain() throws Exception {
+        indexMessageService.unregisterListeners();
+        indexMessageService.registerListeners();
+
+        consumer.receive(CHANNEL, "REMOVE_INDEX|1", "node1");
+
+        verify(revisionIndexer, timeout(5000)).removeEntries(1L);
+    }
+
+    @Test
+    public void snapshotsPublishedWhileBusyAreCopiedOnce() throws Exception {
+        final CountDownLatch indexing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                indexing.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(revisionIndexer).addRepositories(Collections.singletonList(1L));
+
+        consumer.receive(CHANNEL, "ADD_INDEX|1", "node1");
+        assertTrue(indexing.await(10, TimeUnit.SECONDS));
+
+        consumer.receive(CHANNEL, "INDEX_PUBLISHED|7", "node1");
+        consumer.receive(CHANNEL, "INDEX_PUBLISHED|8", "node1");
+        consumer.receive(CHANNEL, "ADD_INDEX|2", "node1");
+        assertThat(indexMessageService.getMetrics().getQueueDepth(), is(2));
+        release.countDown();
+
+        for (int i = 0; i < 1000 && indexMessageService.getMetrics().getProcessedCount() < 3; i++) {
+            Thread.sleep(10);
+        }
+        verify(revisionIndexer).copyPublishedIndex();
+        verify(revisionIndexer).addRepositories(Arrays.asList(2L));
+        assertThat(indexMessageService.getMetrics().getCoalescedCount(), is(1L));
+    }
+
+    @Test
+    public void publishedSnapshotIsAnnounced() {
+        indexMessageService.indexPublished(12L);
+        verify(clusterMessagingService).sendRemote(CHANNEL, "INDEX_PUBLISHED|12");
+    }
+
+    @Test
+    public void permissionChangesAreSentAndInvalidatedOnReceipt() {
+        indexMessageService.permissionsChanged(Arrays.asList("TST", "OLD"));
+        verify(clusterMessagingService).sendRemote(CHANNEL, "PERMISSIONS_CHANGED|TST,OLD");
+        indexMessageService.permissionsChanged(null);
+        verify(clusterMessagingService).sendRemote(CHANNEL, "PERMISSIONS_CHANGED|*");
+
+        /* Acted on by the receiving thread */
+        consumer.receive(CHANNEL, "PERMISSIONS_CHANGED|TST,OLD", "node1");
+        verify(revisionIndexer).invalidatePermissions(Arrays.asList("TST", "OLD"));
+        consumer.receive(CHANNEL, "PERMISSIONS_CHANGED|*", "node1");
+        verify(revisionIndexer).invalidatePermissions((Collection<String>) null);
+    }
+
+    @Test
+    public void failureIsCountedAndLaterMessagesStillProcessed() throws Exception {
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                throw new IllegalStateException("index is locked");
+            }
+        }).when(revisionIndexer).removeEntries(1L);
+
+        consumer.receive(CHANNEL, "REMOVE_INDEX|1", "node1");
+        verify(revisionIndexer, timeout(10000)).removeEntries(1L);
+        consumer.receive(CHANNEL, "ADD_INDEX|2", "node1");
+        verify(revisionIndexer, timeout(10000)).addRepositories(anyCollectionOf(Long.class));
+
+        for (int i = 0; i < 100 && indexMessageService.getMetrics().getProcessedCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(indexMessageService.getMetrics().getFailedCount(), is(1L));
+        assertThat(indexMessageService.getMetrics().getProcessedCount(), is(2L));
+    }
+}
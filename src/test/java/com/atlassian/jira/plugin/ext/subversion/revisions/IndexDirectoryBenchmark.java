@@ -0,0 +1,191 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.jira.config.util.IndexPathManager;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.issue.changehistory.ChangeHistoryManager;
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.project.version.VersionManager;
+import com.atlassian.jira.security.PermissionManager;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.FieldCache;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Compares the query latency of the {@link IndexDirectoryFactory.Mode directory modes} on a generated index that
+ * looks like a busy installation: thousands of revisions spread over a few repositories, most of them mentioning
+ * one or two issues of a few dozen projects, each with a handful of changed paths.
+ * <p>
+ * Not a unit test. Run it with a 64 bit JVM and enough heap for the RAM mode, for example:
+ * <pre>
+ * java -Dbenchmark.revisions=500000 -Dbenchmark.threads=8 -cp ... IndexDirectoryBenchmark
+ * </pre>
+ * Each mode runs the queries of the issue and project tabs, sorted by date and loading the stored fields of the
+ * first page, from several threads after a warm-up, and reports the mean and percentile latencies.
+ */
+public class IndexDirectoryBenchmark {
+    private static final int PROJECTS = 40;
+    private static final int ISSUES_PER_PROJECT = 2000;
+    private static final int REPOSITORIES = 4;
+
+    private final int revisions = Integer.getInteger("benchmark.revisions", 200000);
+    private final int threads = Integer.getInteger("benchmark.threads", 4);
+    private final int queries = Integer.getInteger("benchmark.queries", 20000);
+    private final int warmUp = Integer.getInteger("benchmark.warmUp", 5000);
+    private final Random random = new Random(42);
+
+    public static void main(String[] args) throws Exception {
+        new IndexDirectoryBenchmark().run();
+    }
+
+    private void run() throws Exception {
+        final File root = new File(System.getProperty("java.io.tmpdir"), "subversion-index-benchmark");
+        FileUtils.deleteDirectory(root);
+        final String path = new File(root, "index").getAbsolutePath();
+        try {
+            System.out.println("Indexing " + revisions + " revisions...");
+            buildIndex(path);
+            System.out.println(String.format("%-9s %10s %10s %10s %10s", "mode", "mean ms", "p50 ms", "p99 ms", "max ms"));
+            final Directory onDisk = new IndexDirectoryFactory(IndexDirectoryFactory.Mode.SIMPLEFS, IndexDirectoryFactory.LockMode.SINGLE).getDirectory(path);
+            for (IndexDirectoryFactory.Mode mode : IndexDirectoryFactory.Mode.values()) {
+                final Directory directory = new IndexDirectoryFactory(mode, IndexDirectoryFactory.LockMode.SINGLE).getDirectory(path);
+                if (mode == IndexDirectoryFactory.Mode.RAM) {
+                    Directory.copy(onDisk, directory, false);
+                }
+                report(mode, measure(directory));
+                directory.close();
+            }
+        } finally {
+            FileUtils.deleteDirectory(root);
+        }
+    }
+
+    private void buildIndex(String path) throws IOException {
+        final RevisionIndexer indexer = new RevisionIndexer(mock(MultipleSubversionRepositoryManager.class),
+                mock(VersionManager.class), mock(IssueManager.class), mock(PermissionManager.class),
+                mock(ChangeHistoryManager.class), mock(IndexPathManager.class));
+        final List<String> projectKeys = new ArrayList<String>();
+        for (int i = 0; i < PROJECTS; i++) {
+            projectKeys.add(projectKey(i));
+        }
+        indexer.setIssueKeyMatcher(new IssueKeyMatcher(projectKeys));
+
+        final IndexWriter writer = new DefaultLuceneIndexAccessor(new IndexDirectoryFactory(IndexDirectoryFactory.Mode.SIMPLEFS, IndexDirectoryFactory.LockMode.SINGLE))
+                .getIndexWriter(path, true, RevisionIndexer.ANALYZER);
+        try {
+            final long start = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(3650);
+            for (int revision = 1; revision <= revisions; revision++) {
+                final StringBuilder message = new StringBuilder("Fixed ").append(issueKey());
+                if (random.nextInt(4) == 0) {
+                    message.append(" and ").append(issueKey());
+                }
+                message.append(": reworked the handling of the request parameters");
+                final Map<String, SVNLogEntryPath> paths = new HashMap<String, SVNLogEntryPath>();
+                for (int i = random.nextInt(8); i >= 0; i--) {
+                    final String changed = "/trunk/src/main/java/com/example/module" + random.nextInt(50) + "/Class" + random.nextInt(500) + ".java";
+                    paths.put(changed, new SVNLogEntryPath(changed, 'M', null, -1, SVNNodeKind.FILE));
+                }
+                final Date date = new Date(start + revision * 60000L);
+                final Document doc = indexer.getDocument(random.nextInt(REPOSITORIES) + 1,
+                        new SVNLogEntry(paths, revision, "developer" + random.nextInt(100), date, message.toString()));
+                writer.addDocument(doc);
+            }
+            writer.optimize(10);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private List<Long> measure(final Directory directory) throws Exception {
+        final IndexSearcher searcher = new IndexSearcher(IndexReader.open(directory));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            runQueries(searcher, executor, warmUp);
+            return runQueries(searcher, executor, queries);
+        } finally {
+            executor.shutdown();
+            searcher.getIndexReader().close();
+        }
+    }
+
+    private List<Long> runQueries(final IndexSearcher searcher, ExecutorService executor, int count) throws Exception {
+        final List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(count);
+        for (int i = 0; i < count; i++) {
+            final Query query = i % 4 == 0
+                    ? new TermQuery(new Term(RevisionIndexer.FIELD_PROJECTKEY, projectKey(random.nextInt(PROJECTS))))
+                    : new TermQuery(new Term(RevisionIndexer.FIELD_ISSUEKEY, issueKey()));
+            tasks.add(new Callable<Long>() {
+                public Long call() throws IOException {
+                    final long start = System.nanoTime();
+                    final TopDocs hits = searcher.search(query, null, RevisionIndexer.MAX_REVISIONS,
+                            new Sort(new SortField(RevisionIndexer.FIELD_DATE, FieldCache.NUMERIC_UTILS_LONG_PARSER, true)));
+                    for (ScoreDoc scoreDoc : hits.scoreDocs) {
+                        searcher.doc(scoreDoc.doc);
+                    }
+                    return System.nanoTime() - start;
+                }
+            });
+        }
+        final List<Long> latencies = new ArrayList<Long>(count);
+        for (Future<Long> latency : executor.invokeAll(tasks)) {
+            latencies.add(latency.get());
+        }
+        return latencies;
+    }
+
+    private static void report(IndexDirectoryFactory.Mode mode, List<Long> latencies) {
+        final Long[] sorted = latencies.toArray(new Long[latencies.size()]);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long latency : sorted) {
+            total += latency;
+        }
+        System.out.println(String.format("%-9s %10.3f %10.3f %10.3f %10.3f", mode.name().toLowerCase(),
+                millis(total / sorted.length), millis(sorted[sorted.length / 2]),
+                millis(sorted[(int) (sorted.length * 0.99)]), millis(sorted[sorted.length - 1])));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private String issueKey() {
+        // a few issues are mentioned far more often than the rest, as in real projects
+        final int issue = (int) (Math.pow(random.nextDouble(), 3) * ISSUES_PER_PROJECT) + 1;
+        return projectKey(random.nextInt(PROJECTS)) + "-" + issue;
+    }
+
+    private static String projectKey(int project) {
+        return "PRJ" + (char) ('A' + project % 26) + (char) ('A' + project / 26);
+    }
+}
@@ -0,0 +1,132 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.jira.util.JiraKeyUtils;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares finding the issue keys of log messages with {@link IssueKeyMatcher} and with {@link JiraKeyUtils}, on
+ * generated messages of a few lines that look like those of a busy installation: most mention one or two issues of a
+ * few hundred projects, some mention none and a few mention a project the matcher does not know.
+ * <p>
+ * Not a unit test. Run it on the classpath of a JIRA instance, as {@link JiraKeyUtils} reads the issue key format of
+ * the instance, for example:
+ * <pre>
+ * java -Dbenchmark.messages=100000 -Dbenchmark.rounds=20 -cp ... IssueKeyMatcherBenchmark
+ * </pre>
+ * Each way runs the checks and the key extraction the indexer makes for each message, after a warm-up, and reports
+ * the mean and percentile time of a round over all messages.
+ */
+public class IssueKeyMatcherBenchmark {
+    private static final String[] WORDS = {"fixed", "the", "handling", "of", "request", "parameters", "reworked",
+            "merged", "from", "trunk", "UTF-8", "review", "comments", "null", "check", "in", "cache", "tests"};
+
+    private final int projects = Integer.getInteger("benchmark.projects", 300);
+    private final int messages = Integer.getInteger("benchmark.messages", 50000);
+    private final int rounds = Integer.getInteger("benchmark.rounds", 20);
+    private final int warmUp = Integer.getInteger("benchmark.warmUp", 5);
+    private final Random random = new Random(42);
+
+    public static void main(String[] args) {
+        new IssueKeyMatcherBenchmark().run();
+    }
+
+    private void run() {
+        final List<String> projectKeys = new ArrayList<String>();
+        for (int i = 0; i < projects; i++) {
+            projectKeys.add(projectKey(i));
+        }
+        final IssueKeyMatcher matcher = new IssueKeyMatcher(projectKeys);
+        final List<String> logMessages = new ArrayList<String>(messages);
+        for (int i = 0; i < messages; i++) {
+            logMessages.add(message());
+        }
+
+        System.out.println(String.format("%-13s %10s %10s %10s %10s", "parser", "mean ms", "p50 ms", "p99 ms", "keys"));
+        report("IssueKeyMatcher", measure(logMessages, new Parser() {
+            public int parse(String message) {
+                if (!matcher.containsIssueKey(message) && !matcher.containsUnknownKey(message)) {
+                    return 0;
+                }
+                return matcher.containsUnknownKey(message)
+                        ? JiraKeyUtils.getIssueKeysFromString(StringUtils.upperCase(message)).size()
+                        : matcher.getIssueKeys(message).size();
+            }
+        }));
+        report("JiraKeyUtils", measure(logMessages, new Parser() {
+            public int parse(String message) {
+                final String upperCase = StringUtils.upperCase(message);
+                return JiraKeyUtils.isKeyInString(upperCase) ? JiraKeyUtils.getIssueKeysFromString(upperCase).size() : 0;
+            }
+        }));
+    }
+
+    private interface Parser {
+        /**
+         * @return the number of keys found, so the work is not optimised away.
+         */
+        int parse(String message);
+    }
+
+    private long[] measure(List<String> logMessages, Parser parser) {
+        final long[] times = new long[rounds];
+        long keys = 0;
+        for (int round = -warmUp; round < rounds; round++) {
+            final long start = System.nanoTime();
+            keys = 0;
+            for (String message : logMessages) {
+                keys += parser.parse(message);
+            }
+            if (round >= 0) {
+                times[round] = System.nanoTime() - start;
+            }
+        }
+        final long[] result = Arrays.copyOf(times, rounds + 1);
+        result[rounds] = keys;
+        return result;
+    }
+
+    private void report(String parser, long[] result) {
+        final long[] sorted = Arrays.copyOf(result, rounds);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long time : sorted) {
+            total += time;
+        }
+        System.out.println(String.format("%-13s %10.3f %10.3f %10.3f %10d", parser, millis(total / sorted.length),
+                millis(sorted[sorted.length / 2]), millis(sorted[(int) (sorted.length * 0.99)]), result[rounds]));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    private String message() {
+        final StringBuilder message = new StringBuilder();
+        final int kind = random.nextInt(20);
+        if (kind < 14) {
+            message.append(projectKey(random.nextInt(projects))).append('-').append(random.nextInt(5000) + 1).append(' ');
+        } else if (kind == 14) {
+            // a project created after the matcher was built
+            message.append("NEW").append(projectKey(random.nextInt(projects))).append("-1 ");
+        }
+        for (int lines = random.nextInt(3) + 1; lines > 0; lines--) {
+            for (int i = random.nextInt(12) + 4; i > 0; i--) {
+                message.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            if (random.nextInt(5) == 0) {
+                message.append(projectKey(random.nextInt(projects)).toLowerCase()).append('-').append(random.nextInt(5000) + 1);
+            }
+            message.append('\n');
+        }
+        return message.toString();
+    }
+
+    private static String projectKey(int project) {
+        return "PRJ" + (char) ('A' + project % 26) + (char) ('A' + project / 26 % 26);
+    }
+}
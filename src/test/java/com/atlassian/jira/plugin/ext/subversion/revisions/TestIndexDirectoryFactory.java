@@ -0,0 +1,77 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NativeFSLockFactory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.File;
+import java.io.IOException;
+
+public class TestIndexDirectoryFactory extends TestCase {
+    private File temporaryIndexDirectory;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        temporaryIndexDirectory = new File(SystemUtils.JAVA_IO_TMPDIR, RandomStringUtils.randomAlphanumeric(16));
+        temporaryIndexDirectory.mkdirs();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(temporaryIndexDirectory);
+        super.tearDown();
+    }
+
+    public void testEachModeHoldsAnIndex() throws IOException {
+        for (IndexDirectoryFactory.Mode mode : IndexDirectoryFactory.Mode.values()) {
+            final String path = new File(temporaryIndexDirectory, mode.name()).getAbsolutePath();
+            final IndexDirectoryFactory factory = new IndexDirectoryFactory(mode, IndexDirectoryFactory.LockMode.NATIVE);
+
+            final IndexWriter writer = new IndexWriter(factory.getDirectory(path), RevisionIndexer.ANALYZER, true, IndexWriter.MaxFieldLength.LIMITED);
+            final Document doc = new Document();
+            doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            writer.addDocument(doc);
+            writer.close();
+
+            /* The same directory, so even a RAM directory keeps the index */
+            final IndexReader reader = IndexReader.open(factory.getDirectory(path));
+            try {
+                assertEquals(mode.name(), 1, reader.numDocs());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testModeSelectsImplementation() throws IOException {
+        final String path = temporaryIndexDirectory.getAbsolutePath();
+        assertTrue(new IndexDirectoryFactory(IndexDirectoryFactory.Mode.MMAP, IndexDirectoryFactory.LockMode.SIMPLE).getDirectory(path) instanceof MMapDirectory);
+        assertTrue(new IndexDirectoryFactory(IndexDirectoryFactory.Mode.NIOFS, IndexDirectoryFactory.LockMode.SIMPLE).getDirectory(path) instanceof NIOFSDirectory);
+        assertTrue(new IndexDirectoryFactory(IndexDirectoryFactory.Mode.RAM, IndexDirectoryFactory.LockMode.SIMPLE).getDirectory(path) instanceof RAMDirectory);
+
+        final Directory nativeLocked = new IndexDirectoryFactory(IndexDirectoryFactory.Mode.NIOFS, IndexDirectoryFactory.LockMode.NATIVE).getDirectory(path);
+        assertTrue(nativeLocked.getLockFactory() instanceof NativeFSLockFactory);
+    }
+
+    public void testModesAreReadFromSystemProperties() {
+        System.setProperty(IndexDirectoryFactory.DIRECTORY_MODE_PROPERTY, "niofs");
+        System.setProperty(IndexDirectoryFactory.LOCK_MODE_PROPERTY, "bogus");
+        try {
+            final IndexDirectoryFactory factory = new IndexDirectoryFactory();
+            assertEquals(IndexDirectoryFactory.Mode.NIOFS, factory.getMode());
+            assertEquals(IndexDirectoryFactory.LockMode.SIMPLE, factory.getLockMode());
+        } finally {
+            System.clearProperty(IndexDirectoryFactory.DIRECTORY_MODE_PROPERTY);
+            System.clearProperty(IndexDirectoryFactory.LOCK_MODE_PROPERTY);
+        }
+    }
+}
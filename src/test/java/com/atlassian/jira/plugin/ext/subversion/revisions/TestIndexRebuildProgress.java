@@ -0,0 +1,46 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+
+public class TestIndexRebuildProgress extends TestCase {
+    public void testRateAndEstimateFollowTheRevisionsScanned() {
+        final IndexRebuildProgress progress = new IndexRebuildProgress(1000L);
+        progress.repositoryAdded(3000L);
+        progress.repositoryAdded(1000L);
+        assertEquals(-1, progress.getEstimatedMillisRemaining(2000L));
+
+        progress.revisionsScanned(1000L);
+        assertEquals(25, progress.getPercentComplete());
+        assertEquals(500, progress.getRevisionsPerSecond(3000L));
+        assertEquals(6000, progress.getEstimatedMillisRemaining(3000L));
+    }
+
+    public void testFinishedRebuildStopsTheClock() {
+        final IndexRebuildProgress progress = new IndexRebuildProgress(1000L);
+        progress.repositoryAdded(100L);
+        progress.revisionsScanned(50L);
+        progress.swapping();
+        assertFalse(progress.isFinished());
+
+        progress.completed(2000L);
+        assertTrue(progress.isFinished());
+        assertEquals(100, progress.getPercentComplete());
+        assertEquals(1000, progress.getElapsedMillis(5000L));
+        assertEquals(0, progress.getEstimatedMillisRemaining(5000L));
+    }
+
+    public void testFailureIsKept() {
+        final IndexRebuildProgress progress = new IndexRebuildProgress(1000L);
+        progress.failed(2000L, new java.io.IOException("Disk full"));
+        assertEquals(IndexRebuildProgress.State.FAILED, progress.getState());
+        assertEquals("java.io.IOException: Disk full", progress.getFailure());
+    }
+
+    public void testFailedRepositoriesAreKeptWithoutFailingTheRebuild() {
+        final IndexRebuildProgress progress = new IndexRebuildProgress(1000L);
+        progress.repositoryFailed("Repository 1", new java.io.IOException("Disk full"));
+        progress.completed(2000L);
+        assertEquals(IndexRebuildProgress.State.COMPLETE, progress.getState());
+        assertEquals(java.util.Collections.singletonMap("Repository 1", "java.io.IOException: Disk full"), progress.getFailedRepositories());
+    }
+}
@@ -0,0 +1,204 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.RandomStringUtils;
+import org.apache.commons.lang.SystemUtils;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class TestIndexReplicator extends TestCase {
+    private File temporaryDirectory;
+    private File index;
+    private File shard;
+    private File replica;
+    private IndexReplicator replicator;
+    private final Map<File, IndexWriter> writers = new LinkedHashMap<File, IndexWriter>();
+    private final Map<File, SnapshotDeletionPolicy> snapshots = new LinkedHashMap<File, SnapshotDeletionPolicy>();
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        do {
+            temporaryDirectory = new File(SystemUtils.JAVA_IO_TMPDIR, RandomStringUtils.randomAlphanumeric(16));
+        }
+        while (temporaryDirectory.exists());
+        index = new File(temporaryDirectory, "index");
+        shard = new File(index, RevisionIndexer.SHARD_PREFIX + 1);
+        replica = new File(temporaryDirectory, "replica");
+        replicator = new IndexReplicator(new File(temporaryDirectory, "shared"));
+    }
+
+    protected void tearDown() throws Exception {
+        for (IndexWriter writer : writers.values()) {
+            writer.close();
+        }
+        FileUtils.deleteDirectory(temporaryDirectory);
+        super.tearDown();
+    }
+
+    public void testReplicaOnlyCopiesNewFiles() throws IOException {
+        addDocument(index);
+        addDocument(shard);
+        assertTrue(publish(index, shard) > 0);
+
+        IndexReplicator.Manifest published = replicator.getPublished();
+        assertTrue(replicator.pull(published, null, replica.getPath()).isEmpty());
+        assertEquals(1, countDocuments(replica));
+        assertEquals(1, countDocuments(new File(replica, shard.getName())));
+
+        /* The files the replica has are not needed again, only the new segment of the shard and its segments file */
+        final IndexReplicator.Manifest copied = IndexReplicator.getReplica(replica.getPath());
+        for (String path : copied.getFiles()) {
+            assertTrue(new File(replicator.getSharedDirectory(), path).delete());
+        }
+        addDocument(shard);
+        final int publishedFiles = publish(index, shard);
+
+        published = replicator.getPublished();
+        final Set<String> added = new HashSet<String>(published.getFiles());
+        added.removeAll(copied.getFiles());
+        assertEquals(added.size(), publishedFiles);
+        assertTrue(added.contains(shard.getName() + "/segments_2"));
+        assertEquals(copied.getGeneration() + 1, published.getGeneration());
+        assertTrue(IndexReplicator.canUpdate(copied, published));
+        assertTrue(replicator.pull(published, copied, replica.getPath()).isEmpty());
+        assertEquals(1, countDocuments(replica));
+        assertEquals(2, countDocuments(new File(replica, shard.getName())));
+    }
+
+    public void testDroppedShardIsLeftToCaller() throws IOException {
+        addDocument(index);
+        addDocument(shard);
+        publish(index, shard);
+        replicator.pull(replicator.getPublished(), null, replica.getPath());
+
+        writers.remove(shard).close();
+        publish(index);
+        final IndexReplicator.Manifest published = replicator.getPublished();
+        final List<String> dropped = replicator.pull(published, IndexReplicator.getReplica(replica.getPath()), replica.getPath());
+        assertEquals(Collections.singletonList(new File(replica, shard.getName()).getPath()), dropped);
+        assertEquals(published.getFiles(), IndexReplicator.getReplica(replica.getPath()).getFiles());
+    }
+
+    public void testRebuiltIndexCannotBeUpdatedInPlace() throws IOException {
+        addDocument(index);
+        publish(index);
+        replicator.pull(replicator.getPublished(), null, replica.getPath());
+
+        /* The rebuilt index has files of the same names with other contents */
+        writers.remove(index).close();
+        FileUtils.deleteDirectory(index);
+        addDocument(index);
+        addDocument(index);
+        publish(index);
+        assertFalse(IndexReplicator.canUpdate(IndexReplicator.getReplica(replica.getPath()), replicator.getPublished()));
+    }
+
+    public void testNodeThatNoLongerLeadsDoesNotPublish() throws IOException {
+        addDocument(index);
+        publish(lease("node-1", 1), index);
+
+        addDocument(index);
+        try {
+            publish(lease("node-1", -1), index);
+            fail("Published after losing the election");
+        } catch (IOException expected) {
+        }
+        assertEquals(1, replicator.getPublished().getGeneration());
+    }
+
+    public void testManifestOfEarlierTermIsNeitherPublishedOverNorPulled() throws IOException {
+        addDocument(index);
+        publish(lease("node-1", 1), index);
+        final IndexReplicator.Manifest first = replicator.getPublished();
+
+        /* Another node took over and published, before the first one knew it had lost the election */
+        addDocument(index);
+        publish(lease("node-2", 2), index);
+        replicator.pull(replicator.getPublished(), null, replica.getPath());
+        assertEquals(2, IndexReplicator.getReplica(replica.getPath()).getTerm());
+
+        addDocument(index);
+        try {
+            publish(lease("node-1", 1), index);
+            fail("Published over a manifest of a later term");
+        } catch (IOException expected) {
+        }
+        assertEquals(2, replicator.getPublished().getTerm());
+
+        assertTrue(IndexReplicator.isStale(first, IndexReplicator.getReplica(replica.getPath())));
+        try {
+            replicator.pull(first, IndexReplicator.getReplica(replica.getPath()), replica.getPath());
+            fail("Pulled a manifest of an earlier term");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static RevisionIndexer.PublisherLease lease(final String nodeId, final long term) {
+        return new RevisionIndexer.PublisherLease() {
+            public String getNodeId() {
+                return nodeId;
+            }
+
+            public long confirm() {
+                return term;
+            }
+        };
+    }
+
+    private int publish(File... directories) throws IOException {
+        return publish(null, directories);
+    }
+
+    private int publish(RevisionIndexer.PublisherLease lease, File... directories) throws IOException {
+        final Map<String, IndexCommit> commits = new LinkedHashMap<String, IndexCommit>();
+        for (File directory : directories) {
+            commits.put(directory.getPath(), snapshots.get(directory).snapshot("test"));
+        }
+        try {
+            return replicator.publish(index.getPath(), commits, lease);
+        } finally {
+            for (File directory : directories) {
+                snapshots.get(directory).release("test");
+            }
+        }
+    }
+
+    private void addDocument(File directory) throws IOException {
+        IndexWriter writer = writers.get(directory);
+        if (writer == null) {
+            final SnapshotDeletionPolicy policy = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+            writer = new IndexWriter(FSDirectory.open(directory), RevisionIndexer.ANALYZER, policy, IndexWriter.MaxFieldLength.LIMITED);
+            writers.put(directory, writer);
+            snapshots.put(directory, policy);
+        }
+        final Document doc = new Document();
+        doc.add(new Field(RevisionIndexer.FIELD_MESSAGE, RandomStringUtils.randomAlphanumeric(32), Field.Store.YES, Field.Index.ANALYZED));
+        writer.addDocument(doc);
+        writer.commit();
+    }
+
+    private static int countDocuments(File directory) throws IOException {
+        final IndexReader reader = IndexReader.open(FSDirectory.open(directory));
+        try {
+            return reader.numDocs();
+        } finally {
+            reader.close();
+        }
+    }
+}
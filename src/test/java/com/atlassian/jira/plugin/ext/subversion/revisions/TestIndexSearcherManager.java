@@ -0,0 +1,130 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestIndexSearcherManager extends TestCase {
+    private RAMDirectory directory;
+    private IndexWriter writer;
+    private IndexSearcherManager manager;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, RevisionIndexer.ANALYZER, true, IndexWriter.MaxFieldLength.LIMITED);
+        addRevision("1");
+        manager = new IndexSearcherManager(directory);
+    }
+
+    protected void tearDown() throws Exception {
+        writer.close();
+        super.tearDown();
+    }
+
+    private void addRevision(String revision) throws IOException {
+        final Document doc = new Document();
+        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, revision, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        writer.addDocument(doc);
+        writer.commit();
+    }
+
+    public void testSearcherIsSharedUntilInvalidated() throws IOException {
+        final IndexSearcher first = manager.acquire();
+        manager.release(first);
+
+        addRevision("2");
+        final IndexSearcher second = manager.acquire();
+        assertSame(first, second);
+        assertEquals(1, second.maxDoc());
+        manager.release(second);
+
+        manager.invalidate();
+        final IndexSearcher reopened = manager.acquire();
+        assertNotSame(first, reopened);
+        assertEquals(2, reopened.maxDoc());
+        manager.release(reopened);
+    }
+
+    public void testReplacedReaderIsClosedWhenLastQueryReleasesIt() throws IOException {
+        final IndexSearcher inUse = manager.acquire();
+
+        addRevision("2");
+        manager.invalidate();
+        final IndexSearcher reopened = manager.acquire();
+        manager.release(reopened);
+
+        assertEquals(1, inUse.getIndexReader().getRefCount());
+        assertEquals(1, inUse.maxDoc());
+        manager.release(inUse);
+        assertEquals(0, inUse.getIndexReader().getRefCount());
+    }
+
+    public void testUnchangedIndexKeepsTheReader() throws IOException {
+        final IndexSearcher first = manager.acquire();
+        manager.release(first);
+
+        manager.invalidate();
+        final IndexSearcher second = manager.acquire();
+        assertSame(first, second);
+        manager.release(second);
+    }
+
+    public void testClosedManagerHandsOutNoSearcher() throws IOException {
+        final IndexSearcher searcher = manager.acquire();
+        manager.close();
+        assertEquals(1, searcher.getIndexReader().getRefCount());
+        manager.release(searcher);
+        assertEquals(0, searcher.getIndexReader().getRefCount());
+
+        try {
+            manager.acquire();
+            fail("The manager has been closed");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testShardsAreSearchedAsOneIndex() throws IOException {
+        final List<Directory> directories = new ArrayList<Directory>();
+        directories.add(directory);
+        final IndexSearcherManager shardedManager = new IndexSearcherManager(new IndexSearcherManager.Directories() {
+            public List<Directory> list() {
+                return new ArrayList<Directory>(directories);
+            }
+        });
+        final IndexSearcher first = shardedManager.acquire();
+        assertEquals(1, first.maxDoc());
+        shardedManager.release(first);
+
+        /* A shard added since is picked up on reopen, the reader of the other one is kept */
+        final RAMDirectory shard = new RAMDirectory();
+        final IndexWriter shardWriter = new IndexWriter(shard, RevisionIndexer.ANALYZER, true, IndexWriter.MaxFieldLength.LIMITED);
+        final Document doc = new Document();
+        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "2", Field.Store.YES, Field.Index.NOT_ANALYZED));
+        shardWriter.addDocument(doc);
+        shardWriter.close();
+        directories.add(shard);
+        shardedManager.invalidate();
+        final IndexSearcher sharded = shardedManager.acquire();
+        assertEquals(2, sharded.maxDoc());
+        assertSame(first.getIndexReader(), sharded.getIndexReader().getSequentialSubReaders()[0]);
+        shardedManager.release(sharded);
+
+        /* A dropped shard disappears, and its reader is closed */
+        directories.remove(shard);
+        shardedManager.invalidate();
+        final IndexSearcher dropped = shardedManager.acquire();
+        assertEquals(1, dropped.maxDoc());
+        assertEquals(0, sharded.getIndexReader().getSequentialSubReaders()[1].getRefCount());
+        shardedManager.release(dropped);
+        shardedManager.close();
+    }
+}
@@ -0,0 +1,163 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TestIndexingPipeline extends TestCase {
+    private ExecutorService extractors;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        extractors = Executors.newFixedThreadPool(4);
+    }
+
+    protected void tearDown() throws Exception {
+        extractors.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testResultsAreWrittenInSubmissionOrder() throws Exception {
+        final IndexingPipeline pipeline = new IndexingPipeline(extractors, 10);
+        final IndexingPipeline.Session session = pipeline.openSession("test");
+        final List<Integer> written = new ArrayList<Integer>();
+
+        /* Earlier entries take longer to extract than later ones */
+        for (int i = 0; i < 5; i++) {
+            final int value = i;
+            session.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    Thread.sleep((5 - value) * 10);
+                    return value;
+                }
+            }, new IndexingPipeline.Writer<Integer>() {
+                public void write(Integer value) {
+                    written.add(value);
+                }
+            });
+        }
+        session.flush();
+        pipeline.close();
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), written);
+        assertEquals(5, pipeline.getSubmitted());
+    }
+
+    public void testFailedSessionSkipsRemainingEntries() throws Exception {
+        final IndexingPipeline pipeline = new IndexingPipeline(extractors, 10);
+        final IndexingPipeline.Session session = pipeline.openSession("test");
+        final List<Integer> written = new ArrayList<Integer>();
+        final IndexingPipeline.Writer<Integer> writer = new IndexingPipeline.Writer<Integer>() {
+            public void write(Integer value) throws IOException {
+                if (value == 1) {
+                    throw new IOException("Disk full");
+                }
+                written.add(value);
+            }
+        };
+
+        /* The failure surfaces from whichever call comes after it */
+        try {
+            for (int i = 0; i < 3; i++) {
+                session.submit(constant(i), writer);
+            }
+            session.flush();
+            fail("The failure of the writer should be rethrown");
+        } catch (IOException e) {
+            assertEquals("Disk full", e.getMessage());
+        }
+        pipeline.close();
+
+        assertEquals(Arrays.asList(0), written);
+    }
+
+    public void testSubmitBlocksWhileWriterIsBehind() throws Exception {
+        final IndexingPipeline pipeline = new IndexingPipeline(extractors, 1);
+        final IndexingPipeline.Session session = pipeline.openSession("test");
+        final CountDownLatch release = new CountDownLatch(1);
+        final IndexingPipeline.Writer<Integer> slowWriter = new IndexingPipeline.Writer<Integer>() {
+            public void write(Integer value) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+
+        /* The writer takes the first entry and waits, the second fills the queue */
+        session.submit(constant(0), slowWriter);
+        session.submit(constant(1), slowWriter);
+
+        final CountDownLatch thirdSubmitted = new CountDownLatch(1);
+        final Thread producer = new Thread() {
+            public void run() {
+                try {
+                    session.submit(constant(2), slowWriter);
+                    thirdSubmitted.countDown();
+                } catch (Exception e) {
+                    // the assertions below fail
+                }
+            }
+        };
+        producer.start();
+
+        assertFalse(thirdSubmitted.await(200, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(thirdSubmitted.await(10, TimeUnit.SECONDS));
+
+        session.flush();
+        pipeline.close();
+        assertTrue(pipeline.getFetchBlockedMillis() > 0);
+    }
+
+    public void testInterruptedCloseWaitsForWriteInProgress() throws Exception {
+        final IndexingPipeline pipeline = new IndexingPipeline(extractors, 10);
+        final IndexingPipeline.Session session = pipeline.openSession("test");
+        final CountDownLatch writing = new CountDownLatch(1);
+        final AtomicBoolean written = new AtomicBoolean();
+
+        /* Like a write to a Lucene index, it completes even when interrupted */
+        session.submit(constant(0), new IndexingPipeline.Writer<Integer>() {
+            public void write(Integer value) {
+                writing.countDown();
+                final long end = System.currentTimeMillis() + 200;
+                while (System.currentTimeMillis() < end) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        // carries on
+                    }
+                }
+                written.set(true);
+            }
+        });
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+
+        Thread.currentThread().interrupt();
+        try {
+            pipeline.close();
+            fail("The interruption should be rethrown");
+        } catch (InterruptedException e) {
+            // expected
+        }
+        assertTrue(written.get());
+    }
+
+    private static Callable<Integer> constant(final int value) {
+        return new Callable<Integer>() {
+            public Integer call() {
+                return value;
+            }
+        };
+    }
+}
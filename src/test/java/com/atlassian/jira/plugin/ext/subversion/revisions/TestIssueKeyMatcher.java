@@ -0,0 +1,58 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TestIssueKeyMatcher extends TestCase {
+    private IssueKeyMatcher matcher;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        matcher = new IssueKeyMatcher(Arrays.asList("ABC", "AB", "X_2", "abcd"));
+    }
+
+    public void testKeysAreFoundIgnoringCase() {
+        assertEquals(Arrays.asList("ABC-1", "AB-22", "X_2-3", "ABCD-4"),
+                matcher.getIssueKeys("Fixed abc-1 and AB-22, see (x_2-3) ABCD-4."));
+    }
+
+    public void testKeysMustBeWholeWords() {
+        assertEquals(Collections.<String>emptyList(), matcher.getIssueKeys("XABC-1 ABC-1X ABC- ABC-X ABCE-1 _AB-2"));
+        assertFalse(matcher.containsIssueKey("ABCABC-1"));
+    }
+
+    public void testKeysOfUnknownProjectsAreIgnored() {
+        assertEquals(Arrays.asList("ABC-7"), matcher.getIssueKeys("DEF-1 ABC-7 GHI-2"));
+    }
+
+    public void testKeysOfUnknownProjectsAreDetected() {
+        assertTrue(matcher.containsUnknownKey("ABC-7 def-1"));
+        assertTrue(matcher.containsUnknownKey("Fixed ABCE-1"));
+        assertTrue(matcher.containsUnknownKey("ABC_D-12."));
+        assertFalse(matcher.containsUnknownKey("Fixed ABC-1, AB-22 and x_2-3"));
+        assertFalse(matcher.containsUnknownKey("UTF8 1-2 XDEF-1X _DEF-1 DEF- DEF-X"));
+        assertFalse(matcher.containsUnknownKey(null));
+    }
+
+    public void testDuplicateKeysAreReturnedOnce() {
+        assertEquals(Arrays.asList("ABC-1", "ABC-2"), matcher.getIssueKeys("ABC-1 abc-1 ABC-2 ABC-1"));
+    }
+
+    public void testKeyAtEndOfMessage() {
+        assertTrue(matcher.containsIssueKey("Merged from ABC-10"));
+        assertEquals(Arrays.asList("ABC-10"), matcher.getIssueKeys("Merged from ABC-10"));
+    }
+
+    public void testMessageWithoutKeys() {
+        assertFalse(matcher.containsIssueKey("Reformatted the code"));
+        assertFalse(matcher.containsIssueKey(null));
+        assertEquals(Collections.<String>emptyList(), matcher.getIssueKeys(null));
+    }
+
+    public void testProjectKeysAreCounted() {
+        assertEquals(4, matcher.getProjectKeyCount());
+        assertEquals(1, new IssueKeyMatcher(Arrays.asList("ABC", "abc", "", "\u00C4B")).getProjectKeyCount());
+    }
+}
@@ -0,0 +1,63 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.jira.event.issue.IssueEvent;
+import com.atlassian.jira.event.type.EventType;
+import com.atlassian.jira.issue.Issue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Collection;
+
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestPermissionChangeListener {
+    @Mock
+    private EventPublisher eventPublisher;
+    @Mock
+    private IssueManager issueManager;
+    @Mock
+    private MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+    @Mock
+    private Issue issue;
+
+    private PermissionChangeListener listener;
+
+    @Before
+    public void setUp() {
+        when(multipleSubversionRepositoryManager.isIndexingRevisions()).thenReturn(true);
+        when(issue.getId()).thenReturn(10000L);
+        when(issue.getKey()).thenReturn("NEW-5");
+        listener = new PermissionChangeListener(eventPublisher, issueManager, multipleSubversionRepositoryManager);
+    }
+
+    @Test
+    public void movedIssueInvalidatesProjectsOfAllItsKeys() {
+        when(issueManager.getAllIssueKeys(10000L)).thenReturn(ImmutableSet.of("OLD-7", "MY-PRJ-2", "NEW-5"));
+        listener.onIssueEvent(new IssueEvent(issue, EventType.ISSUE_MOVED_ID));
+        verify(multipleSubversionRepositoryManager).invalidatePermissions(ImmutableSet.of("OLD", "MY-PRJ", "NEW"));
+    }
+
+    @Test
+    public void issueWhoseKeysCannotBeLookedUpInvalidatesAllProjects() {
+        when(issueManager.getAllIssueKeys(10000L)).thenThrow(new IllegalStateException("Connection dropped"));
+        listener.onIssueEvent(new IssueEvent(issue, EventType.ISSUE_UPDATED_ID));
+        verify(multipleSubversionRepositoryManager).invalidatePermissions((Collection<String>) null);
+    }
+
+    @Test
+    public void commentLeavesPermissionsAlone() {
+        listener.onIssueEvent(new IssueEvent(issue, EventType.ISSUE_COMMENTED_ID));
+        verify(multipleSubversionRepositoryManager, never()).invalidatePermissions(anyCollectionOf(String.class));
+    }
+}
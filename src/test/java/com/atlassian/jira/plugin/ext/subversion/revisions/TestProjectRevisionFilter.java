@@ -0,0 +1,142 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.jira.issue.MutableIssue;
+import com.atlassian.jira.issue.IssueManager;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.user.ApplicationUser;
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.store.RAMDirectory;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TestProjectRevisionFilter extends TestCase {
+    private RAMDirectory directory;
+    private IndexReader reader;
+    private IssueManager issueManager;
+    private PermissionManager permissionManager;
+    private ApplicationUser user;
+    private PermissionFilterCache cache;
+    private MutableIssue visible;
+    private MutableIssue hidden;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = new RAMDirectory();
+        issueManager = mock(IssueManager.class);
+        permissionManager = mock(PermissionManager.class);
+        user = mock(ApplicationUser.class);
+        when(user.getKey()).thenReturn("dchui");
+        cache = new PermissionFilterCache(10, 100);
+
+        visible = mock(MutableIssue.class);
+        hidden = mock(MutableIssue.class);
+        when(issueManager.getIssueObject("TST-1")).thenReturn(visible);
+        when(issueManager.getIssueObject("TST-2")).thenReturn(hidden);
+        when(permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, visible, user)).thenReturn(true);
+        when(permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, hidden, user)).thenReturn(false);
+    }
+
+    public void testPermissionsAreCheckedOncePerIssue() throws IOException {
+        addSegment("TST-1", "TST-2", "TST-1");
+
+        assertEquals(2, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST")));
+        verify(issueManager, times(1)).getIssueObject("TST-1");
+        verify(issueManager, times(1)).getIssueObject("TST-2");
+    }
+
+    public void testCachedSegmentsAreNotFilteredAgain() throws IOException {
+        addSegment("TST-1", "TST-2");
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+        verify(issueManager, times(1)).getIssueObject("TST-1");
+
+        /* Only the new segment is filtered */
+        addSegment("TST-1");
+        assertEquals(2, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+        verify(issueManager, times(2)).getIssueObject("TST-1");
+        verify(issueManager, times(1)).getIssueObject("TST-2");
+    }
+
+    public void testCacheIsPerUser() throws IOException {
+        addSegment("TST-1");
+        final ApplicationUser other = mock(ApplicationUser.class);
+        when(other.getKey()).thenReturn("other");
+
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+        assertEquals(0, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, other, "TST", cache)));
+        assertEquals(0, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, null, "TST", cache)));
+        assertEquals(3, cache.size());
+    }
+
+    public void testInvalidatedPermissionsAreCheckedAgain() throws IOException {
+        addSegment("TST-1", "TST-2");
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+
+        when(permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, hidden, user)).thenReturn(true);
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+
+        cache.invalidateAll();
+        assertEquals(2, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+    }
+
+    public void testPermissionsOfInvalidatedProjectsAreCheckedAgain() throws IOException {
+        addSegment("TST-1", "TST-2");
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+
+        when(permissionManager.hasPermission(Permissions.VIEW_VERSION_CONTROL, hidden, user)).thenReturn(true);
+        cache.invalidateProjects(Arrays.asList("OTHER"));
+        assertEquals(1, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+
+        cache.invalidateProjects(Arrays.asList("OTHER", "TST"));
+        assertEquals(2, countPermitted(new ProjectRevisionFilter(issueManager, permissionManager, user, "TST", cache)));
+    }
+
+    protected void tearDown() throws Exception {
+        if (reader != null) {
+            reader.close();
+        }
+        super.tearDown();
+    }
+
+    /**
+     * Adds a segment and reopens the reader, which keeps the segments it already had as the searcher of the
+     * indexer does.
+     */
+    private void addSegment(String... issueKeys) throws IOException {
+        final IndexWriter writer = new IndexWriter(directory, RevisionIndexer.ANALYZER, IndexWriter.MaxFieldLength.LIMITED);
+        try {
+            for (String issueKey : issueKeys) {
+                final Document doc = new Document();
+                doc.add(new Field(RevisionIndexer.FIELD_PROJECTKEY, "TST", Field.Store.YES, Field.Index.NOT_ANALYZED));
+                doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, issueKey, Field.Store.YES, Field.Index.NOT_ANALYZED));
+                writer.addDocument(doc);
+            }
+        } finally {
+            writer.close();
+        }
+        if (reader == null) {
+            reader = IndexReader.open(directory);
+        } else {
+            final IndexReader reopened = reader.reopen();
+            reader.close();
+            reader = reopened;
+        }
+    }
+
+    private int countPermitted(ProjectRevisionFilter filter) throws IOException {
+        return new IndexSearcher(reader).search(new MatchAllDocsQuery(), filter, 100).totalHits;
+    }
+}
@@ -0,0 +1,192 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.SubversionManager;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestRepositoryPollScheduler {
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    @Mock
+    private MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+    @Mock
+    private RevisionIndexer revisionIndexer;
+    @Mock
+    private SubversionManager busy;
+    @Mock
+    private SubversionManager idle;
+
+    private RepositoryPollScheduler scheduler;
+    // the revision each repository has been indexed up to
+    private final Map<Long, Long> indexedRevisions = new ConcurrentHashMap<Long, Long>();
+
+    @Before
+    public void setUp() {
+        when(revisionIndexer.updateRepository(any(SubversionManager.class), anyLong())).thenAnswer(new Answer<Future<?>>() {
+            @Override
+            public Future<?> answer(InvocationOnMock invocation) {
+                final SubversionManager subversionManager = (SubversionManager) invocation.getArguments()[0];
+                indexedRevisions.put(subversionManager.getId(), (Long) invocation.getArguments()[1]);
+                return Futures.immediateFuture(null);
+            }
+        });
+        when(revisionIndexer.getLatestIndexedRevision(anyLong())).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return indexedRevisions.get(invocation.getArguments()[0]);
+            }
+        });
+        when(busy.getId()).thenReturn(1L);
+        when(busy.isActive()).thenReturn(true);
+        when(idle.getId()).thenReturn(2L);
+        when(idle.isActive()).thenReturn(true);
+        when(idle.getLatestRevision()).thenReturn(10L);
+        when(multipleSubversionRepositoryManager.getRepositoryList()).thenReturn(ImmutableList.of(busy, idle));
+
+        scheduler = new RepositoryPollScheduler(multipleSubversionRepositoryManager, revisionIndexer);
+    }
+
+    @Test
+    public void idleRepositoryBacksOffWhileBusyOneStaysAtMinimum() {
+        when(busy.getLatestRevision()).thenReturn(1L, 2L, 3L);
+
+        scheduler.poll(0);
+        assertEquals(MINUTE, scheduler.getInterval(1L));
+        assertEquals(MINUTE, scheduler.getInterval(2L));
+
+        scheduler.poll(MINUTE);
+        assertEquals(MINUTE, scheduler.getInterval(1L));
+        assertEquals(2 * MINUTE, scheduler.getInterval(2L));
+
+        // the idle repository is not due yet
+        scheduler.poll(2 * MINUTE);
+        verify(idle, times(2)).getLatestRevision();
+        verify(busy, times(3)).getLatestRevision();
+
+        verify(revisionIndexer).updateRepository(busy, 3L);
+        // the first poll catches up from the checkpoint
+        verify(revisionIndexer).updateRepository(idle, 10L);
+    }
+
+    @Test
+    public void intervalIsCappedAtMaximum() {
+        long now = 0;
+        for (int i = 0; i < 10; i++) {
+            scheduler.poll(now);
+            now += scheduler.getInterval(2L);
+        }
+
+        assertEquals(TimeUnit.HOURS.toMillis(1), scheduler.getInterval(2L));
+    }
+
+    @Test
+    public void newRevisionsShortenTheInterval() {
+        when(busy.getLatestRevision()).thenReturn(5L, 5L, 5L, 6L);
+
+        scheduler.poll(0);
+        scheduler.poll(MINUTE);
+        scheduler.poll(3 * MINUTE);
+        assertEquals(4 * MINUTE, scheduler.getInterval(1L));
+
+        scheduler.poll(7 * MINUTE);
+        assertEquals(2 * MINUTE, scheduler.getInterval(1L));
+        verify(revisionIndexer).updateRepository(busy, 6L);
+    }
+
+    @Test
+    public void inactiveRepositoryIsNotIndexed() {
+        when(busy.isActive()).thenReturn(false);
+
+        scheduler.poll(0);
+
+        verify(busy).activate();
+        verify(busy, never()).getLatestRevision();
+        verify(revisionIndexer, never()).updateRepository(eq(busy), anyLong());
+        assertEquals(2 * MINUTE, scheduler.getInterval(1L));
+    }
+
+    @Test
+    public void removedRepositoryIsForgotten() {
+        scheduler.poll(0);
+        when(multipleSubversionRepositoryManager.getRepositoryList()).thenReturn(ImmutableList.of(idle));
+
+        scheduler.poll(MINUTE);
+
+        assertEquals(-1, scheduler.getInterval(1L));
+    }
+
+    @Test
+    public void repositoryIsIndexedAgainUntilIndexerGetsToLatestRevision() {
+        when(busy.getLatestRevision()).thenReturn(5L);
+
+        scheduler.poll(0);
+        // the connection dropped half way
+        indexedRevisions.put(1L, 3L);
+        scheduler.poll(MINUTE);
+        scheduler.poll(2 * MINUTE);
+        scheduler.poll(4 * MINUTE);
+
+        verify(revisionIndexer, times(2)).updateRepository(busy, 5L);
+        // backs off once the second indexing got there
+        assertEquals(4 * MINUTE, scheduler.getInterval(1L));
+    }
+
+    @Test
+    public void slowRepositoryDoesNotHoldUpOthers() throws Exception {
+        final CountDownLatch busyAnswered = new CountDownLatch(1);
+        final CountDownLatch idlePolled = new CountDownLatch(1);
+        when(busy.getLatestRevision()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) throws InterruptedException {
+                busyAnswered.await(10, TimeUnit.SECONDS);
+                return 1L;
+            }
+        });
+        when(idle.getLatestRevision()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                idlePolled.countDown();
+                return 10L;
+            }
+        });
+
+        System.setProperty(RepositoryPollScheduler.MIN_INTERVAL_PROPERTY, "1");
+        try {
+            scheduler = new RepositoryPollScheduler(multipleSubversionRepositoryManager, revisionIndexer);
+        } finally {
+            System.clearProperty(RepositoryPollScheduler.MIN_INTERVAL_PROPERTY);
+        }
+        scheduler.start();
+        try {
+            assertTrue(idlePolled.await(10, TimeUnit.SECONDS));
+        } finally {
+            busyAnswered.countDown();
+            scheduler.stop();
+        }
+    }
+}
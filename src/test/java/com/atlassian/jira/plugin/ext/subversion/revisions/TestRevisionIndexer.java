@@ -27,21 +27,35 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.NumericUtils;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
 import org.jmock.core.Invocation;
 import org.jmock.core.constraint.IsAnything;
 import org.jmock.core.stub.CustomStub;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNErrorCode;
 import org.tmatesoft.svn.core.SVNLogEntry;
+import org.tmatesoft.svn.core.SVNLogEntryPath;
+import org.tmatesoft.svn.core.SVNNodeKind;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -115,17 +129,13 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         mockPermissionManager = new Mock(PermissionManager.class);
         permissionManager = (PermissionManager) mockPermissionManager.proxy();
 
-        List<String> previousIssueKeys = new ArrayList<String>();
-        previousIssueKeys.add("APR-137");
-        previousIssueKeys.add("FPR-49");
+        /* Commits are found by issue id, the change history is never asked for previous keys */
         mockChangeHistoryManager = new Mock(ChangeHistoryManager.class);
-        mockChangeHistoryManager
-                .expects(atMostOnce())
-                .method("getPreviousIssueKeys")
-                .will(returnValue(previousIssueKeys));
         changeHistoryManager = (ChangeHistoryManager) mockChangeHistoryManager.proxy();
 
+        /* Issue keys are resolved to ids while indexing; none of the issues exists unless a test says otherwise */
         mockIssueManager = new Mock(IssueManager.class);
+        mockIssueManager.stubs().method("getIssueObject").with(isA(String.class)).will(returnValue(null));
         issueManager = (IssueManager) mockIssueManager.proxy();
 
         mockVersionManager = new Mock(VersionManager.class);
@@ -175,7 +185,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
 
         mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
-        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), ANYTHING).will(callHandlerWithLogEntries(entries));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
 
         mockMultipleSubversionRepositoryManager.reset();
         mockMultipleSubversionRepositoryManager
@@ -214,7 +225,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
 
         mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
-        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), ANYTHING).will(callHandlerWithLogEntries(entries));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
 
         mockMultipleSubversionRepositoryManager.reset();
         mockMultipleSubversionRepositoryManager
@@ -240,7 +252,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
 
         mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
-        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), ANYTHING).will(callHandlerWithLogEntries(entries));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
 
         mockMultipleSubversionRepositoryManager.reset();
         mockMultipleSubversionRepositoryManager
@@ -279,6 +292,7 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         mockSubversionManagerExploding.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSubversionManagerExploding.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
         mockSubversionManagerExploding.expects(atLeastOnce()).method("getDisplayName").withNoArguments().will(returnValue("Repository 1"));
+        mockSubversionManagerExploding.expects(once()).method("getLatestRevision").withNoArguments().will(returnValue(124L));
         mockSubversionManagerExploding
                 .expects(once())
                 .method("getLogEntries")
@@ -289,6 +303,7 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         mockSubversionManagerNonExploding = new Mock(SubversionManager.class);
         mockSubversionManagerNonExploding.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSubversionManagerNonExploding.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSubversionManagerNonExploding.expects(once()).method("getLatestRevision").withNoArguments().will(returnValue(124L));
 //        mockSubversionManagerNonExploding.expects(atLeastOnce()).method("getDisplayName").withNoArguments().will(returnValue("Repository 2"));
         mockSubversionManagerNonExploding
                 .expects(once())
@@ -361,7 +376,7 @@ public class TestRevisionIndexer extends MockObjectTestCase {
 
         doc = new Document();
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-2", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
         indexWriter.commit();
         indexWriter.close();
@@ -389,13 +404,13 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc = new Document();
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "0", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(0L));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
         indexWriter.commit();
         indexWriter.close();
 
-        mockSvnMgr.expects(once()).method("getLogEntry").with(eq(0L)).will(returnValue(null));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(Collections.singleton(0L))).will(returnValue(Collections.EMPTY_MAP));
         mockMultipleSubversionRepositoryManager
                 .expects(once())
                 .method("getRepository")
@@ -428,16 +443,16 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc = new Document();
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date(nowInMillis + 1000)), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(1L));
+        doc.add(RevisionIndexer.createDateField(new Date(nowInMillis + 1000)));
         indexWriter.addDocument(doc);
 
         /* This is the second matching document with revision 0 */
         doc = new Document();
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "0", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date(nowInMillis)), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(0L));
+        doc.add(RevisionIndexer.createDateField(new Date(nowInMillis)));
         indexWriter.addDocument(doc);
 
         indexWriter.commit();
@@ -446,14 +461,14 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         SVNLogEntry firstCommit = new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1 First commit");
         SVNLogEntry secondCommit = new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1 Second commmit");
 
-        mockSvnMgr.expects(exactly(2)).method("getLogEntry").with(isA(Long.class)).will(
-                onConsecutiveCalls(
-                        returnValue(firstCommit),
-                        returnValue(secondCommit)
-                )
-        );
+        Map<Long, SVNLogEntry> commits = new HashMap<Long, SVNLogEntry>();
+        commits.put(0L, firstCommit);
+        commits.put(1L, secondCommit);
+
+        /* Both revisions are retrieved with a single request */
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(commits.keySet())).will(returnValue(commits));
         mockMultipleSubversionRepositoryManager
-                .expects(exactly(2))
+                .expects(once())
                 .method("getRepository")
                 .with(eq(1L))
                 .will(returnValue(svnMgr));
@@ -473,6 +488,56 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         assertSame(secondCommit, entries.get(1));
     }
 
+    public void testGetLogEntriesByRepositoryFromStoredDocumentWithoutRepository() throws IOException, IndexException {
+        Mock mockIssue;
+        Issue issue;
+        RevisionIndexer revisionIndexer;
+        IndexWriter indexWriter;
+
+        /* Setup the issue to be used in the query */
+        mockIssue = new Mock(Issue.class);
+        mockIssue.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(new Long(10000L)));
+        mockIssue.expects(atLeastOnce()).method("getKey").withNoArguments().will(returnValue("TST-1"));
+        issue = (Issue) mockIssue.proxy();
+
+        Map<String, SVNLogEntryPath> changedPaths = new LinkedHashMap<String, SVNLogEntryPath>();
+        changedPaths.put("/branches/fix", new SVNLogEntryPath("/branches/fix", SVNLogEntryPath.TYPE_ADDED, "/trunk", 41L, SVNNodeKind.DIR));
+        changedPaths.put("/branches/fix/Main.java", new SVNLogEntryPath("/branches/fix/Main.java", SVNLogEntryPath.TYPE_MODIFIED, null, -1L, SVNNodeKind.FILE));
+        Date date = new Date();
+        SVNLogEntry logEntry = new SVNLogEntry(changedPaths, 42L, "dchui", date, "tst-1 Branched\tand fixed");
+
+        revisionIndexer = getRevisionIndexer();
+        revisionIndexer.setIssueKeyMatcher(new IssueKeyMatcher(Collections.singleton("TST")));
+
+        /* Populate the search index */
+        indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        indexWriter.addDocument(revisionIndexer.getDocument(1L, logEntry));
+        indexWriter.commit();
+        indexWriter.close();
+
+        /* The repository manager is never asked for the repository or the revision */
+        Map<Long, List<SVNLogEntry>> entriesMap = revisionIndexer.getLogEntriesByRepository(issue);
+        assertEquals(1, entriesMap.size());
+
+        SVNLogEntry stored = entriesMap.get(1L).get(0);
+        assertEquals(42L, stored.getRevision());
+        assertEquals("dchui", stored.getAuthor());
+        assertEquals(date, stored.getDate());
+        assertEquals("tst-1 Branched\tand fixed", stored.getMessage());
+        assertEquals(2, stored.getChangedPaths().size());
+
+        SVNLogEntryPath branch = stored.getChangedPaths().get("/branches/fix");
+        assertEquals(SVNLogEntryPath.TYPE_ADDED, branch.getType());
+        assertEquals("/trunk", branch.getCopyPath());
+        assertEquals(41L, branch.getCopyRevision());
+        assertEquals(SVNNodeKind.DIR, branch.getKind());
+
+        SVNLogEntryPath file = stored.getChangedPaths().get("/branches/fix/Main.java");
+        assertEquals(SVNLogEntryPath.TYPE_MODIFIED, file.getType());
+        assertNull(file.getCopyPath());
+        assertEquals(SVNNodeKind.FILE, file.getKind());
+    }
+
     public void testGetLogEntriesByProjectWhenUserHasNoPermissionToViewAnyIssuesMentionedInSvnCommit() throws IOException, IndexException {
         Mock mockIssue;
         Issue issue;
@@ -488,8 +553,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc.add(new Field(RevisionIndexer.FIELD_PROJECTKEY, "TST", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(1L));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
 
         indexWriter.close();
@@ -525,8 +590,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc.add(new Field(RevisionIndexer.FIELD_PROJECTKEY, "TST", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(1L));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
 
         indexWriter.close();
@@ -539,7 +604,7 @@ public class TestRevisionIndexer extends MockObjectTestCase {
                 .with(eq(Permissions.VIEW_VERSION_CONTROL), same(issue), new IsAnything())
                 .will(returnValue(true));
 
-        mockSvnMgr.expects(once()).method("getLogEntry").with(eq(1L)).will(returnValue(null));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(Collections.singleton(1L))).will(returnValue(Collections.EMPTY_MAP));
         mockMultipleSubversionRepositoryManager.expects(once()).method("getRepository").with(eq(1L)).will(returnValue(svnMgr));
 
         Map entriesMap;
@@ -566,8 +631,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc.add(new Field(RevisionIndexer.FIELD_PROJECTKEY, "TST", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(1L));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
 
         indexWriter.close();
@@ -581,7 +646,7 @@ public class TestRevisionIndexer extends MockObjectTestCase {
                 .will(returnValue(true));
 
         svnLogEntry = new SVNLogEntry(Collections.EMPTY_MAP, 1L, "dchui", new Date(), "TST-1");
-        mockSvnMgr.expects(once()).method("getLogEntry").with(eq(1L)).will(returnValue(svnLogEntry));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(Collections.singleton(1L))).will(returnValue(Collections.singletonMap(1L, svnLogEntry)));
         mockMultipleSubversionRepositoryManager.expects(once()).method("getRepository").with(eq(1L)).will(returnValue(svnMgr));
 
         Map entriesMap;
@@ -597,8 +662,6 @@ public class TestRevisionIndexer extends MockObjectTestCase {
     }
 
     public void testGetLogEntriesByVersionWhenUserHasNoPermissionToViewAnyIssuesOfVersionSpecified() throws IOException, IndexException {
-        Mock mockIssue;
-        Issue issueObject;
         IndexWriter indexWriter;
         Document doc;
 
@@ -614,18 +677,15 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc = new Document();
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(1L));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
 
         indexWriter.close();
 
-        mockIssue = new Mock(MutableIssue.class);
-        issueObject = (Issue) mockIssue.proxy();
-
-        mockIssueManager.expects(once()).method("getIssueObject").with(eq("TST-1")).will(returnValue(issueObject));
+        /* The issues of the version are checked as they are, without loading them again */
         mockPermissionManager.expects(once()).method("hasPermission")
-                .with(eq(Permissions.VIEW_VERSION_CONTROL), same(issueObject), new IsAnything())
+                .with(eq(Permissions.VIEW_VERSION_CONTROL), same(inputIssue), new IsAnything())
                 .will(returnValue(false));
 
         Map entriesMap;
@@ -637,8 +697,6 @@ public class TestRevisionIndexer extends MockObjectTestCase {
     }
 
     public void testGetLogEntriesByVersionWhenEverythingIsOk() throws IOException, IndexException {
-        Mock mockIssue;
-        Issue issueObject;
         IndexWriter indexWriter;
         Document doc;
         SVNLogEntry svnLogEntry;
@@ -654,22 +712,19 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         doc = new Document();
         doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
         doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
-        doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date()), Field.Store.YES, Field.Index.NOT_ANALYZED));
+        doc.add(RevisionIndexer.createRevisionField(1L));
+        doc.add(RevisionIndexer.createDateField(new Date()));
         indexWriter.addDocument(doc);
 
         indexWriter.close();
 
-        mockIssue = new Mock(MutableIssue.class);
-        issueObject = (Issue) mockIssue.proxy();
-
-        mockIssueManager.expects(once()).method("getIssueObject").with(eq("TST-1")).will(returnValue(issueObject));
+        /* The issues of the version are checked as they are, without loading them again */
         mockPermissionManager.expects(once()).method("hasPermission")
-                .with(eq(Permissions.VIEW_VERSION_CONTROL), same(issueObject), new IsAnything())
+                .with(eq(Permissions.VIEW_VERSION_CONTROL), same(inputIssue), new IsAnything())
                 .will(returnValue(true));
 
         svnLogEntry = new SVNLogEntry(Collections.EMPTY_MAP, 1L, "dchui", new Date(), "TST-1");
-        mockSvnMgr.expects(once()).method("getLogEntry").with(eq(1L)).will(returnValue(svnLogEntry));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(Collections.singleton(1L))).will(returnValue(Collections.singletonMap(1L, svnLogEntry)));
         mockMultipleSubversionRepositoryManager.expects(once()).method("getRepository").with(eq(1L)).will(returnValue(svnMgr));
 
         Map entriesMap;
@@ -684,6 +739,42 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         assertSame(svnLogEntry, entries.get(0));
     }
 
+    public void testGetLogEntriesByVersionWithMoreIssuesThanClauses() throws IOException, IndexException {
+        final int maxClauseCount = BooleanQuery.getMaxClauseCount();
+        List<Issue> issues = new ArrayList<Issue>();
+        for (int i = 1; i <= maxClauseCount + 500; i++) {
+            issues.add(new MockIssue(i, "TST-" + i));
+        }
+        mockVersionManager.expects(once()).method("getIssuesWithFixVersion").withAnyArguments().will(returnValue(issues));
+        mockVersionManager.expects(once()).method("getIssuesWithAffectsVersion").withAnyArguments().will(returnValue(Collections.EMPTY_LIST));
+
+        /* Only the issues with commits have their permissions checked */
+        Issue moved = issues.get(maxClauseCount + 10);
+        mockIssueManager.stubs().method("getIssueObject").with(eq("OLD-1")).will(returnValue(moved));
+        mockPermissionManager.expects(exactly(2)).method("hasPermission")
+                .with(eq(Permissions.VIEW_VERSION_CONTROL), isA(Issue.class), new IsAnything())
+                .will(returnValue(true));
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.setIssueKeyMatcher(new IssueKeyMatcher(Arrays.asList("TST", "OLD")));
+
+        /* One revision by the current key, one by the key the issue had before it was moved */
+        IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        indexWriter.addDocument(revisionIndexer.getDocument(1L, new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), 1L, "dchui", new Date(1000L), "TST-3 Fixed")));
+        indexWriter.addDocument(revisionIndexer.getDocument(1L, new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), 2L, "dchui", new Date(2000L), "OLD-1 Fixed")));
+        indexWriter.addDocument(revisionIndexer.getDocument(1L, new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), 3L, "dchui", new Date(3000L), "ABC-1 Elsewhere")));
+        indexWriter.commit();
+        indexWriter.close();
+
+        List<SVNLogEntry> entries = revisionIndexer.getLogEntriesByVersion((Version) new Mock(Version.class).proxy(), null, 0, Integer.MAX_VALUE).get(1L);
+        assertEquals(2, entries.size());
+        assertEquals(2L, entries.get(0).getRevision());
+        assertEquals(1L, entries.get(1).getRevision());
+
+        /* No global state changed */
+        assertEquals(maxClauseCount, BooleanQuery.getMaxClauseCount());
+    }
+
     public void testAddRepository() throws IOException, IndexException {
         /* We'll start off with an empty index */
         IndexWriter indexWriter;
@@ -697,7 +788,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
         mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
-        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), ANYTHING).will(callHandlerWithLogEntries(entries));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
 
         mockMultipleSubversionRepositoryManager.reset();
         mockMultipleSubversionRepositoryManager.expects(exactly(2)).method("getRepositoryList").withNoArguments().will(
@@ -747,7 +839,8 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         mockSvnMgr.expects(atMostOnce()).method("getRoot").withNoArguments().will(returnValue(System.getProperty("svn.root")));
         mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
         mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
-        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), ANYTHING).will(callHandlerWithLogEntries(entries));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
 
         mockMultipleSubversionRepositoryManager.reset();
         mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
@@ -780,11 +873,927 @@ public class TestRevisionIndexer extends MockObjectTestCase {
         indexReader.close();
     }
 
+    public void testUpdateIndexResumesFromCheckpointAfterRestart() throws IOException, IndexException {
+        /* Revision 1 mentions no issue key, but it has been scanned and must not be fetched again */
+        final List<SVNLogEntry> entries = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "No key here"));
+
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return logEntry.getMessage().startsWith("TST-");
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+        revisionIndexer.updateIndex();
+
+        assertEquals("1", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+        revisionIndexer.stop();
+
+        /* A new indexer (e.g. after a restart) continues from the checkpoint, so there is nothing left to fetch */
+        getRevisionIndexer().updateIndex();
+    }
+
+    public void testIndexIsCommittedByDocumentCountOnOneWriter() throws IOException, IndexException {
+        final List<SVNLogEntry> entries = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 2, "dchui", new Date(), "TST-1"));
+
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(2L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(2L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        System.setProperty(RevisionIndexer.COMMIT_DOCUMENTS_PROPERTY, "2");
+        System.setProperty(RevisionIndexer.COMMIT_INTERVAL_PROPERTY, "3600");
+        RevisionIndexer revisionIndexer;
+        try {
+            revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                    versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+                protected boolean isKeyInString(SVNLogEntry logEntry) {
+                    return true;
+                }
+
+                protected String getProjectKeyFromIssueKey(String issueKey) {
+                    return "TST";
+                }
+
+                protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                    return EasyList.build("TST-1");
+                }
+            };
+        } finally {
+            System.clearProperty(RevisionIndexer.COMMIT_DOCUMENTS_PROPERTY);
+            System.clearProperty(RevisionIndexer.COMMIT_INTERVAL_PROPERTY);
+        }
+
+        /* One commit after the second document, one for the rest at the end of the run */
+        revisionIndexer.updateIndex();
+        assertEquals(2, revisionIndexer.getWriterMetrics().getCommitCount());
+        assertEquals("2", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+
+        /* Nothing new, nothing to commit */
+        revisionIndexer.updateIndex();
+        assertEquals(2, revisionIndexer.getWriterMetrics().getCommitCount());
+
+        /* The writer is kept open until the indexer stops */
+        revisionIndexer.stop();
+        new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), false, RevisionIndexer.ANALYZER).close();
+    }
+
+    public void testUpdateIndexSkipsRevisionsAlreadyIndexed() throws IOException, IndexException {
+        /* Populate the search index with revision 3 of repository 1 and revision 4 of repository 2, in the old format */
+        IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        for (String[] repoAndRevision : new String[][]{{"1", "3"}, {"2", "4"}}) {
+            Document doc = new Document();
+            doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, repoAndRevision[0], Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, repoAndRevision[1], Field.Store.YES, Field.Index.NOT_ANALYZED));
+            indexWriter.addDocument(doc);
+        }
+        indexWriter.commit();
+        indexWriter.close();
+
+        /* The repository hands out revision 3 again, e.g. after an overlapping scan */
+        final List<SVNLogEntry> entries = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 3, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 4, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 5, "dchui", new Date(), "TST-1"));
+
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(5L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(3L), eq(5L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return true;
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+        revisionIndexer.updateIndex();
+
+        /* Revisions 4 and 5 of repository 1 are new, revision 3 is not indexed twice */
+        IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(getIndexPath());
+        assertEquals(4, indexReader.numDocs());
+        assertEquals(1, indexReader.docFreq(new Term(RevisionIndexer.FIELD_REVISIONNUMBER, NumericUtils.longToPrefixCoded(3))));
+        assertEquals(2, indexReader.docFreq(new Term(RevisionIndexer.FIELD_REVISIONNUMBER, NumericUtils.longToPrefixCoded(4))));
+        indexReader.close();
+    }
+
+    public void testStartUpgradesIndexOfOldFormat() throws IOException, IndexException {
+        Mock mockIssue = new Mock(Issue.class);
+        mockIssue.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(new Long(10000L)));
+        mockIssue.expects(atLeastOnce()).method("getKey").withNoArguments().will(returnValue("TST-1"));
+        Issue issue = (Issue) mockIssue.proxy();
+
+        /* Revisions 9 and 10 as the previous versions indexed them, so sorting the strings would get them wrong */
+        final Date date = new Date(1300000000000L);
+        IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        for (long revision = 9; revision <= 10; revision++) {
+            Document doc = new Document();
+            doc.add(new Field(RevisionIndexer.FIELD_MESSAGE, "TST-1 Fixed", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_ISSUEKEY, "TST-1", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_REPOSITORY, "1", Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_REVISIONNUMBER, Long.toString(revision), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_DATE, DateField.dateToString(new Date(date.getTime() + revision * 1000)), Field.Store.YES, Field.Index.NOT_ANALYZED));
+            doc.add(new Field(RevisionIndexer.FIELD_CHANGED_PATHS, ChangedPaths.compress(Collections.<String, SVNLogEntryPath>emptyMap())));
+            indexWriter.addDocument(doc);
+        }
+        indexWriter.commit(Collections.singletonMap(RevisionIndexer.CHECKPOINT_PREFIX + 1L, "10"));
+        indexWriter.close();
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.start();
+
+        Map<String, String> userData = new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath());
+        assertEquals(Integer.toString(RevisionIndexer.FORMAT), userData.get(RevisionIndexer.FORMAT_KEY));
+        assertEquals("10", userData.get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+
+        /* Moved into the shard of the repository */
+        assertEquals(0, countDocuments(getIndexPath()));
+        assertEquals(2, countDocuments(revisionIndexer.getShardPath(1L)));
+
+        /* Newest first, read from the stored fields */
+        List<SVNLogEntry> entries = revisionIndexer.getLogEntriesByRepository(issue, 0, 10, false).get(1L);
+        assertEquals(2, entries.size());
+        assertEquals(10L, entries.get(0).getRevision());
+        assertEquals(new Date(date.getTime() + 10000), entries.get(0).getDate());
+        assertEquals(9L, entries.get(1).getRevision());
+
+        /* The numeric fields can be filtered by range */
+        entries = revisionIndexer.getLogEntriesByRepository(issue, 0, 10, false, new RevisionRange(null, 9L, null, null)).get(1L);
+        assertEquals(1, entries.size());
+        assertEquals(9L, entries.get(0).getRevision());
+        entries = revisionIndexer.getLogEntriesByRepository(issue, 0, 10, false, new RevisionRange(null, null, new Date(date.getTime() + 10000), null)).get(1L);
+        assertEquals(1, entries.size());
+        assertEquals(10L, entries.get(0).getRevision());
+        revisionIndexer.stop();
+    }
+
+    public void testGetLogEntryPageByRepositoryPagesPastMaxRevisions() throws IOException, IndexException {
+        Mock mockIssue = new Mock(Issue.class);
+        mockIssue.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(new Long(10000L)));
+        mockIssue.expects(atLeastOnce()).method("getKey").withNoArguments().will(returnValue("TST-1"));
+        Issue issue = (Issue) mockIssue.proxy();
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.setIssueKeyMatcher(new IssueKeyMatcher(Collections.singleton("TST")));
+
+        /* Three commits a second, so the pages keep ending in the middle of a date */
+        final int revisions = RevisionIndexer.MAX_REVISIONS * 2 + 50;
+        final long start = 1300000000000L;
+        IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        for (long revision = 1; revision <= revisions; revision++) {
+            indexWriter.addDocument(revisionIndexer.getDocument(1L,
+                    new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), revision, "dchui", new Date(start + revision / 3 * 1000), "TST-1 Fixed")));
+        }
+        indexWriter.commit();
+        indexWriter.close();
+
+        Set<Long> seen = new HashSet<Long>();
+        Date previousDate = null;
+        String cursor = null;
+        int pages = 0;
+        do {
+            LogEntryPage page = revisionIndexer.getLogEntryPageByRepository(issue, cursor, 7, false, RevisionRange.ALL);
+            for (SVNLogEntry logEntry : page.getLogEntries().get(1L)) {
+                assertTrue("Revision " + logEntry.getRevision() + " shown twice", seen.add(logEntry.getRevision()));
+                assertTrue(previousDate == null || !logEntry.getDate().after(previousDate));
+                previousDate = logEntry.getDate();
+            }
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(revisions, seen.size());
+        assertEquals((revisions + 6) / 7, pages);
+    }
+
+    public void testGetLogEntryPageByRepositoryIgnoresCursorSkippingTooManyCommits() throws IOException, IndexException {
+        Mock mockIssue = new Mock(Issue.class);
+        mockIssue.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(new Long(10000L)));
+        mockIssue.expects(atLeastOnce()).method("getKey").withNoArguments().will(returnValue("TST-1"));
+        Issue issue = (Issue) mockIssue.proxy();
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.setIssueKeyMatcher(new IssueKeyMatcher(Collections.singleton("TST")));
+
+        final long date = 1300000000000L;
+        IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        for (long revision = 1; revision <= 3; revision++) {
+            indexWriter.addDocument(revisionIndexer.getDocument(1L,
+                    new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), revision, "dchui", new Date(date), "TST-1 Fixed")));
+        }
+        indexWriter.commit();
+        indexWriter.close();
+
+        /* A token made up by the browser, skipping nearly Integer.MAX_VALUE commits of the date, shows the first page */
+        final String dateToken = Long.toString(date, Character.MAX_RADIX);
+        for (String token : Arrays.asList(dateToken + "." + Integer.toString(Integer.MAX_VALUE - 1, Character.MAX_RADIX),
+                dateToken + "." + Integer.toString(RevisionIndexer.MAX_REVISIONS + 1, Character.MAX_RADIX))) {
+            LogEntryPage page = revisionIndexer.getLogEntryPageByRepository(issue, token, 2, false, RevisionRange.ALL);
+            assertEquals(2, page.getLogEntries().get(1L).size());
+            assertNotNull(page.getNextCursor());
+        }
+    }
+
+    public void testGetLogEntriesByRepositoryFindsCommitsOfPreviousKeysByIssueId() throws IOException, IndexException {
+        Mock mockIssue = new Mock(MutableIssue.class);
+        mockIssue.stubs().method("getId").withNoArguments().will(returnValue(new Long(10000L)));
+        mockIssue.stubs().method("getKey").withNoArguments().will(returnValue("TST-1"));
+        MutableIssue issue = (MutableIssue) mockIssue.proxy();
+
+        /* JIRA resolves the key the issue had before it was moved */
+        mockIssueManager.expects(once()).method("getIssueObject").with(eq("OLD-7")).will(returnValue(issue));
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.setIssueKeyMatcher(new IssueKeyMatcher(Arrays.asList("TST", "OLD")));
+
+        IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), true, RevisionIndexer.ANALYZER);
+        Document doc = revisionIndexer.getDocument(1L, new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), 42L, "dchui", new Date(), "OLD-7 Fixed"));
+        assertEquals("10000", doc.get(RevisionIndexer.FIELD_ISSUEID));
+        assertNull(doc.get(RevisionIndexer.FIELD_UNRESOLVED_ISSUEKEY));
+        indexWriter.addDocument(doc);
+        indexWriter.commit();
+        indexWriter.close();
+
+        List<SVNLogEntry> entries = revisionIndexer.getLogEntriesByRepository(issue).get(1L);
+        assertEquals(1, entries.size());
+        assertEquals(42L, entries.get(0).getRevision());
+    }
+
+    public void testResolveIssueIdsResolvesKeysInBatches() throws IOException, IndexException {
+        Mock mockIssue = new Mock(MutableIssue.class);
+        mockIssue.stubs().method("getId").withNoArguments().will(returnValue(new Long(10000L)));
+        mockIssue.stubs().method("getKey").withNoArguments().will(returnValue("TST-1"));
+        MutableIssue issue = (MutableIssue) mockIssue.proxy();
+
+        System.setProperty(RevisionIndexer.RESOLVE_BATCH_PROPERTY, "1");
+        try {
+            RevisionIndexer revisionIndexer = getRevisionIndexer();
+            revisionIndexer.setIssueKeyMatcher(new IssueKeyMatcher(Arrays.asList("TST", "OLD")));
+            revisionIndexer.start();
+
+            /* Neither issue exists yet when the revisions are indexed */
+            IndexWriter indexWriter = new DefaultLuceneIndexAccessor().getIndexWriter(getIndexPath(), false, RevisionIndexer.ANALYZER);
+            indexWriter.addDocument(revisionIndexer.getDocument(1L, new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), 1L, "dchui", new Date(), "OLD-7 Fixed")));
+            indexWriter.addDocument(revisionIndexer.getDocument(1L, new SVNLogEntry(Collections.<String, SVNLogEntryPath>emptyMap(), 2L, "dchui", new Date(), "OLD-8 and OLD-7 Fixed")));
+            indexWriter.commit();
+            indexWriter.close();
+            assertNull(revisionIndexer.getLogEntriesByRepository(issue).get(1L));
+
+            mockIssueManager.stubs().method("getIssueObject").with(eq("OLD-7")).will(returnValue(issue));
+
+            /* One key per run: OLD-7 resolves both revisions, OLD-8 has no issue and is not looked up again */
+            assertEquals(2, revisionIndexer.resolveIssueIds());
+            assertEquals(1, revisionIndexer.resolveIssueIds());
+            mockIssueManager.expects(never()).method("getIssueObject").with(eq("OLD-8"));
+            assertEquals(0, revisionIndexer.resolveIssueIds());
+
+            List<SVNLogEntry> entries = revisionIndexer.getLogEntriesByRepository(issue, 0, 10, false).get(1L);
+            assertEquals(2, entries.size());
+            assertEquals(2L, entries.get(0).getRevision());
+            assertEquals("OLD-8 and OLD-7 Fixed", entries.get(0).getMessage());
+            assertEquals(1L, entries.get(1).getRevision());
+
+            IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(revisionIndexer.getIndexPath());
+            try {
+                assertEquals(0, indexReader.docFreq(new Term(RevisionIndexer.FIELD_UNRESOLVED_ISSUEKEY, "OLD-7")));
+                assertEquals(0, indexReader.docFreq(new Term(RevisionIndexer.FIELD_UNRESOLVED_ISSUEKEY, "OLD-8")));
+                assertEquals(1, indexReader.docFreq(new Term(RevisionIndexer.FIELD_ISSUEID, Long.toString(RevisionIndexer.UNRESOLVABLE_ISSUE_ID))));
+                assertEquals(1, indexReader.docFreq(new Term(RevisionIndexer.FIELD_ISSUEKEY, "OLD-8")));
+                assertEquals(2, indexReader.docFreq(new Term(RevisionIndexer.FIELD_ISSUEID, "10000")));
+                assertEquals(1, indexReader.docFreq(new Term(RevisionIndexer.FIELD_REVISIONNUMBER, NumericUtils.longToPrefixCoded(2))));
+            } finally {
+                indexReader.close();
+            }
+            revisionIndexer.stop();
+        } finally {
+            System.clearProperty(RevisionIndexer.RESOLVE_BATCH_PROPERTY);
+        }
+    }
+
+    public void testUpdateIndexIndexesRepositoriesInParallel() throws IOException, IndexException {
+        /* The first repository only returns its entries once the second one has been asked for its entries */
+        final CountDownLatch secondRepositoryStarted = new CountDownLatch(1);
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(new CustomStub("wait for the second repository") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                assertTrue(secondRepositoryStarted.await(10, TimeUnit.SECONDS));
+                return callHandlerWithLogEntries(entries).invoke(invocation);
+            }
+        });
+
+        Mock mockSecondSvnMgr = new Mock(SubversionManager.class);
+        mockSecondSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(2L));
+        mockSecondSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSecondSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSecondSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(new CustomStub("signal the first repository") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                secondRepositoryStarted.countDown();
+                return callHandlerWithLogEntries(entries).invoke(invocation);
+            }
+        });
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr, mockSecondSvnMgr.proxy()))
+        );
+
+        RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return true;
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+        revisionIndexer.updateIndex();
+        revisionIndexer.stop();
+
+        /* Each repository went into a shard of its own, searched as one index */
+        IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(getIndexPath());
+        assertEquals(2, indexReader.numDocs());
+        indexReader.close();
+        assertEquals(1, countDocuments(revisionIndexer.getShardPath(1L)));
+        assertEquals(1, countDocuments(revisionIndexer.getShardPath(2L)));
+        assertEquals("0", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 2L));
+    }
+
+    public void testUpdateIndexCommitsEachWindow() throws IOException, IndexException {
+        final List<SVNLogEntry> firstWindow = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"));
+
+        /* The second window fails, e.g. because the connection dropped */
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getDisplayName").withNoArguments().will(returnValue("Repository 1"));
+        mockSvnMgr.expects(once()).method("getLatestRevision").withNoArguments().will(returnValue(5L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(firstWindow));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(1L), eq(3L), ANYTHING).will(throwException(new RuntimeException("Connection dropped")));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        System.setProperty(RevisionIndexer.INDEXING_WINDOW_PROPERTY, "2");
+        try {
+            RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                    versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+                protected boolean isKeyInString(SVNLogEntry logEntry) {
+                    return true;
+                }
+
+                protected String getProjectKeyFromIssueKey(String issueKey) {
+                    return "TST";
+                }
+
+                protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                    return EasyList.build("TST-1");
+                }
+            };
+            revisionIndexer.updateIndex();
+        } finally {
+            System.clearProperty(RevisionIndexer.INDEXING_WINDOW_PROPERTY);
+        }
+
+        /* The first window has been committed and the next run resumes after it */
+        IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(getIndexPath());
+        assertEquals(2, indexReader.numDocs());
+        indexReader.close();
+        assertEquals("1", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+    }
+
+    public void testUpdateIndexStopsAtWindowThatFailsPartWay() throws IOException, IndexException {
+        final List<SVNLogEntry> firstWindow = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"));
+        final List<SVNLogEntry> partOfSecondWindow = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 2, "dchui", new Date(), "TST-1"));
+
+        /* The log stream of the second window breaks after its first entry; the third window is never asked for */
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getDisplayName").withNoArguments().will(returnValue("Repository 1"));
+        mockSvnMgr.expects(once()).method("getLatestRevision").withNoArguments().will(returnValue(5L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(firstWindow));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(1L), eq(3L), ANYTHING).will(new CustomStub("break the log stream") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                callHandlerWithLogEntries(partOfSecondWindow).invoke(invocation);
+                throw new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR, "Connection reset"));
+            }
+        });
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        System.setProperty(RevisionIndexer.INDEXING_WINDOW_PROPERTY, "2");
+        try {
+            getIndexingRevisionIndexer(indexPathManager).updateIndex();
+        } finally {
+            System.clearProperty(RevisionIndexer.INDEXING_WINDOW_PROPERTY);
+        }
+
+        /* The next run resumes after the last revision handled rather than after the windows skipped */
+        IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(getIndexPath());
+        assertEquals(3, indexReader.numDocs());
+        indexReader.close();
+        assertEquals("2", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+    }
+
+    public void testIndexRevisionsOnlyMovesCheckpointWithoutGap() throws Exception {
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(4L), eq(5L), ANYTHING).will(callHandlerWithLogEntries(
+                ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 5, "dchui", new Date(), "TST-1"))));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(
+                ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"),
+                        new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"))));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return true;
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+
+        /* Revisions 0 to 4 have not been indexed yet, so revision 5 is indexed but the checkpoint stays put */
+        revisionIndexer.indexRevisions(svnMgr, 5, 5).get(10, TimeUnit.SECONDS);
+        assertEquals("-1", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+
+        revisionIndexer.indexRevisions(svnMgr, 0, 1).get(10, TimeUnit.SECONDS);
+        assertEquals("1", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+        revisionIndexer.stop();
+
+        IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(getIndexPath());
+        assertEquals(3, indexReader.numDocs());
+        indexReader.close();
+    }
+
+    public void testIndexRevisionsCompletesWhileUpdateIndexRuns() throws Exception {
+        /* The sweep only gets the entries of the first repository once the push to the second one is indexed */
+        final CountDownLatch sweepStarted = new CountDownLatch(1);
+        final CountDownLatch pushIndexed = new CountDownLatch(1);
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(new CustomStub("wait for the push") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                sweepStarted.countDown();
+                assertTrue(pushIndexed.await(10, TimeUnit.SECONDS));
+                return callHandlerWithLogEntries(entries).invoke(invocation);
+            }
+        });
+
+        Mock mockSecondSvnMgr = new Mock(SubversionManager.class);
+        mockSecondSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(2L));
+        mockSecondSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSecondSvnMgr.stubs().method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSecondSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
+        final SubversionManager secondSvnMgr = (SubversionManager) mockSecondSvnMgr.proxy();
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr, secondSvnMgr))
+        );
+
+        final RevisionIndexer revisionIndexer = getIndexingRevisionIndexer(indexPathManager);
+        final Thread sweep = new Thread("sweep") {
+            @Override
+            public void run() {
+                try {
+                    revisionIndexer.updateIndex();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        sweep.start();
+        try {
+            assertTrue(sweepStarted.await(10, TimeUnit.SECONDS));
+            revisionIndexer.indexRevisions(secondSvnMgr, 0, 0).get(10, TimeUnit.SECONDS);
+            assertEquals(1, countDocuments(revisionIndexer.getShardPath(2L)));
+        } finally {
+            pushIndexed.countDown();
+            sweep.join(10000);
+        }
+        revisionIndexer.stop();
+
+        assertEquals(1, countDocuments(revisionIndexer.getShardPath(1L)));
+        assertEquals("0", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 2L));
+    }
+
+    public void testRemoveEntriesDropsCheckpoint() throws IOException, IndexException, SVNException {
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.updateIndex();
+        assertEquals("0", new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+
+        revisionIndexer.removeEntries(1L);
+        assertNull(new DefaultLuceneIndexAccessor().getCommitUserData(getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+    }
+
+    public void testRemoveEntriesDropsShardOfRepository() throws IOException, IndexException, SVNException {
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return true;
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+        revisionIndexer.updateIndex();
+        final File shard = new File(revisionIndexer.getShardPath(1L));
+        assertEquals(1, countDocuments(shard.getPath()));
+
+        revisionIndexer.removeEntries(1L);
+        assertFalse(shard.exists());
+        IndexReader indexReader = new DefaultLuceneIndexAccessor().getIndexReader(getIndexPath());
+        assertEquals(0, indexReader.numDocs());
+        indexReader.close();
+
+        /* Indexed again into a new shard */
+        revisionIndexer.updateIndex();
+        assertEquals(1, countDocuments(shard.getPath()));
+        revisionIndexer.stop();
+    }
+
+    public void testRebuildIndexReplacesIndexWithShadowIndex() throws Exception {
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(atLeastOnce()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer = new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return true;
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+        revisionIndexer.updateIndex();
+        assertEquals(getIndexPath(), revisionIndexer.getIndexPath());
+
+        IndexRebuildProgress progress = revisionIndexer.rebuildIndex();
+        for (int i = 0; i < 100 && !progress.isFinished(); i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(progress.getFailure(), IndexRebuildProgress.State.COMPLETE, progress.getState());
+        assertEquals(1, progress.getRepositoryCount());
+        assertEquals(1, progress.getDocumentCount());
+        assertEquals(100, progress.getPercentComplete());
+
+        /* The shadow index is the current one, with the checkpoint, and the previous one is gone */
+        final String indexPath = revisionIndexer.getIndexPath();
+        assertFalse(getIndexPath().equals(indexPath));
+        assertFalse(new File(getIndexPath()).exists());
+        assertEquals("0", new DefaultLuceneIndexAccessor().getCommitUserData(indexPath).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+        assertEquals(1, countDocuments(revisionIndexer.getShardPath(1L)));
+        revisionIndexer.stop();
+
+        /* A new indexer carries on with the index the rebuild left */
+        revisionIndexer = getRevisionIndexer();
+        assertEquals(indexPath, revisionIndexer.getIndexPath());
+        revisionIndexer.updateIndex();
+        assertEquals(1, countDocuments(revisionIndexer.getShardPath(1L)));
+        revisionIndexer.stop();
+    }
+
+    public void testRebuildIndexLeavesOutRepositoryWhoseWindowFailsPartWay() throws Exception {
+        final List<SVNLogEntry> firstWindow = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"),
+                new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"));
+        final List<SVNLogEntry> partOfSecondWindow = ImmutableList.of(
+                new SVNLogEntry(Collections.EMPTY_MAP, 2, "dchui", new Date(), "TST-1"));
+
+        /* The log stream of the second window breaks after its first entry; the repository is not caught up either */
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getDisplayName").withNoArguments().will(returnValue("Repository 1"));
+        mockSvnMgr.expects(once()).method("getLatestRevision").withNoArguments().will(returnValue(5L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(firstWindow));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(1L), eq(3L), ANYTHING).will(new CustomStub("break the log stream") {
+            @Override
+            public Object invoke(Invocation invocation) throws Throwable {
+                callHandlerWithLogEntries(partOfSecondWindow).invoke(invocation);
+                throw new SVNException(SVNErrorMessage.create(SVNErrorCode.RA_SVN_IO_ERROR, "Connection reset"));
+            }
+        });
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        RevisionIndexer revisionIndexer;
+        IndexRebuildProgress progress;
+        System.setProperty(RevisionIndexer.INDEXING_WINDOW_PROPERTY, "2");
+        try {
+            revisionIndexer = getIndexingRevisionIndexer(indexPathManager);
+            progress = revisionIndexer.rebuildIndex();
+            for (int i = 0; i < 100 && !progress.isFinished(); i++) {
+                Thread.sleep(100);
+            }
+        } finally {
+            System.clearProperty(RevisionIndexer.INDEXING_WINDOW_PROPERTY);
+        }
+
+        /* The rebuild completes without the repository, which the next update indexes from scratch */
+        assertEquals(progress.getFailure(), IndexRebuildProgress.State.COMPLETE, progress.getState());
+        assertEquals(Collections.singleton("Repository 1"), progress.getFailedRepositories().keySet());
+        assertFalse(new File(revisionIndexer.getShardPath(1L)).exists());
+        assertNull(new DefaultLuceneIndexAccessor().getCommitUserData(revisionIndexer.getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+        revisionIndexer.stop();
+    }
+
+    public void testStartDeletesIndexLeftBehindByRebuild() throws IOException {
+        final File shadow = new File(temporaryIndexDirectory, RevisionIndexer.REVISIONS_INDEX_DIRECTORY + "-1");
+        new DefaultLuceneIndexAccessor().getIndexWriter(shadow.getPath(), true, RevisionIndexer.ANALYZER).close();
+
+        RevisionIndexer revisionIndexer = getRevisionIndexer();
+        revisionIndexer.start();
+        assertFalse(shadow.exists());
+        assertTrue(new File(getIndexPath()).exists());
+        revisionIndexer.stop();
+    }
+
+    public void testReplicaCopiesIndexPublishedByAnotherNode() throws IOException, IndexException {
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+        final List<SVNLogEntry> newEntries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"));
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        /* The replica runs on a node of its own, which never asks the repository for anything */
+        final File replicaRoot = new File(temporaryIndexDirectory, "replica");
+        final Mock mockReplicaIndexPathManager = new Mock(IndexPathManager.class);
+        mockReplicaIndexPathManager.expects(atLeastOnce()).method("getPluginIndexRootPath").withNoArguments().will(returnValue(replicaRoot.getAbsolutePath()));
+
+        System.setProperty(IndexReplicator.PATH_PROPERTY, new File(temporaryIndexDirectory, "shared").getAbsolutePath());
+        final RevisionIndexer publisher;
+        final RevisionIndexer replica;
+        try {
+            System.setProperty(RevisionIndexer.PUBLISH_PROPERTY, "true");
+            publisher = new RevisionIndexer(multipleSubversionRepositoryManager,
+                    versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+                protected boolean isKeyInString(SVNLogEntry logEntry) {
+                    return true;
+                }
+
+                protected String getProjectKeyFromIssueKey(String issueKey) {
+                    return "TST";
+                }
+
+                protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                    return EasyList.build("TST-1");
+                }
+            };
+            System.setProperty(RevisionIndexer.PUBLISH_PROPERTY, "false");
+            replica = new RevisionIndexer(multipleSubversionRepositoryManager,
+                    versionManager, issueManager, permissionManager, changeHistoryManager, (IndexPathManager) mockReplicaIndexPathManager.proxy());
+        } finally {
+            System.clearProperty(IndexReplicator.PATH_PROPERTY);
+            System.clearProperty(RevisionIndexer.PUBLISH_PROPERTY);
+        }
+        assertFalse(publisher.isReplica());
+        assertTrue(replica.isReplica());
+
+        publisher.start();
+        publisher.updateIndex();
+        publisher.publishIndex();
+
+        /* The first snapshot is copied into a new directory, replacing the empty index the replica started with */
+        replica.start();
+        final String replicaPath = replica.getIndexPath();
+        assertTrue(replicaPath.startsWith(replicaRoot.getAbsolutePath()));
+        assertEquals(1, countDocuments(replica.getShardPath(1L)));
+        assertEquals("0", new DefaultLuceneIndexAccessor().getCommitUserData(replicaPath).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+        assertEquals(0, replica.resolveIssueIds());
+
+        /* Later snapshots only add files to it */
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(0L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(newEntries));
+        publisher.updateIndex();
+        publisher.publishIndex();
+        replica.updateIndex();
+        assertEquals(replicaPath, replica.getIndexPath());
+        assertEquals(2, countDocuments(replica.getShardPath(1L)));
+        assertEquals("1", new DefaultLuceneIndexAccessor().getCommitUserData(replicaPath).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+
+        replica.stop();
+        publisher.stop();
+    }
+
+    public void testPublishingMovesToAnotherNode() throws IOException, IndexException {
+        final List<SVNLogEntry> entries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 0, "dchui", new Date(), "TST-1"));
+        final List<SVNLogEntry> newEntries = ImmutableList.of(new SVNLogEntry(Collections.EMPTY_MAP, 1, "dchui", new Date(), "TST-1"));
+        mockSvnMgr.expects(atLeastOnce()).method("getId").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(atLeastOnce()).method("isActive").withNoArguments().will(returnValue(true));
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(0L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(-1L), eq(0L), ANYTHING).will(callHandlerWithLogEntries(entries));
+
+        mockMultipleSubversionRepositoryManager.reset();
+        mockMultipleSubversionRepositoryManager.expects(atLeastOnce()).method("getRepositoryList").withNoArguments().will(
+                returnValue(EasyList.build(svnMgr))
+        );
+
+        final File otherRoot = new File(temporaryIndexDirectory, "other");
+        final Mock mockOtherIndexPathManager = new Mock(IndexPathManager.class);
+        mockOtherIndexPathManager.expects(atLeastOnce()).method("getPluginIndexRootPath").withNoArguments().will(returnValue(otherRoot.getAbsolutePath()));
+
+        System.setProperty(IndexReplicator.PATH_PROPERTY, new File(temporaryIndexDirectory, "shared").getAbsolutePath());
+        final RevisionIndexer first;
+        final RevisionIndexer second;
+        try {
+            first = getIndexingRevisionIndexer(indexPathManager);
+            second = getIndexingRevisionIndexer((IndexPathManager) mockOtherIndexPathManager.proxy());
+        } finally {
+            System.clearProperty(IndexReplicator.PATH_PROPERTY);
+        }
+        assertTrue(first.isElectingPublisher());
+        assertTrue(first.isReplica());
+
+        /* The first node is elected */
+        first.start();
+        second.start();
+        first.setPublishing(true);
+        first.updateIndex();
+        first.publishIndex();
+        second.copyPublishedIndex();
+        assertEquals(1, countDocuments(second.getShardPath(1L)));
+
+        /* The second one takes over, carrying on from the revisions the first one published */
+        first.setPublishing(false);
+        second.setPublishing(true);
+        assertFalse(new File(second.getIndexPath(), IndexReplicator.REPLICA_FILE).exists());
+        mockSvnMgr.expects(atLeastOnce()).method("getLatestRevision").withNoArguments().will(returnValue(1L));
+        mockSvnMgr.expects(once()).method("getLogEntries").with(eq(0L), eq(1L), ANYTHING).will(callHandlerWithLogEntries(newEntries));
+        second.updateIndex();
+        second.publishIndex();
+        assertEquals(2, countDocuments(second.getShardPath(1L)));
+
+        /* The first one copies the whole snapshot, as its index is no longer one it copied */
+        final String firstPath = first.getIndexPath();
+        first.updateIndex();
+        assertFalse(firstPath.equals(first.getIndexPath()));
+        assertEquals(2, countDocuments(first.getShardPath(1L)));
+        assertEquals("1", new DefaultLuceneIndexAccessor().getCommitUserData(first.getIndexPath()).get(RevisionIndexer.CHECKPOINT_PREFIX + 1L));
+
+        second.stop();
+        first.stop();
+    }
+
+    private RevisionIndexer getIndexingRevisionIndexer(IndexPathManager indexPathManager) {
+        return new RevisionIndexer(multipleSubversionRepositoryManager,
+                versionManager, issueManager, permissionManager, changeHistoryManager, indexPathManager) {
+            protected boolean isKeyInString(SVNLogEntry logEntry) {
+                return true;
+            }
+
+            protected String getProjectKeyFromIssueKey(String issueKey) {
+                return "TST";
+            }
+
+            protected List<String> getIssueKeysFromString(SVNLogEntry logEntry) {
+                return EasyList.build("TST-1");
+            }
+        };
+    }
+
+    /**
+     * @return the documents of the index at the path, without those of its shards.
+     */
+    private static int countDocuments(String path) throws IOException {
+        final IndexReader indexReader = IndexReader.open(FSDirectory.open(new File(path)));
+        try {
+            return indexReader.numDocs();
+        } finally {
+            indexReader.close();
+        }
+    }
+
     private CustomStub callHandlerWithLogEntries(final List<SVNLogEntry> entries) {
         return new CustomStub("call log entries") {
             @Override
             public Object invoke(final Invocation invocation) throws Throwable {
-                final SvnEntryHandler param = (SvnEntryHandler) invocation.parameterValues.get(1);
+                final SvnEntryHandler param = (SvnEntryHandler) invocation.parameterValues.get(2);
                 for (SVNLogEntry entry : entries) {
                     param.handle(entry);
                 }
@@ -0,0 +1,19 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestRevisionRange extends TestCase {
+    public void testParseIncludesWholeEndDay() {
+        final RevisionRange range = RevisionRange.parse("5", " ", "2011-03-01", "2011-03-02");
+        assertEquals(Long.valueOf(5), range.getFromRevision());
+        assertNull(range.getToRevision());
+        assertEquals(TimeUnit.DAYS.toMillis(2) - 1, range.getToDate().getTime() - range.getFromDate().getTime());
+        assertFalse(range.isUnbounded());
+    }
+
+    public void testParseIgnoresInvalidValues() {
+        assertTrue(RevisionRange.parse("five", null, "March", "2011-02-30").isUnbounded());
+    }
+}
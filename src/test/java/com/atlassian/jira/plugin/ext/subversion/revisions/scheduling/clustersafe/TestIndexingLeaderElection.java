@@ -0,0 +1,231 @@
+package com.atlassian.jira.plugin.ext.subversion.revisions.scheduling.clustersafe;
+
+import com.atlassian.beehive.ClusterLock;
+import com.atlassian.beehive.ClusterLockService;
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManagerImpl;
+import com.atlassian.jira.propertyset.JiraPropertySetFactory;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.opensymphony.module.propertyset.PropertySet;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestIndexingLeaderElection {
+    private static final long HEARTBEAT = 1000;
+    private static final long LEASE = 5000;
+
+    @Mock
+    private ClusterLockService clusterLockService;
+    @Mock
+    private ClusterLock lock;
+    @Mock
+    private JiraPropertySetFactory jiraPropertySetFactory;
+    @Mock
+    private PropertySet propertySet;
+    @Mock
+    private IndexingLeaderElection.Listener listener1;
+    @Mock
+    private IndexingLeaderElection.Listener listener2;
+
+    private final Map<String, Object> properties = new HashMap<String, Object>();
+    private IndexingLeaderElection node1;
+    private IndexingLeaderElection node2;
+
+    @Before
+    public void setUp() {
+        when(clusterLockService.getLockForName(IndexingLeaderElection.LOCK_NAME)).thenReturn(lock);
+        when(lock.tryLock()).thenReturn(true);
+        when(jiraPropertySetFactory.buildNoncachingPropertySet(MultipleSubversionRepositoryManagerImpl.APP_PROPERTY_PREFIX)).thenReturn(propertySet);
+
+        /* The application properties shared by the nodes */
+        when(propertySet.getString(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                return properties.get(invocation.getArguments()[0]);
+            }
+        });
+        when(propertySet.getLong(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                final Long value = (Long) properties.get(invocation.getArguments()[0]);
+                return value != null ? value : 0L;
+            }
+        });
+        final Answer<Object> set = new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                properties.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+                return null;
+            }
+        };
+        doAnswer(set).when(propertySet).setString(anyString(), anyString());
+        doAnswer(set).when(propertySet).setLong(anyString(), anyLong());
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                properties.remove(invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(propertySet).remove(anyString());
+
+        /* The listeners are told on the calling thread, so the tests can verify them at once */
+        node1 = new IndexingLeaderElection(clusterLockService, jiraPropertySetFactory, listener1, "node1", HEARTBEAT, LEASE, MoreExecutors.sameThreadExecutor());
+        node2 = new IndexingLeaderElection(clusterLockService, jiraPropertySetFactory, listener2, "node2", HEARTBEAT, LEASE, MoreExecutors.sameThreadExecutor());
+    }
+
+    @Test
+    public void onlyOneNodeLeadsWhileItsHeartbeatAdvances() {
+        node1.heartbeat(0);
+        assertTrue(node1.isLeader());
+        verify(listener1).leadershipChanged(true);
+
+        /* The clocks of the nodes need not agree */
+        for (long now = 0; now <= 3 * LEASE; now += HEARTBEAT) {
+            node2.heartbeat(1000000 + now);
+            node1.heartbeat(now);
+        }
+        assertTrue(node1.isLeader());
+        assertFalse(node2.isLeader());
+        verify(listener2, never()).leadershipChanged(true);
+    }
+
+    @Test
+    public void leaderThatHasNotNoticedTheTakeOverCannotConfirmItLeads() {
+        node1.heartbeat(0);
+        assertEquals(1, node1.confirmLeadership());
+
+        node2.heartbeat(0);
+        node2.heartbeat(LEASE);
+        assertTrue(node2.isLeader());
+        assertEquals(2, node2.confirmLeadership());
+
+        /* The first node has not had a heartbeat since, so it still believes it leads */
+        assertTrue(node1.isLeader());
+        assertEquals(-1, node1.confirmLeadership());
+    }
+
+    @Test
+    public void anotherNodeTakesOverOnceTheLeaseHasRunOut() {
+        node1.heartbeat(0);
+        node2.heartbeat(0);
+        node2.heartbeat(LEASE - HEARTBEAT);
+        assertFalse(node2.isLeader());
+        node2.heartbeat(LEASE);
+        assertTrue(node2.isLeader());
+
+        /* The previous leader resumes and finds it has been replaced */
+        node1.heartbeat(LEASE);
+        assertFalse(node1.isLeader());
+        verify(listener1).leadershipChanged(false);
+    }
+
+    @Test
+    public void leaderStepsDownBeforeItsLeaseRunsOutWhenItCannotRenewIt() {
+        node1.heartbeat(0);
+        when(lock.tryLock()).thenReturn(false);
+        node1.heartbeat(HEARTBEAT);
+        assertTrue(node1.isLeader());
+        node1.heartbeat(LEASE - HEARTBEAT);
+        assertFalse(node1.isLeader());
+
+        /* It steps down before any other node can take over */
+        when(lock.tryLock()).thenReturn(true);
+        node2.heartbeat(LEASE - HEARTBEAT);
+        node2.heartbeat(2 * LEASE - 2 * HEARTBEAT);
+        assertFalse(node2.isLeader());
+        node2.heartbeat(2 * LEASE - HEARTBEAT);
+        assertTrue(node2.isLeader());
+    }
+
+    @Test
+    public void stoppedLeaderGivesUpItsLease() {
+        node1.start();
+        for (int i = 0; i < 1000 && !node1.isLeader(); i++) {
+            sleep();
+        }
+        assertTrue(node1.isLeader());
+        node1.stop();
+        assertFalse(node1.isLeader());
+        final InOrder inOrder = inOrder(listener1);
+        inOrder.verify(listener1).leadershipChanged(true);
+        inOrder.verify(listener1).leadershipChanged(false);
+
+        node2.heartbeat(0);
+        assertTrue(node2.isLeader());
+    }
+
+    @Test
+    public void slowListenerDoesNotHoldUpTheHeartbeat() throws Exception {
+        final CountDownLatch changing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                changing.countDown();
+                release.await(10, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(listener1).leadershipChanged(true);
+        final CountDownLatch steppedDown = new CountDownLatch(1);
+        doAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                steppedDown.countDown();
+                return null;
+            }
+        }).when(listener1).leadershipChanged(false);
+        node1 = new IndexingLeaderElection(clusterLockService, jiraPropertySetFactory, listener1, "node1", HEARTBEAT, LEASE,
+                IndexingLeaderElection.createListenerExecutor());
+
+        /* The leader keeps renewing its lease while its listener is still taking over */
+        node1.heartbeat(0);
+        assertTrue(changing.await(10, TimeUnit.SECONDS));
+        for (long now = 0; now <= 3 * LEASE; now += HEARTBEAT) {
+            node2.heartbeat(now);
+            node1.heartbeat(now);
+        }
+        assertTrue(node1.isLeader());
+        assertFalse(node2.isLeader());
+
+        /* Stepping down meanwhile is told once the listener is done taking over */
+        when(lock.tryLock()).thenReturn(false);
+        node1.heartbeat(3 * LEASE + LEASE - HEARTBEAT);
+        assertFalse(node1.isLeader());
+        verify(listener1, never()).leadershipChanged(false);
+        release.countDown();
+        assertTrue(steppedDown.await(10, TimeUnit.SECONDS));
+        final InOrder inOrder = inOrder(listener1);
+        inOrder.verify(listener1).leadershipChanged(true);
+        inOrder.verify(listener1).leadershipChanged(false);
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.atlassian.jira.plugin.ext.subversion.servlet;
+
+import com.atlassian.jira.plugin.ext.subversion.MultipleSubversionRepositoryManager;
+import com.atlassian.jira.plugin.ext.subversion.SubversionManager;
+import com.atlassian.jira.plugin.ext.subversion.revisions.RevisionIndexer;
+import com.atlassian.jira.security.JiraAuthenticationContext;
+import com.atlassian.jira.security.PermissionManager;
+import com.atlassian.jira.security.Permissions;
+import com.atlassian.jira.user.ApplicationUser;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TestCommitHookServlet {
+
+    @Mock
+    private MultipleSubversionRepositoryManager multipleSubversionRepositoryManager;
+    @Mock
+    private JiraAuthenticationContext authenticationContext;
+    @Mock
+    private PermissionManager permissionManager;
+    @Mock
+    private RevisionIndexer revisionIndexer;
+    @Mock
+    private SubversionManager first;
+    @Mock
+    private SubversionManager second;
+    @Mock
+    private ApplicationUser admin;
+    @Mock
+    private HttpServletRequest request;
+    @Mock
+    private HttpServletResponse response;
+
+    private CommitHookServlet servlet;
+
+    @Before
+    public void setUp() {
+        when(authenticationContext.getLoggedInUser()).thenReturn(admin);
+        when(permissionManager.hasPermission(Permissions.ADMINISTER, admin)).thenReturn(true);
+        when(multipleSubversionRepositoryManager.isIndexingRevisions()).thenReturn(true);
+        when(multipleSubversionRepositoryManager.getRevisionIndexer()).thenReturn(revisionIndexer);
+        when(multipleSubversionRepositoryManager.getRepositoryList()).thenReturn(ImmutableList.of(first, second));
+        when(first.getRoot()).thenReturn("http://svn.example.com/first");
+        when(first.getRepositoryUUID()).thenReturn("1b2a5b4e-0000-0000-0000-000000000001");
+        when(second.getRoot()).thenReturn("http://svn.example.com/second");
+        when(second.getRepositoryUUID()).thenReturn("1b2a5b4e-0000-0000-0000-000000000002");
+
+        servlet = new CommitHookServlet(multipleSubversionRepositoryManager, authenticationContext, permissionManager);
+    }
+
+    @Test
+    public void revisionOfRepositoryFoundByRootIsIndexed() throws Exception {
+        when(request.getParameter(CommitHookServlet.PARAM_REPOSITORY)).thenReturn("http://svn.example.com/second/");
+        when(request.getParameter(CommitHookServlet.PARAM_REVISION)).thenReturn("42");
+
+        servlet.doPost(request, response);
+
+        verify(revisionIndexer).indexRevisions(second, 42L, 42L);
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Test
+    public void rangeOfRepositoryFoundByUuidIsIndexed() throws Exception {
+        when(request.getParameter(CommitHookServlet.PARAM_REPOSITORY)).thenReturn("1B2A5B4E-0000-0000-0000-000000000001");
+        when(request.getParameter(CommitHookServlet.PARAM_FROM)).thenReturn("10");
+        when(request.getParameter(CommitHookServlet.PARAM_TO)).thenReturn("12");
+
+        servlet.doPost(request, response);
+
+        verify(revisionIndexer).indexRevisions(first, 10L, 12L);
+        verify(response).setStatus(HttpServletResponse.SC_ACCEPTED);
+    }
+
+    @Test
+    public void unknownRepositoryIsNotFound() throws Exception {
+        when(request.getParameter(CommitHookServlet.PARAM_REPOSITORY)).thenReturn("http://svn.example.com/third");
+        when(request.getParameter(CommitHookServlet.PARAM_REVISION)).thenReturn("42");
+
+        servlet.doPost(request, response);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_NOT_FOUND), anyString());
+        verify(revisionIndexer, never()).indexRevisions(any(SubversionManager.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void missingRevisionIsBadRequest() throws Exception {
+        when(request.getParameter(CommitHookServlet.PARAM_REPOSITORY)).thenReturn("http://svn.example.com/first");
+
+        servlet.doPost(request, response);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+        verify(revisionIndexer, never()).indexRevisions(any(SubversionManager.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void replicaLeavesTheHookToRetry() throws Exception {
+        when(revisionIndexer.isReplica()).thenReturn(true);
+        when(request.getParameter(CommitHookServlet.PARAM_REPOSITORY)).thenReturn("http://svn.example.com/first");
+        when(request.getParameter(CommitHookServlet.PARAM_REVISION)).thenReturn("42");
+
+        servlet.doPost(request, response);
+
+        verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        verify(response, never()).setStatus(HttpServletResponse.SC_ACCEPTED);
+        verify(revisionIndexer, never()).indexRevisions(any(SubversionManager.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void nonAdministratorIsForbidden() throws Exception {
+        when(permissionManager.hasPermission(Permissions.ADMINISTER, admin)).thenReturn(false);
+
+        servlet.doPost(request, response);
+
+        verify(response).sendError(HttpServletResponse.SC_FORBIDDEN);
+        verify(revisionIndexer, never()).indexRevisions(any(SubversionManager.class), anyLong(), anyLong());
+    }
+
+    @Test
+    public void anonymousCallerIsUnauthorized() throws Exception {
+        when(authenticationContext.getLoggedInUser()).thenReturn(null);
+
+        servlet.doPost(request, response);
+
+        verify(response).sendError(HttpServletResponse.SC_UNAUTHORIZED);
+    }
+}